@@ -0,0 +1,28 @@
+#!/bin/sh
+
+# runs unifi on the given jars with each context sensitivity setting (off, clones per call site,
+# clones with allocs not shared across clones), and prints the context sensitivity report and unit classes of each run,
+# to pick the precision/cost point for a project.
+# usage: cs_settings.sh [max clones per method] foo.jar bar.jar ...
+# extra jvm options (classpath, heap size) can be passed in JAVA_OPTS.
+
+max_clones=0
+case $1 in
+	[0-9]*) max_clones=$1; shift;;
+esac
+
+for setting in insensitive clones allocs
+do
+	case $setting in
+		insensitive) opts="-Dunifi.cs.insensitive=true";;
+		clones) opts="";;
+		allocs) opts="-Dunifi.cs.allocs.not.shared=true";;
+	esac
+	log=cs_$setting.log
+	start=`date +%s`
+	java $JAVA_OPTS $opts -Dunifi.cs.max.clones=$max_clones unifi.drivers.Analyze "$@" > $log 2>&1
+	end=`date +%s`
+	echo "$setting: `expr $end - $start`s elapsed, log in $log"
+	grep "^Context sensitivity:" $log
+	grep "^Units summary:" $log | head -1
+done
@@ -20,23 +20,29 @@ import java.io.*;
 import org.apache.bcel.generic.*;
 import org.apache.bcel.classfile.*;
 
+import unifi.util.SymbolTable;
 import unifi.util.Util;
 
-/** represents a bytecode location in the analyzed program */
+/** represents a bytecode location in the analyzed program.
+ * the analysis gets its BCPs from a BCPFactory, which hands out one instance per location. */
 public class BCP implements Serializable {
 
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = 562993892313328098L;
+
 private int _pos, _src_line; // src_line = 0 means it is unavailable
 private String _class_name;
 private String _method_name_and_sig;
 private boolean _is_meet;
+private transient int _hash; // 0 if not computed yet
 
 public BCP (MethodGen mg, ConstantPoolGen cpgen, int pos)
 {
     _pos = pos;
     LineNumberTable lnt = mg.getLineNumberTable(cpgen);
     _src_line = (lnt != null) ? lnt.getSourceLine(pos) : 0;
-    _class_name = mg.getClassName().intern();
-    _method_name_and_sig = (mg.getName() + mg.getSignature()).intern();
+    _class_name = SymbolTable.intern(mg.getClassName());
+    _method_name_and_sig = SymbolTable.intern(mg.getName() + mg.getSignature());
 }
 
 public BCP (MethodGen mg, ConstantPoolGen cpgen, int pos, boolean is_meet)
@@ -46,10 +52,21 @@ public BCP (MethodGen mg, ConstantPoolGen cpgen, int pos, boolean is_meet)
     _is_meet = true;
 }
 
+/** for reading units files and for BCPFactory */
+BCP (String class_name, String method_name_and_sig, int pos, int src_line, boolean is_meet)
+{
+    _class_name = SymbolTable.intern(class_name);
+    _method_name_and_sig = SymbolTable.intern(method_name_and_sig);
+    _pos = pos;
+    _src_line = src_line;
+    _is_meet = is_meet;
+}
+
 public String get_class_name () { return _class_name; }
 public int get_src_line () { return _src_line; }
 public int get_pos() { return _pos; }
 public String get_method_name_and_sig() { return _method_name_and_sig; }
+public boolean is_meet() { return _is_meet; }
 
 public String toString ()
 {
@@ -64,11 +81,16 @@ public String toString ()
 
 public int hashCode ()
 {
-    return _class_name.hashCode() ^ _method_name_and_sig.hashCode() ^ _pos ^ _src_line ^ ((_is_meet) ? 1: 0);
+    int h = _hash;
+    if (h == 0)
+        _hash = h = _class_name.hashCode() ^ _method_name_and_sig.hashCode() ^ _pos ^ _src_line ^ ((_is_meet) ? 1: 0);
+    return h;
 }
 
 public boolean equals (Object o)
 {
+    if (o == this)
+        return true;
     if (!(o instanceof BCP))
 	return false;
 
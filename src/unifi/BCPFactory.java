@@ -0,0 +1,99 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi;
+
+import java.util.Arrays;
+
+import org.apache.bcel.classfile.LineNumberTable;
+import org.apache.bcel.generic.ConstantPoolGen;
+import org.apache.bcel.generic.MethodGen;
+
+import unifi.util.SymbolTable;
+
+/** hands out the BCPs of one method, one canonical instance per position (and meet flag).
+ * the line number table of the method and its class name and signature are looked up
+ * once per method instead of once per BCP.
+ * methods are analyzed one at a time, so only the factory for the current method is kept
+ * (see for_method); BCPs from different factories for the same method are still equal. */
+public class BCPFactory {
+
+private static BCPFactory current;
+private static int n_factories, n_bcps_created, n_bcps_requested;
+
+private final MethodGen mg;
+private final LineNumberTable lnt;
+private final String class_name, method_name_and_sig;
+private BCP[] bcps = new BCP[32], meet_bcps = new BCP[8]; // indexed by pos
+
+private BCPFactory (MethodGen mg, ConstantPoolGen cpgen)
+{
+	this.mg = mg;
+	this.lnt = mg.getLineNumberTable(cpgen);
+	this.class_name = SymbolTable.intern(mg.getClassName());
+	this.method_name_and_sig = SymbolTable.intern(mg.getName() + mg.getSignature());
+	n_factories++;
+}
+
+/** returns the factory for mg, which is a new one unless mg is the method the last factory was for */
+public static BCPFactory for_method (MethodGen mg, ConstantPoolGen cpgen)
+{
+	BCPFactory f = current;
+	if (f == null || f.mg != mg)
+		current = f = new BCPFactory(mg, cpgen);
+	return f;
+}
+
+/** the BCP at pos. pos may be negative for locals that are not defined at an insn, those are not cached */
+public BCP at (int pos)
+{
+	n_bcps_requested++;
+	if (pos < 0)
+		return create(pos, false);
+	if (pos >= bcps.length)
+		bcps = Arrays.copyOf(bcps, Math.max(pos+1, 2*bcps.length));
+	BCP bcp = bcps[pos];
+	if (bcp == null)
+		bcps[pos] = bcp = create(pos, false);
+	return bcp;
+}
+
+/** the BCP of the meet operator at pos */
+public BCP meet_at (int pos)
+{
+	n_bcps_requested++;
+	if (pos >= meet_bcps.length)
+		meet_bcps = Arrays.copyOf(meet_bcps, Math.max(pos+1, 2*meet_bcps.length));
+	BCP bcp = meet_bcps[pos];
+	if (bcp == null)
+		meet_bcps[pos] = bcp = create(pos, true);
+	return bcp;
+}
+
+private BCP create (int pos, boolean is_meet)
+{
+	n_bcps_created++;
+	int src_line = (lnt != null) ? lnt.getSourceLine(pos) : 0;
+	return new BCP(class_name, method_name_and_sig, pos, src_line, is_meet);
+}
+
+public static String stats()
+{
+	return "BCPs: " + n_bcps_requested + " requested, " + n_bcps_created + " created in " + n_factories + " methods, "
+	       + SymbolTable.size() + " symbols";
+}
+
+}
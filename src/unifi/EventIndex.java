@@ -0,0 +1,387 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import unifi.UnitCollection.PathInfo;
+import unifi.units.Unit;
+import unifi.util.Util;
+
+/** compressed sparse row (CSR) index of the unit -> event graph of a unit collection, for path queries.
+ * nodes are ints: the collection's units first, in order (so node i is the unit with id i+1 after
+ * assignUnitAndEventIds), then units outside the collection reachable through events, then one hub
+ * node per golden event. a golden event connects all its units, so instead of k^2 edges
+ * its units are linked to its hub, and a path through a hub is one leg. searches expand a hub as
+ * soon as they reach it, so its units are one level apart, and the shortest path has the fewest legs.
+ * the edges out of node i are adj_node/adj_event[adj_start[i] .. adj_start[i+1]).
+ * an event is in the unifEvents of both its units (all units for golden events),
+ * so the graph is undirected and searches from the target use the same edges.
+ * the index is a snapshot: UnitCollection drops it when its events change. */
+public class EventIndex {
+
+private static Logger logger = Logger.getLogger("unifi.EventIndex");
+
+private final Map<Unit, Integer> node_of = new IdentityHashMap<Unit, Integer>();
+private final List<Unit> units = new ArrayList<Unit>();
+private final List<UnificationEvent> events = new ArrayList<UnificationEvent>();
+private final int n_units, n_nodes;
+private final int[] hub_event; // node - n_units -> event index of the golden event
+private final int[] adj_start;
+private int[] adj_node, adj_event;
+
+// search state, reused across queries. a node is visited by the current search iff its stamp is current.
+private final int[] fwd_stamp, fwd_from, fwd_event, bwd_stamp, bwd_from, bwd_event;
+private int stamp;
+// units found by the current level of a search (see expand), and the first of them the other side has visited
+private int[] next = new int[16];
+private int n_next, n_hits, first_hit;
+
+EventIndex(UnitCollection uc)
+{
+	for (Unit u : uc.get_units())
+		node(u);
+
+	// close over units reachable through events, and number the events
+	Map<UnificationEvent, Integer> event_idx = new IdentityHashMap<UnificationEvent, Integer>();
+	List<Integer> hubs = new ArrayList<Integer>();
+	for (int i = 0; i < units.size(); i++)
+	{
+		for (UnificationEvent e : events_of(units.get(i)))
+		{
+			if (event_idx.containsKey(e))
+				continue;
+			event_idx.put(e, events.size());
+			if (e instanceof GoldenUnifiEvent)
+			{
+				hubs.add(events.size());
+				for (Unit u : ((GoldenUnifiEvent) e).get_units())
+					node(u);
+			}
+			else
+			{
+				node(e.get_unit_a());
+				node(e.get_unit_b());
+			}
+			events.add(e);
+		}
+	}
+
+	n_units = units.size();
+	n_nodes = n_units + hubs.size();
+	hub_event = new int[hubs.size()];
+	int[] hub_of_event = new int[events.size()];
+	Arrays.fill(hub_of_event, -1);
+	for (int h = 0; h < hubs.size(); h++)
+	{
+		hub_event[h] = hubs.get(h);
+		hub_of_event[hub_event[h]] = n_units + h;
+	}
+
+	// count degrees, then fill. an event may appear more than once in a unit's list; it is only used once.
+	adj_start = new int[n_nodes + 1];
+	int[] last_seen = new int[events.size()];
+	Arrays.fill(last_seen, -1);
+	for (int pass = 0; pass < 2; pass++)
+	{
+		int[] fill = (pass == 0) ? null : Arrays.copyOf(adj_start, n_nodes);
+		for (int i = 0; i < n_units; i++)
+		{
+			Unit u = units.get(i);
+			for (UnificationEvent e : events_of(u))
+			{
+				int ei = event_idx.get(e);
+				if (last_seen[ei] == 2*i + pass)
+					continue;
+				last_seen[ei] = 2*i + pass;
+
+				int to;
+				if (hub_of_event[ei] >= 0)
+					to = hub_of_event[ei];
+				else
+				{
+					Util.ASSERT ((e.get_unit_a() == u) || (e.get_unit_b() == u));
+					to = node_of.get((e.get_unit_a() == u) ? e.get_unit_b() : e.get_unit_a());
+				}
+				if (pass == 0)
+					adj_start[i+1]++;
+				else
+				{
+					adj_node[fill[i]] = to;
+					adj_event[fill[i]++] = ei;
+				}
+			}
+		}
+		for (int h = 0; h < hub_event.length; h++)
+		{
+			int hub = n_units + h;
+			for (Unit u : ((GoldenUnifiEvent) events.get(hub_event[h])).get_units())
+			{
+				if (pass == 0)
+					adj_start[hub+1]++;
+				else
+				{
+					adj_node[fill[hub]] = node_of.get(u);
+					adj_event[fill[hub]++] = hub_event[h];
+				}
+			}
+		}
+
+		if (pass == 0)
+		{
+			for (int i = 0; i < n_nodes; i++)
+				adj_start[i+1] += adj_start[i];
+			adj_node = new int[adj_start[n_nodes]];
+			adj_event = new int[adj_start[n_nodes]];
+		}
+	}
+
+	fwd_stamp = new int[n_nodes]; fwd_from = new int[n_nodes]; fwd_event = new int[n_nodes];
+	bwd_stamp = new int[n_nodes]; bwd_from = new int[n_nodes]; bwd_event = new int[n_nodes];
+	logger.fine ("event index: " + this);
+}
+
+private int node(Unit u)
+{
+	Integer i = node_of.get(u);
+	if (i == null)
+	{
+		i = units.size();
+		units.add(u);
+		node_of.put(u, i);
+	}
+	return i;
+}
+
+private static List<UnificationEvent> events_of(Unit u)
+{
+	return (u.unifEvents == null) ? Collections.<UnificationEvent>emptyList() : u.unifEvents;
+}
+
+private void new_search()
+{
+	if (++stamp == Integer.MAX_VALUE)
+	{
+		Arrays.fill(fwd_stamp, 0);
+		Arrays.fill(bwd_stamp, 0);
+		stamp = 1;
+	}
+}
+
+/** shortest path from src to target, in the same form as UnitCollection.find_path:
+ * the leg that reaches target first, back to the leg that leaves src. null if there is no path.
+ * searches from both ends, a level at a time, always growing the smaller frontier. */
+public synchronized List<PathInfo> find_path(Unit src_unit, Unit target_unit)
+{
+	if (src_unit == target_unit)
+		return new ArrayList<PathInfo>();
+	Integer s = node_of.get(src_unit), t = node_of.get(target_unit);
+	if (s == null || t == null)
+		return null; // a unit without events isn't connected to anything
+
+	new_search();
+	fwd_stamp[s] = stamp; fwd_from[s] = -1;
+	bwd_stamp[t] = stamp; bwd_from[t] = -1;
+	int[] fwd_frontier = new int[] { s }, bwd_frontier = new int[] { t };
+	int n_fwd = 1, n_bwd = 1;
+
+	while (n_fwd > 0 && n_bwd > 0)
+	{
+		boolean forward = (n_fwd <= n_bwd);
+		int[] frontier = forward ? fwd_frontier : bwd_frontier;
+		int n = forward ? n_fwd : n_bwd;
+		int[] my_stamp = forward ? fwd_stamp : bwd_stamp, my_from = forward ? fwd_from : bwd_from, my_event = forward ? fwd_event : bwd_event;
+		int[] other_stamp = forward ? bwd_stamp : fwd_stamp;
+
+		start_level();
+		for (int i = 0; i < n; i++)
+			expand(frontier[i], my_stamp, my_from, my_event, other_stamp);
+
+		// all nodes met in this level give paths of the same length, so the first one will do
+		if (n_hits > 0)
+			return legs(s, t, first_hit);
+
+		int[] level = Arrays.copyOf(next, n_next);
+		if (forward) { fwd_frontier = level; n_fwd = n_next; }
+		else { bwd_frontier = level; n_bwd = n_next; }
+	}
+	return null;
+}
+
+private void start_level()
+{
+	n_next = n_hits = 0;
+	first_hit = -1;
+}
+
+/** visits the unvisited neighbours of unit u, adding the units among them to next. a hub is expanded
+ * right away, so the units of a golden event are found in the same level, like those of a normal event.
+ * units other_stamp marks as visited are counted in n_hits */
+private void expand(int u, int[] my_stamp, int[] my_from, int[] my_event, int[] other_stamp)
+{
+	for (int j = adj_start[u]; j < adj_start[u+1]; j++)
+	{
+		int x = adj_node[j];
+		if (my_stamp[x] == stamp)
+			continue;
+		my_stamp[x] = stamp;
+		my_from[x] = u;
+		my_event[x] = adj_event[j];
+		if (x >= n_units)
+		{
+			expand(x, my_stamp, my_from, my_event, other_stamp); // hubs only link to units, so this goes one deep
+			continue;
+		}
+		if (other_stamp[x] == stamp && n_hits++ == 0)
+			first_hit = x;
+		if (n_next == next.length)
+			next = Arrays.copyOf(next, 2*n_next);
+		next[n_next++] = x;
+	}
+}
+
+/** path through meet, which both searches have reached */
+private List<PathInfo> legs(int s, int t, int meet)
+{
+	// nodes from s to t, and the event on the edge into each node
+	List<Integer> nodes = new ArrayList<Integer>(), edges = new ArrayList<Integer>();
+	for (int x = meet; x != s; x = fwd_from[x])
+	{
+		nodes.add(x);
+		edges.add(fwd_event[x]);
+	}
+	nodes.add(s);
+	edges.add(-1);
+	Collections.reverse(nodes);
+	Collections.reverse(edges);
+	for (int x = meet; x != t; x = bwd_from[x])
+	{
+		nodes.add(bwd_from[x]);
+		edges.add(bwd_event[x]);
+	}
+	return legs(nodes, edges);
+}
+
+/** converts a node path to legs, last leg first. a hub is skipped, and the units around it make one leg */
+private List<PathInfo> legs(List<Integer> nodes, List<Integer> edges)
+{
+	List<PathInfo> result = new ArrayList<PathInfo>();
+	for (int i = 0; i+1 < nodes.size(); i++)
+	{
+		int to = i+1;
+		if (nodes.get(to) >= n_units)
+			to++; // hubs are never at either end
+		result.add(new PathInfo(units.get(nodes.get(i)), units.get(nodes.get(to)), events.get(edges.get(to))));
+		i = to - 1;
+	}
+	Collections.reverse(result);
+	return result;
+}
+
+/** shortest paths for many (srcs[i], targets[i]) pairs, in one BFS per distinct src.
+ * result[i] is the path for pair i, as find_path would return it (but not necessarily the same path). */
+public synchronized List<List<PathInfo>> find_paths(List<Unit> srcs, List<Unit> targets)
+{
+	Util.ASSERT (srcs.size() == targets.size());
+	List<List<PathInfo>> result = new ArrayList<List<PathInfo>>(Collections.<List<PathInfo>>nCopies(srcs.size(), null));
+
+	// pair indices grouped by src
+	Map<Unit, List<Integer>> pairs_for_src = new LinkedHashMap<Unit, List<Integer>>();
+	for (int i = 0; i < srcs.size(); i++)
+	{
+		List<Integer> l = pairs_for_src.get(srcs.get(i));
+		if (l == null)
+		{
+			l = new ArrayList<Integer>();
+			pairs_for_src.put(srcs.get(i), l);
+		}
+		l.add(i);
+	}
+
+	for (Map.Entry<Unit, List<Integer>> me : pairs_for_src.entrySet())
+	{
+		Integer s = node_of.get(me.getKey());
+		if (s == null)
+		{
+			for (int i : me.getValue())
+				if (targets.get(i) == srcs.get(i))
+					result.set(i, new ArrayList<PathInfo>());
+			continue;
+		}
+
+		// # of distinct targets not yet reached, so the BFS can stop early
+		new_search();
+		int remaining = 0;
+		for (int i : me.getValue())
+		{
+			Integer t = node_of.get(targets.get(i));
+			if (t != null && bwd_stamp[t] != stamp)
+			{
+				bwd_stamp[t] = stamp; // marks targets
+				remaining++;
+			}
+		}
+
+		fwd_stamp[s] = stamp; fwd_from[s] = -1;
+		if (bwd_stamp[s] == stamp)
+			remaining--;
+		int[] frontier = new int[] { s };
+		int n = 1;
+		while (n > 0 && remaining > 0)
+		{
+			start_level();
+			for (int i = 0; i < n; i++)
+				expand(frontier[i], fwd_stamp, fwd_from, fwd_event, bwd_stamp);
+			remaining -= n_hits;
+			frontier = Arrays.copyOf(next, n_next);
+			n = n_next;
+		}
+
+		for (int i : me.getValue())
+		{
+			Integer t = node_of.get(targets.get(i));
+			if (t == null || fwd_stamp[t] != stamp)
+				continue;
+			List<Integer> nodes = new ArrayList<Integer>(), edges = new ArrayList<Integer>();
+			for (int x = t; x != s; x = fwd_from[x])
+			{
+				nodes.add(x);
+				edges.add(fwd_event[x]);
+			}
+			nodes.add(s);
+			edges.add(-1);
+			Collections.reverse(nodes);
+			Collections.reverse(edges);
+			result.set(i, legs(nodes, edges));
+		}
+	}
+	return result;
+}
+
+public String toString()
+{
+	return n_units + " units, " + (n_nodes - n_units) + " golden event hubs, " + events.size() + " events, " + adj_node.length + " edges";
+}
+
+}
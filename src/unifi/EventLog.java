@@ -0,0 +1,197 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.logging.Logger;
+
+import unifi.units.Unit;
+import unifi.util.Util;
+
+/** append-only log of every unification event of a run, enabled with -Dunifi.events.spill=<file>.
+ * lets the in-memory event log be cut down (-Dunifi.events=forest) without losing the full history.
+ * units and strings are written once, when they first appear, and referred to by number after that:
+ *   'S' int #, string          a string (class or method name)
+ *   'U' int #, string          a unit, as its toString() when it first appears
+ *   'E' int a, int b, int class string, int method string, int pos, int line, int depends on event #
+ * events are numbered from 0 in the order they appear. -1 means null.
+ * java unifi.EventLog <file> prints a log. */
+public class EventLog {
+
+private static Logger logger = Logger.getLogger("unifi.EventLog");
+
+private static final int MAX_UNIT_STRING = 20000;
+private static final String SPILL_FILE = System.getProperty("unifi.events.spill");
+private static EventLog log;
+
+private final DataOutputStream out;
+private final Map<Unit, Integer> unit_num = new IdentityHashMap<Unit, Integer>();
+private final Map<String, Integer> string_num = new HashMap<String, Integer>();
+// only needed to resolve depends_on, which always refers to a recent event
+private final Map<UnificationEvent, Integer> event_num = new WeakHashMap<UnificationEvent, Integer>();
+private int n_events;
+
+private EventLog(String filename) throws IOException
+{
+	out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+}
+
+public static boolean spilling() { return SPILL_FILE != null; }
+
+/** appends e to the spill file */
+public static synchronized void log(UnificationEvent e)
+{
+	try {
+		if (log == null)
+		{
+			logger.info("Spilling unification events to " + SPILL_FILE);
+			log = new EventLog(SPILL_FILE);
+		}
+		log.write(e);
+	} catch (IOException ioe) {
+		Util.fatal("unable to write unification event to " + SPILL_FILE + ": " + ioe);
+	}
+}
+
+/** flushes the spill file, if any */
+public static synchronized void flush()
+{
+	if (log == null)
+		return;
+	try {
+		log.out.flush();
+	} catch (IOException ioe) {
+		Util.warn("unable to flush " + SPILL_FILE + ": " + ioe);
+	}
+	logger.info(log.n_events + " unification events in " + SPILL_FILE);
+}
+
+private int unit(Unit u) throws IOException
+{
+	if (u == null)
+		return -1;
+	Integer n = unit_num.get(u);
+	if (n == null)
+	{
+		n = unit_num.size();
+		unit_num.put(u, n);
+		out.writeByte('U');
+		out.writeInt(n);
+		String s = u.toString();
+		if (s.length() > MAX_UNIT_STRING) // stay within writeUTF's limit
+			s = s.substring(0, MAX_UNIT_STRING) + "...";
+		out.writeUTF(s);
+	}
+	return n;
+}
+
+private int string(String s) throws IOException
+{
+	if (s == null)
+		return -1;
+	Integer n = string_num.get(s);
+	if (n == null)
+	{
+		n = string_num.size();
+		string_num.put(s, n);
+		out.writeByte('S');
+		out.writeInt(n);
+		out.writeUTF(s);
+	}
+	return n;
+}
+
+private void write(UnificationEvent e) throws IOException
+{
+	int a = unit(e.get_unit_a()), b = unit(e.get_unit_b());
+	BCP bcp = e.get_bcp();
+	int class_name = (bcp == null) ? -1 : string(bcp.get_class_name());
+	int method = (bcp == null) ? -1 : string(bcp.get_method_name_and_sig());
+	Integer depends_on = (e.depends_on() == null) ? null : event_num.get(e.depends_on());
+
+	out.writeByte('E');
+	out.writeInt(a);
+	out.writeInt(b);
+	out.writeInt(class_name);
+	out.writeInt(method);
+	out.writeInt((bcp == null) ? -1 : bcp.get_pos());
+	out.writeInt((bcp == null) ? -1 : bcp.get_src_line());
+	out.writeInt((depends_on == null) ? -1 : depends_on);
+	event_num.put(e, n_events++);
+}
+
+/** prints a spill file */
+public static void main(String args[]) throws IOException
+{
+	if (args.length != 1)
+	{
+		System.err.println("Usage: java unifi.EventLog <event log file>");
+		System.exit(1);
+	}
+
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(args[0]), 1 << 16));
+	List<String> units = new ArrayList<String>(), strings = new ArrayList<String>();
+	int n_events = 0;
+	try {
+		while (true)
+		{
+			byte type;
+			try { type = in.readByte(); }
+			catch (EOFException eofe) { break; }
+
+			if (type == 'U')
+			{
+				Util.ASSERT(in.readInt() == units.size());
+				units.add(in.readUTF());
+			}
+			else if (type == 'S')
+			{
+				Util.ASSERT(in.readInt() == strings.size());
+				strings.add(in.readUTF());
+			}
+			else if (type == 'E')
+			{
+				int a = in.readInt(), b = in.readInt(), class_name = in.readInt(), method = in.readInt();
+				int pos = in.readInt(), line = in.readInt(), depends_on = in.readInt();
+				String where = (class_name < 0) ? "unknown location" : (strings.get(class_name) + "." + strings.get(method) + " line " + line + ", pos " + pos);
+				System.out.println("E" + n_events++ + ". Unification at " + where
+						+ ((depends_on >= 0) ? " (due to E" + depends_on + ")" : "") + " between:\n  "
+						+ ((a < 0) ? null : units.get(a)) + "\n  " + ((b < 0) ? null : units.get(b)));
+			}
+			else
+				Util.fatal("bad record type " + type + " in " + args[0]);
+		}
+	} finally {
+		in.close();
+	}
+	System.out.println(n_events + " events, " + units.size() + " units");
+}
+
+}
@@ -6,6 +6,9 @@ import unifi.units.Unit;
 
 public class GoldenUnifiEvent extends UnificationEvent {
 
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = -6850433697343325140L;
+
 	private Unit rep;
 	private List<Unit> goldenUnits;
 
@@ -19,6 +22,10 @@ public class GoldenUnifiEvent extends UnificationEvent {
 		return "Golden Unification event for " + rep;
 	}
 
+	public Unit get_rep() {
+		return rep;
+	}
+
 	public List<Unit> get_units() {
 		return goldenUnits;
 	}
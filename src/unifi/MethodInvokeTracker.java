@@ -1,55 +1,287 @@
 /*
 UniFi software.
-Copyright [2001-2010] Sudheendra Hangal  
-
-Licensed under the Apache License, Version 2.0 (the "License"); 
-you may not use this file except in compliance with the License. 
-You may obtain a copy of the License at 
-    http://www.apache.org/licenses/LICENSE-2.0 
-
-Unless required by applicable law or agreed to in writing, software 
-distributed under the License is distributed on an "AS IS" BASIS, 
-WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
-See the License for the specific language governing permissions and 
-limitations under the License. 
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
 */
 
 package unifi;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
-import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-/** maintains a map of which method calls which other method, currently used only for printing * 
+/** the call graph: which method calls which other method, and at how many call sites.
+ * methods get dense ids in the order they are first seen, and edges are kept as int adjacency
+ * lists in both directions (callee -> callers and caller -> callees), in the order they were added.
+ * the context sensitive analysis uses it to schedule its worklist (see computeSCCs).
  */
 public class MethodInvokeTracker {
 
-	// lets just maintain both maps for now, they have the same information *
-private Map<MethodUnits, Set<MethodUnits>> calleeToCallerMap = new LinkedHashMap<MethodUnits, Set<MethodUnits>>();
+private static final int FILE_MAGIC = 0x55434731; // "UCG1"
+
+private Map<MethodUnits, Integer> methodId = new HashMap<MethodUnits, Integer>();
+private List<MethodUnits> methods = new ArrayList<MethodUnits>();
 
-/** adds a dependency from caller to callee */
-public void addMethodDep(MethodUnits caller, MethodUnits callee)
+// adjacency lists, indexed by method id. only the first nCallers[i]/nCallees[i] entries are used.
+// callSites[i][j] is the # of call sites in method i that call callees[i][j].
+private int[][] callers = new int[0][], callees = new int[0][], callSites = new int[0][];
+private int[] nCallers = new int[0], nCallees = new int[0];
+private Map<Long, Integer> edgePos = new HashMap<Long, Integer>(); // (caller, callee) -> position in callees[caller]
+private Set<BCP> seenCallSites = new HashSet<BCP>();
+private int nEdges;
+
+/** returns the id of mu, giving it one if it doesn't have one yet */
+public int addMethod(MethodUnits mu)
 {
-	Set<MethodUnits> s = calleeToCallerMap.get(callee);
-	if (s == null)
+	Integer id = methodId.get(mu);
+	if (id != null)
+		return id;
+
+	int n = methods.size();
+	methodId.put(mu, n);
+	methods.add(mu);
+	if (n == callers.length)
 	{
-		s = new LinkedHashSet<MethodUnits>();
-		calleeToCallerMap.put (callee, s);
+		int cap = Math.max(16, 2*n);
+		callers = Arrays.copyOf(callers, cap);
+		callees = Arrays.copyOf(callees, cap);
+		callSites = Arrays.copyOf(callSites, cap);
+		nCallers = Arrays.copyOf(nCallers, cap);
+		nCallees = Arrays.copyOf(nCallees, cap);
+	}
+	callers[n] = new int[2];
+	callees[n] = new int[2];
+	callSites[n] = new int[2];
+	return n;
+}
+
+/** returns the id of mu, -1 if it is not in the call graph */
+public int getId(MethodUnits mu)
+{
+	Integer id = methodId.get(mu);
+	return (id == null) ? -1 : id;
+}
+
+public MethodUnits getMethod(int id) { return methods.get(id); }
+public int nMethods() { return methods.size(); }
+public int nEdges() { return nEdges; }
+
+/** adds a dependency from caller to callee at call site bcp. the same call site may be seen more than once */
+public void addMethodDep(MethodUnits caller, MethodUnits callee, BCP bcp)
+{
+	int from = addMethod(caller), to = addMethod(callee);
+	Long key = (((long) from) << 32) | to;
+	Integer pos = edgePos.get(key);
+	if (pos == null)
+	{
+		pos = nCallees[from];
+		edgePos.put(key, pos);
+		append(callees, nCallees, from, to);
+		if (callSites[from].length < callees[from].length)
+			callSites[from] = Arrays.copyOf(callSites[from], callees[from].length);
+		append(callers, nCallers, to, from);
+		nEdges++;
+	}
+	if (seenCallSites.add(bcp))
+		callSites[from][pos]++;
+}
+
+private static void append(int[][] lists, int[] sizes, int i, int x)
+{
+	if (sizes[i] == lists[i].length)
+		lists[i] = Arrays.copyOf(lists[i], 2*lists[i].length);
+	lists[i][sizes[i]++] = x;
+}
+
+/** returns the ids of the callers of method id, in the order they were added */
+public int[] getCallerIds(int id) { return Arrays.copyOf(callers[id], nCallers[id]); }
+/** returns the ids of the methods called by method id, in the order they were added */
+public int[] getCalleeIds(int id) { return Arrays.copyOf(callees[id], nCallees[id]); }
+/** returns the # of call sites in method id for each of its callees, parallel to getCalleeIds */
+public int[] getCallSiteCounts(int id) { return Arrays.copyOf(callSites[id], nCallees[id]); }
+
+/** returns the callers of callee, in the order they were added */
+public List<MethodUnits> getCallers(MethodUnits callee)
+{
+	final int id = getId(callee);
+	return new AbstractList<MethodUnits>() {
+		public int size() { return (id < 0) ? 0 : nCallers[id]; }
+		public MethodUnits get(int i) { return methods.get(callers[id][i]); }
+	};
+}
+
+/** strongly connected components of a call graph */
+public static class SCCs {
+	/** SCC # of each method id, -1 for methods not included. SCCs are numbered callees first,
+	 * i.e. an SCC has a lower # than the SCCs of all its callers */
+	public final int[] sccOf;
+	public final int[] sccSize;
+	SCCs(int[] sccOf, int[] sccSize) { this.sccOf = sccOf; this.sccSize = sccSize; }
+	public int nSCCs() { return sccSize.length; }
+	public int maxSCCSize()
+	{
+		int max = 0;
+		for (int size : sccSize)
+			max = Math.max(max, size);
+		return max;
+	}
+}
+
+/** computes the SCCs of the call graph restricted to the given method ids, which are also the order
+ * in which roots are tried (tarjan's algorithm, iterative). */
+public SCCs computeSCCs(int[] ids)
+{
+	int n = methods.size();
+	boolean[] included = new boolean[n];
+	for (int id : ids)
+		included[id] = true;
+
+	// an SCC is completed only after all SCCs reachable from it through caller edges,
+	// i.e. all SCCs of its callers, so completion order is callers first.
+	int[] index = new int[n], lowlink = new int[n], completedAs = new int[n];
+	Arrays.fill(index, -1);
+	boolean[] onStack = new boolean[n];
+	int[] stack = new int[n], callStack = new int[n], edge = new int[n];
+	int sp = 0, nextIndex = 0, nCompleted = 0;
+	List<Integer> sccSizes = new ArrayList<Integer>();
+
+	for (int root : ids)
+	{
+		if (index[root] >= 0)
+			continue;
+		int csp = 0;
+		callStack[csp++] = root;
+		index[root] = lowlink[root] = nextIndex++;
+		stack[sp++] = root; onStack[root] = true;
+		edge[root] = 0;
+
+		while (csp > 0)
+		{
+			int v = callStack[csp-1];
+			if (edge[v] < nCallers[v])
+			{
+				int w = callers[v][edge[v]++];
+				if (!included[w])
+					continue;
+				if (index[w] < 0)
+				{
+					index[w] = lowlink[w] = nextIndex++;
+					stack[sp++] = w; onStack[w] = true;
+					edge[w] = 0;
+					callStack[csp++] = w;
+				}
+				else if (onStack[w])
+					lowlink[v] = Math.min(lowlink[v], index[w]);
+				continue;
+			}
+
+			// done with v
+			csp--;
+			if (csp > 0)
+			{
+				int parent = callStack[csp-1];
+				lowlink[parent] = Math.min(lowlink[parent], lowlink[v]);
+			}
+			if (lowlink[v] == index[v])
+			{
+				int size = 0, w;
+				do {
+					w = stack[--sp];
+					onStack[w] = false;
+					completedAs[w] = nCompleted;
+					size++;
+				} while (w != v);
+				sccSizes.add(size);
+				nCompleted++;
+			}
+		}
+	}
+
+	// callees first: reverse the completion order
+	int[] sccOf = new int[n], sccSize = new int[nCompleted];
+	Arrays.fill(sccOf, -1);
+	for (int id : ids)
+		sccOf[id] = nCompleted - 1 - completedAs[id];
+	for (int c = 0; c < nCompleted; c++)
+		sccSize[nCompleted - 1 - c] = sccSizes.get(c);
+	return new SCCs(sccOf, sccSize);
+}
+
+/** returns the given method ids in reverse topological order of the call graph: callees before
+ * their callers, except within an SCC, where methods keep their order in ids */
+public int[] reverseTopologicalOrder(int[] ids, SCCs sccs)
+{
+	int nSCCs = sccs.nSCCs();
+	int[] start = new int[nSCCs + 1];
+	for (int id : ids)
+		start[sccs.sccOf[id] + 1]++;
+	for (int s = 0; s < nSCCs; s++)
+		start[s+1] += start[s];
+	int[] order = new int[ids.length];
+	for (int id : ids)
+		order[start[sccs.sccOf[id]]++] = id;
+	return order;
+}
+
+/** writes the call graph to a file: the signature of each method, followed by, for each method,
+ * its callees as (callee id, # of call sites) pairs */
+public void write(String filename) throws IOException
+{
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+	try {
+		out.writeInt(FILE_MAGIC);
+		out.writeInt(methods.size());
+		for (MethodUnits mu : methods)
+			out.writeUTF(mu.full_sig());
+		for (int i = 0; i < methods.size(); i++)
+		{
+			out.writeInt(nCallees[i]);
+			for (int j = 0; j < nCallees[i]; j++)
+			{
+				out.writeInt(callees[i][j]);
+				out.writeInt(callSites[i][j]);
+			}
+		}
+	} finally {
+		out.close();
 	}
-	s.add(caller);
 }
 
 public void printMethodDeps(PrintStream out)
 {
 	int i = 1;
-	for (Map.Entry<MethodUnits, Set<MethodUnits>> me : calleeToCallerMap.entrySet())
+	for (int id = 0; id < methods.size(); id++)
 	{
-		out.println (i++ + ". Callee: " + me.getKey().full_sig());
-		int j = 0;
-		for (MethodUnits mu : me.getValue())
-			out.println ("\t" + j + ". " + mu.full_sig());
+		if (nCallers[id] == 0)
+			continue;
+		out.println (i++ + ". Callee: " + methods.get(id).full_sig());
+		for (int j = 0; j < nCallers[id]; j++)
+			out.println ("\t" + j + ". " + methods.get(callers[id][j]).full_sig());
 	}
 }
+
+public String toString()
+{
+	return "call graph: " + methods.size() + " methods, " + nEdges + " caller-callee edges, " + seenCallSites.size() + " call sites";
+}
 }
@@ -52,8 +52,12 @@ public class MethodUnits implements Serializable
 	static {
 		readIgnoreList();
 	}
-	/** map of <BCP at call site to this method> -> method summary for that call site */
+	/** map of <BCP at call site to this method> -> method summary for that call site.
+	 * the call site is the context key, so each visit of a call site gets the same clone */
 	private static Map<BCP,MethodSummary>bcpToCloneMap = new LinkedHashMap<BCP, MethodSummary>();
+	/** call sites that use the master summary because the callee already had MethodSummary.MAX_CLONES clones */
+	private static Set<BCP> cappedCallSites = new LinkedHashSet<BCP>();
+	private static int nCloneLookups, nCloneLookupHits;
 
 	// mappings_sigs are sigs of method **implementations (or overrides)** that map to this method
 	private final Set<String> _mapping_sigs = new LinkedHashSet<String>(); /** sigs of all methods that map to this MethodUnit */
@@ -116,6 +120,7 @@ public class MethodUnits implements Serializable
 		isGolden = true;
 		// remove pointers to all clones
 		bcpToCloneMap.clear();
+		cappedCallSites.clear();
 
 		// null out params and retval if they are not golden, we won't be needing them
 		for (int i = 0; i < _params.length; i++)
@@ -258,6 +263,38 @@ public class MethodUnits implements Serializable
 		Util.ASSERT (word_ptr == total_no_of_words);
 	}
 
+	/* for UnitsFile, which writes method units without java serialization */
+	static final int F_PUBLIC_OR_PROTECTED = 1, F_INTERFACE = 2, F_IN_ANALYZED_CODE = 4, F_GOLDEN = 8;
+
+	/** method units with the given scalar state and no units or summary yet, see link() */
+	MethodUnits (String full_sig, int flags, int n_param_words, int n_params)
+	{
+		_full_sig = full_sig;
+		isPublicOrProtected = (flags & F_PUBLIC_OR_PROTECTED) != 0;
+		is_interface_method = (flags & F_INTERFACE) != 0;
+		_is_in_analyzed_code = (flags & F_IN_ANALYZED_CODE) != 0;
+		isGolden = (flags & F_GOLDEN) != 0;
+		_n_param_words = n_param_words;
+		_n_params = n_params;
+	}
+
+	int record_flags()
+	{
+		return (isPublicOrProtected ? F_PUBLIC_OR_PROTECTED : 0) | (is_interface_method ? F_INTERFACE : 0)
+			 | (_is_in_analyzed_code ? F_IN_ANALYZED_CODE : 0) | (isGolden ? F_GOLDEN : 0);
+	}
+
+	int n_param_words() { return _n_param_words; }
+	Set<String> mapping_sigs() { return _mapping_sigs; }
+
+	void link (LocalVarUnit[] local_vars, MethodParamUnit[] params, ReturnValueUnit rv, MethodSummary summary)
+	{
+		_local_vars = local_vars;
+		_params = params;
+		_rv = rv;
+		this.summary = summary;
+	}
+
 	/** merge all params and return values of a munit with another */
 	/*
 public void unify(MethodUnits other, BCP bcp)
@@ -470,10 +507,35 @@ public void unify(MethodUnits other, BCP bcp)
 	public ReturnValueUnit get_return_value_unit() { return _rv; }
 	public void nullify_return_value_unit() { _rv = null; }
 
+	/** whether the call site at bcp uses its own clone of this method's summary rather than the master summary.
+	 * true unless the call site has no clone yet and this method already has as many clones as allowed */
+	public boolean use_clone_at (BCP bcp)
+	{
+		if (bcpToCloneMap.containsKey(bcp) || summary.hasRoomForClone())
+			return true;
+		cappedCallSites.add(bcp);
+		return false;
+	}
+
+	public static int n_capped_call_sites() { return cappedCallSites.size(); }
+	/** returns # of lookups of a call site's clone, and how many of those found an existing clone */
+	public static int n_clone_lookups() { return nCloneLookups; }
+	public static int n_clone_lookup_hits() { return nCloneLookupHits; }
+
+	/** returns the clone of this method's summary for the call site at bcp, null if none yet */
+	private static MethodSummary lookup_clone (BCP bcp)
+	{
+		MethodSummary ms = bcpToCloneMap.get(bcp);
+		nCloneLookups++;
+		if (ms != null)
+			nCloneLookupHits++;
+		return ms;
+	}
+
 	/** returns rv unit at call site */
 	public ReturnValueUnit get_return_value_unit_at (BCP bcp, MethodUnits callerMethodUnits, MethodUnits calleeMethodUnits)
 	{
-		MethodSummary ms = bcpToCloneMap.get(bcp);
+		MethodSummary ms = lookup_clone(bcp);
 		if (ms == null)
 		{
 			MethodInvoke mi = new MethodInvoke(bcp, callerMethodUnits, calleeMethodUnits);
@@ -489,7 +551,7 @@ public void unify(MethodUnits other, BCP bcp)
 	// is present twice onto the stack.
 	public MethodParamUnit[] get_param_units_at (BCP bcp, MethodUnits callerMethodUnits, MethodUnits calleeMethodUnits)
 	{
-		MethodSummary ms = bcpToCloneMap.get(bcp);
+		MethodSummary ms = lookup_clone(bcp);
 		if (ms == null)
 		{
 			MethodInvoke mi = new MethodInvoke(bcp, callerMethodUnits, calleeMethodUnits);
@@ -499,6 +561,21 @@ public void unify(MethodUnits other, BCP bcp)
 		return ms.getParamUnits();
 	}
 
+	/** for compact summaries (MethodSummary.COMPACT): applies the summary of this method at call site bcp
+	 * to the given args, one per param word, which take the place of the clone's param units.
+	 * the call site may be seen more than once, the args of later visits are unified with the first ones. */
+	public void apply_summary_at (BCP bcp, MethodUnits callerMethodUnits, MethodUnits calleeMethodUnits, Unit[] args)
+	{
+		MethodSummary ms = lookup_clone(bcp);
+		if (ms == null)
+		{
+			MethodInvoke mi = new MethodInvoke(bcp, callerMethodUnits, calleeMethodUnits);
+			bcpToCloneMap.put(bcp, summary.cloneSummary(mi, args));
+		}
+		else
+			ms.addArgs(args);
+	}
+
 	public String toString()
 	{
 		return "Method units for " + _full_sig;
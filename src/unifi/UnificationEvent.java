@@ -27,6 +27,9 @@ import unifi.util.Util;
 /* a point in the code that unifies 2 units */
 public class UnificationEvent implements Serializable, Comparable {
 
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = -3991382733782241056L;
+
 private Unit _a, _b; // the 2 units being unified
 private BCP _bcp;    // the position at which they were unified
 private UnificationEvent _depends_on; // any other unif event this one depends on
@@ -55,6 +58,7 @@ public UnificationEvent (Unit a, Unit b, BCP bcp, UnificationEvent e)
 }
 
 public UnificationEvent depends_on() { return _depends_on; }
+void set_depends_on(UnificationEvent e) { _depends_on = e; }
 
 // given a collection of units uc, returns a collection
 // of unification events from among events collection ec
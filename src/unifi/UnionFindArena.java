@@ -0,0 +1,88 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal  
+
+Licensed under the Apache License, Version 2.0 (the "License"); 
+you may not use this file except in compliance with the License. 
+You may obtain a copy of the License at 
+    http://www.apache.org/licenses/LICENSE-2.0 
+
+Unless required by applicable law or agreed to in writing, software 
+distributed under the License is distributed on an "AS IS" BASIS, 
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. 
+See the License for the specific language governing permissions and 
+limitations under the License. 
+*/
+package unifi;
+
+import java.util.Arrays;
+
+/** array-backed union-find over dense int slots, used by UnionFindObject
+ * when -Dunifi.uf.arena=true. parent and rank live in growable int arrays
+ * instead of in each object, and find uses path halving.
+ * owner[slot] is the object the slot was allocated for. */
+public class UnionFindArena
+{
+    private int[] _parent = new int[1024];
+    private int[] _rank = new int[1024];
+    private UnionFindObject[] _owner = new UnionFindObject[1024];
+    private int _size;
+
+    /** allocates a new slot for o, with the given parent slot (its own slot if parent < 0) */
+    int add (UnionFindObject o, int parent, int rank)
+    {
+        if (_size == _parent.length)
+        {
+            int new_size = 2 * _size;
+            _parent = Arrays.copyOf (_parent, new_size);
+            _rank = Arrays.copyOf (_rank, new_size);
+            _owner = Arrays.copyOf (_owner, new_size);
+        }
+        int slot = _size++;
+        _parent[slot] = (parent < 0) ? slot : parent;
+        _rank[slot] = rank;
+        _owner[slot] = o;
+        return slot;
+    }
+
+    public int size () { return _size; }
+    UnionFindObject owner (int slot) { return _owner[slot]; }
+    int parent (int slot) { return _parent[slot]; }
+    int rank (int slot) { return _rank[slot]; }
+
+    void reset (int slot)
+    {
+        _parent[slot] = slot;
+        _rank[slot] = 0;
+    }
+
+    void set_parent (int slot, int parent)
+    {
+        _parent[slot] = parent;
+    }
+
+    public int find (int slot)
+    {
+        while (_parent[slot] != slot)
+        {
+            // path halving: point every other node on the path to its grandparent
+            _parent[slot] = _parent[_parent[slot]];
+            slot = _parent[slot];
+        }
+        return slot;
+    }
+
+    /** links 2 roots, same policy as UnionFindObject.link: a is made the child unless it has a higher rank.
+     * (like there, linking a root with itself bumps its rank) */
+    void link (int a, int b)
+    {
+        if (_rank[a] > _rank[b])
+            _parent[b] = a;
+        else
+        {
+            _parent[a] = b;
+            if (_rank[a] == _rank[b])
+                _rank[b]++;
+        }
+    }
+}
@@ -18,26 +18,77 @@ package unifi;
 
 import java.io.*;
 
-// an object for fast union finds
+// an object for fast union finds.
+// normally each object holds its own parent pointer and rank.
+// with -Dunifi.uf.arena=true, objects get a slot in a global UnionFindArena instead,
+// and _parent/_rank are only brought up to date when the object is serialized.
 public class UnionFindObject implements Serializable
 {
+    // the value computed for the original version of this class, keeps old units files readable
+    private static final long serialVersionUID = -2993077121153100781L;
+
+    private static final boolean USE_ARENA = "true".equalsIgnoreCase (System.getProperty ("unifi.uf.arena"));
+    private static final UnionFindArena arena = USE_ARENA ? new UnionFindArena () : null;
+
+    // bumped by every unify and set_class, so callers can tell cheaply that no class has changed since they last looked
+    private static int n_modifications;
 
     private UnionFindObject _parent;
     private int _rank;
+    private transient int _uf_slot = -1; // slot in arena, -1 if not yet allocated
 
     public UnionFindObject ()
     {
         reset();
     }
 
+    public static boolean using_arena () { return USE_ARENA; }
+    public static UnionFindArena get_arena () { return arena; }
+    public static int modification_count () { return n_modifications; }
+
+    /** returns this object's arena slot, allocating it if needed.
+     * an object may carry a slot it doesn't own if it was cloned, or may have no slot
+     * but a valid _parent if it was deserialized. in both cases it gets a new slot with
+     * the same parent the pointer-based version would have had. */
+    public int uf_slot ()
+    {
+        if (_uf_slot >= 0 && arena.owner (_uf_slot) == this)
+            return _uf_slot;
+
+        if (_uf_slot >= 0)
+            _uf_slot = arena.add (this, arena.parent (_uf_slot), arena.rank (_uf_slot));
+        else if (_parent == this || _parent == null)
+            _uf_slot = arena.add (this, -1, _rank);
+        else
+            _uf_slot = arena.add (this, _parent.uf_slot (), _rank);
+        return _uf_slot;
+    }
+
+    /** allocates the arena slot for this object now, so slots follow unit registration order */
+    public void register_in_arena ()
+    {
+        if (USE_ARENA)
+            uf_slot ();
+    }
+
     public void reset()
     {
+        if (USE_ARENA && _uf_slot >= 0)
+        {
+            if (arena.owner (_uf_slot) == this)
+                arena.reset (_uf_slot);
+            else
+                _uf_slot = -1; // slot belongs to the object this was cloned from
+        }
         _parent = this;
         _rank = 0;
     }
 
     public UnionFindObject find ()
     {
+        if (USE_ARENA)
+            return arena.owner (arena.find (uf_slot ()));
+
         UnionFindObject root = this;
         while (root != root._parent)
         {
@@ -62,13 +113,23 @@ public class UnionFindObject implements Serializable
         {
             return;
         }
+        n_modifications++;
+        if (USE_ARENA)
+        {
+            arena.link (arena.find (uf_slot ()), arena.find (o.uf_slot ()));
+            return;
+        }
         this.find ().link (o.find ());
     }
 
     // Brute force set of equiv. class. Use with care.
     public void set_class(UnionFindObject o)
     {
-        this._parent = o;
+        n_modifications++;
+        if (USE_ARENA)
+            arena.set_parent (uf_slot (), o.uf_slot ());
+        else
+            this._parent = o;
     }
 
     private void link (UnionFindObject o)
@@ -87,4 +148,36 @@ public class UnionFindObject implements Serializable
         }
     }
 
+    /** rank of this object in the union-find structure, for UnitsFile */
+    int uf_rank ()
+    {
+        return USE_ARENA ? arena.rank (uf_slot ()) : _rank;
+    }
+
+    /** sets up this (freshly read) object's union-find state, for UnitsFile */
+    void restore_uf (UnionFindObject parent, int rank)
+    {
+        _parent = parent;
+        _rank = rank;
+        _uf_slot = -1;
+    }
+
+    private void writeObject (ObjectOutputStream out) throws IOException
+    {
+        // the serialized form is always pointer based
+        if (USE_ARENA)
+        {
+            int slot = uf_slot ();
+            _parent = arena.owner (arena.find (slot));
+            _rank = arena.rank (slot);
+        }
+        out.defaultWriteObject ();
+    }
+
+    private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        in.defaultReadObject ();
+        _uf_slot = -1;
+    }
+
 }
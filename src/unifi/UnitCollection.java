@@ -23,13 +23,12 @@ TODO now:
 package unifi;
 
 
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -95,8 +94,65 @@ private HashMap<Unit, Unit> _units_self_map = new LinkedHashMap<Unit, Unit>();
 public DisplayNames displayNames = new DisplayNames(); // names mapper for unit->user friendly names
 private Stats stats; // stats about # of classes/methods etc analyzed.
 
+// # of events not stored per bcp, because they unified units already in the same class (-Dunifi.events=forest).
+// may be null in collections read from older files.
+private Map<BCP,Integer> redundant_event_counts = new LinkedHashMap<BCP,Integer>();
+
+// path index over the units' events, built when a path is first asked for. dropped when events change.
+private transient EventIndex event_index;
+
 public void add_event(UnificationEvent ue) {
 	allEvents.add(ue);
+	event_index = null;
+}
+
+/** index for path queries; reflects the events as of the last assignUnitAndEventIds() or event change */
+public synchronized EventIndex event_index()
+{
+	if (event_index == null)
+		event_index = new EventIndex(this);
+	return event_index;
+}
+
+public void count_redundant_event(BCP bcp)
+{
+	if (redundant_event_counts == null)
+		redundant_event_counts = new LinkedHashMap<BCP,Integer>();
+	Integer i = redundant_event_counts.get(bcp);
+	redundant_event_counts.put(bcp, (i == null) ? 1 : i+1);
+}
+
+public Map<BCP,Integer> get_redundant_event_counts()
+{
+	if (redundant_event_counts == null)
+		redundant_event_counts = new LinkedHashMap<BCP,Integer>();
+	return redundant_event_counts;
+}
+
+public int n_redundant_events()
+{
+	int n = 0;
+	for (int i : get_redundant_event_counts().values())
+		n += i;
+	return n;
+}
+
+/** prints the bcps with the most redundant events */
+public void print_redundant_events(int max)
+{
+	List<Map.Entry<BCP,Integer>> l = new ArrayList<Map.Entry<BCP,Integer>>(get_redundant_event_counts().entrySet());
+	if (l.size() == 0)
+		return;
+	Collections.sort (l, new Comparator<Map.Entry<BCP,Integer>>() {
+		public int compare (Map.Entry<BCP,Integer> o1, Map.Entry<BCP,Integer> o2) {
+			return o2.getValue() - o1.getValue();
+		}});
+	System.out.println (n_redundant_events() + " redundant unification events at " + l.size() + " locations, top locations:");
+	for (int i = 0; i < l.size() && i < max; i++)
+	{
+		BCP bcp = l.get(i).getKey();
+		System.out.println (l.get(i).getValue() + " " + ((bcp == null) ? "unknown location" : bcp.toString()));
+	}
 }
 
 public void set_constraint_set (ConstraintSet cset) { this._cs = cset; }
@@ -113,6 +169,7 @@ public void clearEvents()
 	this.allEvents.clear();
 	for (Unit u: allUnits)
 		u.clearEvents();
+	event_index = null;
 }
 
 public UnitCollection(Set<Unit> units, List<UnificationEvent> events)
@@ -163,6 +220,9 @@ public void assignUnitAndEventIds()
 	id = 1;
 	for (UnificationEvent e: allEvents)
 		e.setId(id++);
+
+	// units may have been removed or events rewritten since the index was built
+	event_index = null;
 }
 
 /** cleans up this UC to keep only golden units */
@@ -318,6 +378,7 @@ private static void markUnitAndDependentsAsGolden(Unit u)
 /** removes all units not marked as golden */
 public void remove_non_golden()
 {
+	event_index = null;
 	for (Iterator<Unit> it = allUnits.iterator(); it.hasNext(); ) {
 		Unit u = it.next();
 		if (!u.isGolden()) {
@@ -519,6 +580,17 @@ public void add_constraint(Unit u, Unit a, Unit b, Fraction coeff)
 public boolean contains(Unit u) { return allUnits.contains(u); }
 
 // returns a rep -> List<units represented by the rep> map
+// the lazily computed parts of this collection, only for UnitsFile
+Map<Unit,List<Unit>> reps_map() { return _reps; }
+HashMap<Unit, Unit> units_self_map() { return _units_self_map; }
+boolean reps_are_setup() { return reps_setup_done; }
+void restore_reps(Map<Unit,List<Unit>> reps, HashMap<Unit, Unit> self_map, boolean done)
+{
+	_reps = reps;
+	_units_self_map = self_map;
+	reps_setup_done = done;
+}
+
 public Map<Unit,List<Unit>> get_reps()
 {
     Util.ASSERT (reps_setup_done);
@@ -563,6 +635,7 @@ public String getAllDisplayNames(Unit u)
  */
 private void recomputeAllEvents()
 {
+	event_index = null;
 	// drop event unless both its ends are in allUnits
 	for (Iterator<UnificationEvent> it = allEvents.iterator(); it.hasNext();)
 	{
@@ -734,20 +807,25 @@ public void compute_reps ()
 {
     _reps.clear();
     _units_self_map.clear();
-    for (Unit e : allUnits)
+    if (UnionFindObject.using_arena())
+        compute_reps_from_arena();
+    else
     {
-        Unit rep = (Unit) e.find ();
-        List<Unit> list = _reps.get (rep);
-        if (list == null)
-        {
-            list = new ArrayList<Unit> ();
-            _reps.put (rep, list);
-            Util.ASSERT (_reps.get(rep) == list);
-        }
-
-        list.add (e);
-
-        _units_self_map.put (e, e);
+	    for (Unit e : allUnits)
+	    {
+	        Unit rep = (Unit) e.find ();
+	        List<Unit> list = _reps.get (rep);
+	        if (list == null)
+	        {
+	            list = new ArrayList<Unit> ();
+	            _reps.put (rep, list);
+	            Util.ASSERT (_reps.get(rep) == list);
+	        }
+
+	        list.add (e);
+
+	        _units_self_map.put (e, e);
+	    }
     }
 
     // now sort the rep sets so they will be displayed in a good order and merge all the attributes among all
@@ -782,6 +860,60 @@ public void compute_reps ()
     System.out.println ("Units summary: " + allUnits.size() + " units in " + _reps.keySet().size() + " equivalence classes");
 }
 
+/** groups units by root using the union-find arena: a counting sort over root slots.
+ * produces the same _reps as the hashing version: classes in order of first appearance
+ * of their units in allUnits, and units within a class in allUnits order. */
+private void compute_reps_from_arena()
+{
+	UnionFindArena arena = UnionFindObject.get_arena();
+	int n = allUnits.size();
+	Unit[] units = allUnits.toArray(new Unit[n]);
+
+	// number the classes in order of first appearance
+	int[] slot_to_class = new int[arena.size()];
+	Arrays.fill(slot_to_class, -1);
+	int[] unit_class = new int[n];
+	int n_classes = 0;
+	for (int i = 0; i < n; i++)
+	{
+		int root = arena.find(units[i].uf_slot());
+		if (root >= slot_to_class.length) // slots allocated by the finds above
+			slot_to_class = grow(slot_to_class, arena.size());
+		if (slot_to_class[root] < 0)
+			slot_to_class[root] = n_classes++;
+		unit_class[i] = slot_to_class[root];
+	}
+
+	// counting sort by class #
+	int[] start = new int[n_classes+1];
+	for (int i = 0; i < n; i++)
+		start[unit_class[i]+1]++;
+	for (int c = 0; c < n_classes; c++)
+		start[c+1] += start[c];
+	Unit[] sorted = new Unit[n];
+	int[] next = Arrays.copyOf(start, n_classes);
+	for (int i = 0; i < n; i++)
+		sorted[next[unit_class[i]]++] = units[i];
+
+	for (int c = 0; c < n_classes; c++)
+	{
+		List<Unit> list = new ArrayList<Unit>(start[c+1] - start[c]);
+		for (int i = start[c]; i < start[c+1]; i++)
+			list.add(sorted[i]);
+		_reps.put((Unit) list.get(0).find(), list);
+	}
+
+	for (Unit e : units)
+		_units_self_map.put (e, e);
+}
+
+private static int[] grow(int[] a, int size)
+{
+	int[] result = Arrays.copyOf(a, size);
+	Arrays.fill(result, a.length, size, -1);
+	return result;
+}
+
 /** prepare types for units so that anything related to primitives or strings is marked correctly.
  * for units with null types, borrows a type from another unit in its cluster if possible.
  * for object types that have been unified with (array of)* string, sets the object type. */
@@ -1028,84 +1160,22 @@ public static class PathInfo {
     public UnificationEvent get_event() { return _event; }
 }
 
-/** returns shortest path from src to target. based on BFS */
+/** returns shortest path from src to target, the leg reaching target first. null if there is no path.
+ * uses the event index, see EventIndex. */
 public List<PathInfo> find_path (Unit src, Unit target)
 {
     Util.ASSERT(allUnits.contains(src));
     Util.ASSERT(allUnits.contains(target));
     Util.ASSERT (src.find() == target.find());
 
-    // path to is a mapping of each unit -> pathinfo that reaches it first.
-    Map<Unit, PathInfo> path_to = new LinkedHashMap<Unit, PathInfo>();
-
-    // explore is list of nodes to explore in this step, next_explore is list of nodes in next step
-    Collection<Unit> unitsToExplore = new LinkedHashSet<Unit>(), unitsToExploreNext = new LinkedHashSet<Unit>();
-    unitsToExploreNext.add(src);
-
-    while (unitsToExploreNext.size() != 0)
-    {
-        // System.out.println ("finished exploring, next round explore size is " + next_explore.size());
-        unitsToExplore.clear();
-        unitsToExplore.addAll(unitsToExploreNext);
-        unitsToExploreNext.clear();
-
-        for (Unit u : unitsToExplore)
-        {
-            Set<Unit> s = new LinkedHashSet<Unit>();
-            s.add(u);
-            Collection<UnificationEvent> events = UnificationEvent.select_events(s);
-
-
-            for (UnificationEvent e : events)
-            {
-                Unit a = e.get_unit_a();
-                Unit b = e.get_unit_b();
-
-                // connections will track all the connections out from this node
-                List<Unit> connections = new ArrayList<Unit>();
-
-                // a and b don't mean much for golden events since they can cluster an arbitrary # of units
-                if (!(e instanceof GoldenUnifiEvent))
-                {
-                	Util.ASSERT ((a == u) || (b == u));
-	                Unit to = (a == u) ? b : a;
-	                connections.add(to);
-                }
-                else
-                	connections.addAll(((GoldenUnifiEvent) e).get_units());
-
-                for (Unit x: connections)
-                {
-                	if (x == u)
-                		continue; // connections could include u itself, so just ignore it
-
-                	if (path_to.get(x) == null)
-	                {
-	                	// x is unvisited
-	                    path_to.put (x, new PathInfo(u, x, e));
-	                    unitsToExploreNext.add (x);
-	                }
-
-	                if (x == target)
-	                {
-	                	// found it, generate a path by walking path_to backwards
-	                    List<PathInfo> full_path = new ArrayList<PathInfo>();
-	                    Unit current = x;
-	                    while (current != src)
-	                    {
-	                        PathInfo p = path_to.get(current);
-	                        Util.ASSERT (p != null);
-	                        full_path.add(p);
-	                        current = p._src;
-	                    }
-	                    return full_path;
-	                }
-                }
-            }
-        }
-    }
+    return event_index().find_path(src, target);
+}
 
-    return null;
+/** shortest paths for many (srcs[i], targets[i]) pairs at once, with one BFS per distinct src.
+ * result[i] is null if there is no path for pair i. */
+public List<List<PathInfo>> find_paths (List<Unit> srcs, List<Unit> targets)
+{
+    return event_index().find_paths(srcs, targets);
 }
 
 public List<UnificationEvent> find_event_path (Unit src, Unit target)
@@ -1637,6 +1707,8 @@ public void print_units ()
 
     System.out.println ("# units = " + allUnits.size());
     System.out.println ("# events = " + allEvents.size());
+    if (get_redundant_event_counts().size() > 0)
+        System.out.println ("# redundant events (not stored) = " + n_redundant_events());
     System.out.println ("Analysis stats:\n" + stats.toString());
 }
 
@@ -1801,62 +1873,48 @@ public void full_verify()
 {
 	verify();
 	System.out.println("\n\nFully verifying unit/unifievents.");
-    for (Unit rep : _reps.keySet()) {
-    	Unit srcUnit = rep;
-
-    	Collection<Unit> explore = new ArrayList<Unit>(), next_explore = new ArrayList<Unit>();
-    	next_explore.add(srcUnit);
-    	Set<Unit> remainingUnits = new LinkedHashSet<Unit>(_reps.get(srcUnit));
-    	remainingUnits.remove(srcUnit);
-		Set<Unit> covered = new LinkedHashSet<Unit>();
-
-		while (next_explore.size() != 0) {
-			explore.clear();
-			explore.addAll(next_explore);
-			next_explore.clear();
-
-			for (Unit u : explore) {
-
-				if (logger.isLoggable(Level.FINE))
-					logger.fine ("Exploring node : " + u);
+	for (UnificationEvent e : allEvents)
+		Util.ASSERT(e.getId() != 0);
 
-				Set<Unit> s = new LinkedHashSet<Unit>();
-				s.add(u);
-				Collection<UnificationEvent> events = UnificationEvent.select_events(s);
-
-				if (logger.isLoggable(Level.FINE))
-					logger.fine (events.size() + " events");
-
-				for (UnificationEvent e : events) {
-					Util.ASSERT(e.getId() != 0);
-					List<Unit> relatedUnits = null;
-					if (e instanceof GoldenUnifiEvent) {
-						relatedUnits = ((GoldenUnifiEvent)e).get_units();
-					} else {
-						relatedUnits = new ArrayList<Unit>();
-						relatedUnits.add(e.get_unit_a());
-						relatedUnits.add(e.get_unit_b());
-					}
-					remainingUnits.removeAll(relatedUnits);
-
-					for (Unit ru:relatedUnits) {
-						boolean added = covered.add(ru);
-						if (added)
-							next_explore.add(ru);
-					}
-				}
+	// paths from each rep to all the other units in its class, in one batch
+	List<Unit> srcs = new ArrayList<Unit>(), targets = new ArrayList<Unit>();
+	for (Unit rep : _reps.keySet())
+		for (Unit u : _reps.get(rep))
+			if (u != rep)
+			{
+				srcs.add(rep);
+				targets.add(u);
 			}
-		}
-		if (remainingUnits.size() != 0) {
-			System.out.println(remainingUnits.size()+" disconnected units for rep: " + srcUnit + " [" +
-							   srcUnit.getUnificationEvents().size() + " events]");
-			for (Unit x:remainingUnits) {
-				System.out.println("  " + x + " [" + x.getUnificationEvents().size() + " events]");
+	List<List<PathInfo>> paths = find_paths(srcs, targets);
+
+	Map<Unit, List<Unit>> disconnected = new LinkedHashMap<Unit, List<Unit>>();
+	for (int i = 0; i < paths.size(); i++)
+		if (paths.get(i) == null)
+		{
+			List<Unit> l = disconnected.get(srcs.get(i));
+			if (l == null)
+			{
+				l = new ArrayList<Unit>();
+				disconnected.put(srcs.get(i), l);
 			}
+			l.add(targets.get(i));
 		}
+
+	for (Map.Entry<Unit, List<Unit>> me : disconnected.entrySet())
+	{
+		Unit srcUnit = me.getKey();
+		System.out.println(me.getValue().size()+" disconnected units for rep: " + srcUnit + " [" +
+						   n_events(srcUnit) + " events]");
+		for (Unit x : me.getValue())
+			System.out.println("  " + x + " [" + n_events(x) + " events]");
 	}
 }
 
+private static int n_events(Unit u)
+{
+	return (u.getUnificationEvents() == null) ? 0 : u.getUnificationEvents().size();
+}
+
 public String toString()
 {
 	return allUnits.size() + " units, " + allEvents.size() + " events, " + _cs.constraints().size() + " compound constraints";
@@ -1876,15 +1934,7 @@ public static void main (String args[]) throws Exception
 {
 	String filename = args[0];
 	// read from a file
-	ObjectInputStream ois;
-	try {
-		ois = new ObjectInputStream(new FileInputStream(filename));
-	} catch (Exception e) {
-		System.err.println("Warning: error opening file: " + filename);
-		return;
-	}
-
-	UnitCollection uc = (UnitCollection) ois.readObject();
+	UnitCollection uc = UnitsFile.read(filename).uc;
 	uc.checkIds();
 	uc.full_verify();
 }
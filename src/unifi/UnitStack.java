@@ -0,0 +1,123 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi;
+
+import java.util.Arrays;
+
+import unifi.units.Unit;
+import unifi.util.Util;
+
+/** the operand stack of a unifi_state: an unsynchronized array of units, one per stack word.
+ * slot 0 is the bottom of the stack. the array is kept across uses, so copying one stack
+ * into another (see copy_from) allocates nothing once the array is big enough.
+ * stacks are compared by reference: the units on them are canonical, so a slot only
+ * changes when a different unit is put in it. */
+public class UnitStack {
+
+private Unit[] units;
+private int size;
+
+public UnitStack ()
+{
+	units = new Unit[8];
+}
+
+public int size() { return size; }
+public boolean isEmpty() { return size == 0; }
+
+public void push (Unit u)
+{
+	if (size == units.length)
+		units = Arrays.copyOf(units, 2*size);
+	units[size++] = u;
+}
+
+public Unit pop ()
+{
+	Util.ASSERT (size > 0, "pop of empty operand stack");
+	Unit u = units[--size];
+	units[size] = null;
+	return u;
+}
+
+public Unit peek ()
+{
+	Util.ASSERT (size > 0, "peek at empty operand stack");
+	return units[size-1];
+}
+
+/** the unit in slot i, counting from the bottom of the stack */
+public Unit elementAt (int i)
+{
+	Util.ASSERT (i < size);
+	return units[i];
+}
+
+public void set (int i, Unit u)
+{
+	Util.ASSERT (i < size);
+	units[i] = u;
+}
+
+/** sets this stack to the given height, with all slots null */
+public void set_height (int height)
+{
+	if (height > units.length)
+		units = Arrays.copyOf(units, Math.max(height, 2*units.length));
+	Arrays.fill(units, 0, Math.max(size, height), null);
+	size = height;
+}
+
+/** makes this stack a copy of other, reusing this stack's array */
+public void copy_from (UnitStack other)
+{
+	if (other.size > units.length)
+		units = new Unit[Math.max(other.size, 2*units.length)];
+	System.arraycopy(other.units, 0, units, 0, other.size);
+	if (size > other.size)
+		Arrays.fill(units, other.size, size, null);
+	size = other.size;
+}
+
+public boolean equals (Object o)
+{
+	if (!(o instanceof UnitStack))
+		return false;
+	UnitStack other = (UnitStack) o;
+	if (size != other.size)
+		return false;
+	Unit[] a = units, b = other.units;
+	for (int i = 0; i < size; i++)
+		if (a[i] != b[i])
+			return false;
+	return true;
+}
+
+public int hashCode ()
+{
+	int code = size;
+	for (int i = 0; i < size; i++)
+		code = 31*code + System.identityHashCode(units[i]);
+	return code;
+}
+
+public String toString ()
+{
+	return "operand stack " + Arrays.asList(units).subList(0, size);
+}
+
+}
@@ -0,0 +1,459 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import unifi.units.Unit;
+import unifi.units.UnitRecord;
+
+/** read-only view of a binary units file (the current version, see UnitsFile), memory mapped.
+ * units and events are referred to by their index in the file, and are only materialized as
+ * Unit and UnificationEvent objects when asked for, so looking at one cluster or one path
+ * doesn't need the whole collection in the heap.
+ * materialized units have their union-find parent and the units they refer to set up,
+ * but not their unifEvents; use events_of() to get a unit's events. */
+public class UnitStore {
+
+private static final int SEGMENT_BITS = 30; // files are mapped in 1GB segments
+private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+private final RandomAccessFile raf;
+private final MappedByteBuffer[] segments;
+
+private final int n_units, n_collection_units, n_events, n_collection_events;
+private final long[] section_starts = new long[UnitsFile.N_SECTIONS];
+// offset tables in the index
+private final long string_offsets_pos, bcp_offsets_pos, unit_offsets_pos, event_offsets_pos, unit_event_offsets_pos;
+private final long id_index_pos, name_index_pos;
+private final Map<Integer, int[]> golden_events = new HashMap<Integer, int[]>(); // event index -> rep, units
+
+// materialized objects
+private final String[] strings;
+private final BCP[] bcps;
+private final Map<Integer, Unit> units = new HashMap<Integer, Unit>();
+private final Map<Integer, UnificationEvent> events = new HashMap<Integer, UnificationEvent>();
+
+private UnitStore(String filename) throws IOException
+{
+	raf = new RandomAccessFile(filename, "r");
+	FileChannel ch = raf.getChannel();
+	long size = ch.size();
+	segments = new MappedByteBuffer[(int) ((size + SEGMENT_SIZE - 1) >> SEGMENT_BITS)];
+	for (int i = 0; i < segments.length; i++)
+	{
+		long start = ((long) i) << SEGMENT_BITS;
+		segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+	}
+
+	if (size < 16 || get_int(0) != UnitsFile.MAGIC)
+		throw new IOException(filename + " is not a binary units file");
+	if (get_int(4) != UnitsFile.VERSION)
+		throw new IOException(filename + " is units file version " + get_int(4) + ", expected " + UnitsFile.VERSION);
+
+	long pos = get_long(size - 8);
+	for (int i = 0; i < section_starts.length; i++, pos += 8)
+		section_starts[i] = get_long(pos);
+
+	strings = new String[get_int(section_starts[UnitsFile.STRINGS])];
+	bcps = new BCP[get_int(section_starts[UnitsFile.BCPS])];
+	n_units = get_int(section_starts[UnitsFile.UNITS]);
+	n_collection_units = get_int(section_starts[UnitsFile.UNITS] + 4);
+	n_events = get_int(section_starts[UnitsFile.EVENTS]);
+	n_collection_events = get_int(section_starts[UnitsFile.EVENTS] + 4);
+
+	string_offsets_pos = pos;
+	bcp_offsets_pos = string_offsets_pos + 4L * strings.length;
+	unit_offsets_pos = bcp_offsets_pos + 4L * bcps.length;
+	event_offsets_pos = unit_offsets_pos + 4L * n_units;
+	unit_event_offsets_pos = event_offsets_pos + 4L * n_events;
+	id_index_pos = unit_event_offsets_pos + 4L * n_units;
+	name_index_pos = id_index_pos + 4L * n_units;
+
+	DataInputStream in = at(section_starts[UnitsFile.GOLDEN_EVENTS]);
+	int n_golden = in.readInt();
+	for (int i = 0; i < n_golden; i++)
+	{
+		int idx = UnitsFile.read_var(in);
+		int rep = UnitsFile.read_var(in) - 1;
+		int[] rep_and_units = new int[UnitsFile.read_var(in)]; // # of units + 1
+		rep_and_units[0] = rep;
+		for (int j = 1; j < rep_and_units.length; j++)
+			rep_and_units[j] = UnitsFile.read_var(in) - 1;
+		golden_events.put(idx, rep_and_units);
+	}
+}
+
+public static UnitStore open(String filename) throws IOException
+{
+	return new UnitStore(filename);
+}
+
+public void close() throws IOException
+{
+	raf.close();
+}
+
+/* ---------------------- access to the mapped file ---------------------- */
+
+private byte get_byte(long pos)
+{
+	return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & (SEGMENT_SIZE-1)));
+}
+
+private int get_int(long pos)
+{
+	int off = (int) (pos & (SEGMENT_SIZE-1));
+	MappedByteBuffer seg = segments[(int) (pos >>> SEGMENT_BITS)];
+	if (off + 4 <= seg.limit())
+		return seg.getInt(off);
+	// straddles two segments
+	int result = 0;
+	for (int i = 0; i < 4; i++)
+		result = (result << 8) | (get_byte(pos + i) & 0xff);
+	return result;
+}
+
+private long get_long(long pos)
+{
+	return (((long) get_int(pos)) << 32) | (get_int(pos + 4) & 0xffffffffL);
+}
+
+/** the mapped file as a stream, for reading the variable length records */
+private class MappedInput extends InputStream {
+	private long pos;
+	MappedInput(long pos) { this.pos = pos; }
+	public int read() { return get_byte(pos++) & 0xff; }
+}
+
+private DataInputStream at(long pos)
+{
+	return new DataInputStream(new MappedInput(pos));
+}
+
+/** a stream at record idx of the given section, whose offset is in the given index table */
+private DataInputStream record(int section, long offsets_pos, int idx)
+{
+	return at(section_starts[section] + get_int(offsets_pos + 4L * idx));
+}
+
+/* ---------------------- lookups ---------------------- */
+
+public int n_units() { return n_units; }
+public int n_events() { return n_events; }
+
+/** units 0..n_collection_units()-1 are the units of the collection, in order. the rest are only referred to by them. */
+public int n_collection_units() { return n_collection_units; }
+public int n_collection_events() { return n_collection_events; }
+
+private int id_of(int idx) throws IOException
+{
+	return UnitsFile.RawUnit.read_id(record(UnitsFile.UNITS, unit_offsets_pos, idx));
+}
+
+/** index of the unit with the given id, -1 if none */
+public int index_of_id(int id) throws IOException
+{
+	int lo = 0, hi = n_units - 1;
+	while (lo <= hi)
+	{
+		int mid = (lo + hi) >>> 1;
+		int mid_id = id_of(get_int(id_index_pos + 4L * mid));
+		if (mid_id < id)
+			lo = mid + 1;
+		else if (mid_id > id)
+			hi = mid - 1;
+		else
+		{
+			// ids need not be unique, return the first
+			while (mid > 0 && id_of(get_int(id_index_pos + 4L * (mid - 1))) == id)
+				mid--;
+			return get_int(id_index_pos + 4L * mid);
+		}
+	}
+	return -1;
+}
+
+private int unit_with_name_at(int k)
+{
+	return get_int(name_index_pos + 4L * k);
+}
+
+/** indices of units whose toString() (at the time the file was written) starts with prefix, in order of their strings.
+ * the names are those of the materialized units, so this materializes the units it looks at. */
+public List<Integer> indices_with_prefix(String prefix) throws IOException
+{
+	// binary search for the first name >= prefix
+	int lo = 0, hi = n_units;
+	while (lo < hi)
+	{
+		int mid = (lo + hi) >>> 1;
+		if (unit(unit_with_name_at(mid)).toString().compareTo(prefix) < 0)
+			lo = mid + 1;
+		else
+			hi = mid;
+	}
+
+	List<Integer> result = new ArrayList<Integer>();
+	for (int k = lo; k < n_units; k++)
+	{
+		int idx = unit_with_name_at(k);
+		if (!unit(idx).toString().startsWith(prefix))
+			break;
+		result.add(idx);
+	}
+	return result;
+}
+
+/** index of the union-find root of unit idx */
+public int rep(int idx)
+{
+	return get_int(section_starts[UnitsFile.PARENTS] + 4L * idx);
+}
+
+/** indices of the units in the same equivalence class as unit idx, in file order. scans the parent column. */
+public List<Integer> cluster(int idx)
+{
+	int rep = rep(idx);
+	List<Integer> result = new ArrayList<Integer>();
+	for (int i = 0; i < n_units; i++)
+		if (rep(i) == rep)
+			result.add(i);
+	return result;
+}
+
+/** indices of the events in unit idx's unifEvents list */
+public int[] events_of(int idx) throws IOException
+{
+	DataInputStream in = record(UnitsFile.UNIT_EVENTS, unit_event_offsets_pos, idx);
+	int[] result = new int[Math.max(0, UnitsFile.read_var(in) - 1)];
+	for (int i = 0; i < result.length; i++)
+		result[i] = UnitsFile.read_var(in);
+	return result;
+}
+
+/** the fields of event record e, see UnitsFile.read_event */
+private int[] event_record(int e) throws IOException
+{
+	int[] fields = new int[5];
+	UnitsFile.read_event(record(UnitsFile.EVENTS, event_offsets_pos, e), fields);
+	return fields;
+}
+
+public int event_unit_a(int e) throws IOException { return event_record(e)[UnitsFile.EVENT_A]; }
+public int event_unit_b(int e) throws IOException { return event_record(e)[UnitsFile.EVENT_B]; }
+
+/** indices of the units connected by event e: a and b, or all the units for a golden event */
+public int[] event_units(int e) throws IOException
+{
+	int[] rep_and_units = golden_events.get(e);
+	if (rep_and_units != null)
+	{
+		int[] result = new int[rep_and_units.length - 1];
+		System.arraycopy(rep_and_units, 1, result, 0, result.length);
+		return result;
+	}
+	int[] fields = event_record(e);
+	return new int[] { fields[UnitsFile.EVENT_A], fields[UnitsFile.EVENT_B] };
+}
+
+/* ---------------------- materialization ---------------------- */
+
+private String string(int idx) throws IOException
+{
+	if (idx < 0)
+		return null;
+	if (strings[idx] == null)
+		strings[idx] = UnitsFile.read_string(record(UnitsFile.STRINGS, string_offsets_pos, idx));
+	return strings[idx];
+}
+
+private BCP bcp(int idx) throws IOException
+{
+	if (idx < 0)
+		return null;
+	if (bcps[idx] == null)
+	{
+		DataInputStream in = record(UnitsFile.BCPS, bcp_offsets_pos, idx);
+		String class_name = string(UnitsFile.read_var(in) - 1);
+		String method = string(UnitsFile.read_var(in) - 1);
+		int pos = UnitsFile.read_svar(in);
+		int line = UnitsFile.read_svar(in);
+		bcps[idx] = new BCP(class_name, method, pos, line, in.readBoolean());
+	}
+	return bcps[idx];
+}
+
+/** the unit at index idx, null for idx < 0 */
+public Unit unit(int idx) throws IOException
+{
+	if (idx < 0)
+		return null;
+	Unit u = units.get(idx);
+	if (u != null)
+		return u;
+
+	UnitsFile.RawUnit raw = new UnitsFile.RawUnit();
+	raw.read(record(UnitsFile.UNITS, unit_offsets_pos, idx));
+	UnitRecord rec = new UnitRecord();
+	rec.kind = raw.kind;
+	rec.flags = raw.flags;
+	rec.id = raw.id;
+	rec.type_sig = string(raw.slot[UnitsFile.RawUnit.TYPE_SIG]);
+	rec.cluster_num = raw.slot[UnitsFile.RawUnit.CLUSTER_NUM];
+	rec.seaview_id = raw.slot[UnitsFile.RawUnit.SEAVIEW_ID];
+	rec.seaview_rep_id = raw.slot[UnitsFile.RawUnit.SEAVIEW_REP_ID];
+	rec.golden_id = raw.slot[UnitsFile.RawUnit.GOLDEN_ID];
+	rec.watch_color = raw.slot[UnitsFile.RawUnit.WATCH_COLOR];
+	rec.s0 = string(raw.slot[UnitsFile.RawUnit.S0]);
+	rec.s1 = string(raw.slot[UnitsFile.RawUnit.S1]);
+	rec.i0 = raw.slot[UnitsFile.RawUnit.I0];
+	rec.i1 = raw.slot[UnitsFile.RawUnit.I1];
+	rec.l0 = raw.l0;
+	rec.bcp = bcp(raw.slot[UnitsFile.RawUnit.BCP]);
+	u = rec.create();
+	// cache before following references, units can refer to each other
+	units.put(idx, u);
+
+	rec.element_of = unit(raw.slot[UnitsFile.RawUnit.ELEMENT_OF]);
+	rec.array_of = unit(raw.slot[UnitsFile.RawUnit.ARRAY_OF]);
+	rec.length_unit = unit(raw.slot[UnitsFile.RawUnit.LENGTH_UNIT]);
+	rec.length_of = unit(raw.slot[UnitsFile.RawUnit.LENGTH_OF]);
+	rec.r0 = unit(raw.slot[UnitsFile.RawUnit.R0]);
+	rec.r1 = unit(raw.slot[UnitsFile.RawUnit.R1]);
+	rec.link(u);
+
+	int rep = rep(idx);
+	int rank = get_byte(section_starts[UnitsFile.RANKS] + idx) & 0xff;
+	((UnionFindObject) u).restore_uf((rep == idx) ? u : unit(rep), rank);
+	return u;
+}
+
+/** the event at index idx, null for idx < 0 */
+public UnificationEvent event(int idx) throws IOException
+{
+	if (idx < 0)
+		return null;
+	UnificationEvent e = events.get(idx);
+	if (e != null)
+		return e;
+
+	// depends_on chains can be long, so create the chain iteratively from its far end
+	List<int[]> chain = new ArrayList<int[]>();
+	List<Integer> chain_idx = new ArrayList<Integer>();
+	for (int i = idx; i >= 0 && !events.containsKey(i); )
+	{
+		int[] fields = event_record(i);
+		chain.add(fields);
+		chain_idx.add(i);
+		i = fields[UnitsFile.EVENT_DEPENDS_ON];
+	}
+	for (int k = chain.size() - 1; k >= 0; k--)
+	{
+		int i = chain_idx.get(k);
+		int[] fields = chain.get(k);
+		int[] rep_and_units = golden_events.get(i);
+		if (rep_and_units != null)
+		{
+			List<Unit> golden_units = new ArrayList<Unit>();
+			for (int j = 1; j < rep_and_units.length; j++)
+				golden_units.add(unit(rep_and_units[j]));
+			e = new GoldenUnifiEvent(unit(rep_and_units[0]), golden_units);
+		}
+		else
+			e = new UnificationEvent(unit(fields[UnitsFile.EVENT_A]), unit(fields[UnitsFile.EVENT_B]), bcp(fields[UnitsFile.EVENT_BCP]));
+		e.setId(fields[UnitsFile.EVENT_ID]);
+		int depends_on = fields[UnitsFile.EVENT_DEPENDS_ON];
+		if (depends_on >= 0)
+			e.set_depends_on(events.get(depends_on));
+		events.put(i, e);
+	}
+	return events.get(idx);
+}
+
+/* ---------------------- queries ---------------------- */
+
+/** shortest path of events from unit src to unit target, by BFS over the event adjacency in the file.
+ * like UnitCollection.find_path, the path is a shortest one, but may not be the same one.
+ * returns null if there is no path. */
+public List<UnificationEvent> find_path(int src, int target) throws IOException
+{
+	// unit -> {unit it was reached from, event}
+	Map<Integer, int[]> path_to = new HashMap<Integer, int[]>();
+	List<Integer> to_explore = new ArrayList<Integer>(), to_explore_next = new ArrayList<Integer>();
+	to_explore_next.add(src);
+
+	while (to_explore_next.size() != 0)
+	{
+		List<Integer> tmp = to_explore;
+		to_explore = to_explore_next;
+		to_explore_next = tmp;
+		to_explore_next.clear();
+
+		for (int u : to_explore)
+		{
+			Set<Integer> seen_events = new LinkedHashSet<Integer>();
+			for (int e : events_of(u))
+			{
+				if (!seen_events.add(e))
+					continue;
+				int[] connections = event_units(e);
+				if (!golden_events.containsKey(e))
+					connections = new int[] { (connections[0] == u) ? connections[1] : connections[0] };
+
+				for (int x : connections)
+				{
+					if (x == u)
+						continue;
+					if (!path_to.containsKey(x))
+					{
+						path_to.put(x, new int[] { u, e });
+						to_explore_next.add(x);
+					}
+
+					if (x == target)
+					{
+						List<UnificationEvent> path = new ArrayList<UnificationEvent>();
+						for (int current = x; current != src; current = path_to.get(current)[0])
+							path.add(event(path_to.get(current)[1]));
+						return path;
+					}
+				}
+			}
+		}
+	}
+	return null;
+}
+
+public String toString()
+{
+	return "unit store: " + n_units + " units (" + n_collection_units + " in collection), " + n_events + " events, "
+			+ units.size() + " units and " + events.size() + " events materialized";
+}
+
+}
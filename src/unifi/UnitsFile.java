@@ -0,0 +1,1194 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import unifi.contextsensitive.MethodInvoke;
+import unifi.contextsensitive.MethodSummary;
+import unifi.oo.MethodResolver;
+import unifi.solver.ConstraintSet;
+import unifi.units.FieldUnit;
+import unifi.units.LocalVarUnit;
+import unifi.units.MethodParamUnit;
+import unifi.units.ReturnValueUnit;
+import unifi.units.Unit;
+import unifi.units.UnitRecord;
+import unifi.util.Util;
+
+/** reads and writes .units files.
+ *
+ * the default format is a versioned binary file, laid out as:
+ *   header:     int MAGIC, int VERSION
+ *   strings:    int n, then n strings. all strings (signatures, class names...) are stored only here.
+ *   bcps:       int n, then n bcp records
+ *   units:      int n, int n_in_collection, then n unit records (see RawUnit),
+ *               then the union-find parent of each unit as an int column, then the rank as a byte column.
+ *               the first n_in_collection units are the collection's units, in order;
+ *               the rest are units referenced from them but not in the collection.
+ *   golden events: int n, then for each golden event: event index, rep, the list of its units
+ *   events:     int n, int n_in_collection, then n event records
+ *   unit events: the unifEvents list of each unit
+ *   dirs:       int length, then the method units, method summaries, method and field directories and the
+ *               collection's reps, as records that refer to each other and to the tables above by index.
+ *   rest:       int length, then a java serialized section with the constraint set, display names,
+ *               stats and redundant event counts. units, events and bcps in it are written as indices.
+ *   index:      for random access by UnitStore: the offset of each section above, the offset of each string,
+ *               bcp, unit, event and unit events list within its section, unit indices sorted by id,
+ *               and unit indices sorted by toString(). the file ends with the offset of the index as a long.
+ * records are varints (see write_var) and all references are indices into the tables, so the file is
+ * read in one streaming pass without recursion, and unit/event i can be located through the index.
+ *
+ * files written by java serialization of (UnitCollection, method dir, field dir) are still read,
+ * and are written with -Dunifi.units.format=java.
+ * java unifi.UnitsFile <in> <out> converts between the two.
+ */
+public class UnitsFile {
+
+private static Logger logger = Logger.getLogger("unifi.UnitsFile");
+
+public static final int MAGIC = 0x554E4946; // "UNIF"
+public static final int VERSION = 4; // earlier versions had fixed width records and java serialized directories
+private static final int JAVA_SERIALIZATION_MAGIC = 0xACED0005;
+
+private static final boolean WRITE_JAVA_FORMAT = "java".equals(System.getProperty("unifi.units.format"));
+
+/** what a units file holds */
+public static class Contents {
+	public UnitCollection uc;
+	public Map<String, MethodUnits> method_dir;
+	public Map<String, FieldUnit> field_dir;
+}
+
+// placeholder for a unit, event or bcp in the java serialized section
+private static class Ref implements Serializable {
+	private static final long serialVersionUID = 1L;
+	static final byte UNIT = 0, EVENT = 1, BCP = 2;
+	byte kind;
+	int index;
+	Ref(byte kind, int index) { this.kind = kind; this.index = index; }
+}
+
+// thrown if the collection has some unit that has no record format
+private static class UnsupportedUnitException extends Exception {
+	private static final long serialVersionUID = 1L;
+	UnsupportedUnitException(Unit u) { super("no record format for " + u.getClass().getName() + ": " + u); }
+}
+
+/** reads a units file in either format */
+public static Contents read(String filename) throws IOException, ClassNotFoundException
+{
+	InputStream is = new BufferedInputStream(new FileInputStream(filename), 1 << 16);
+	try {
+		is.mark(4);
+		DataInputStream dis = new DataInputStream(is);
+		int magic = dis.readInt();
+		is.reset();
+		if (magic == MAGIC)
+			return read_binary(dis);
+		if (magic == JAVA_SERIALIZATION_MAGIC)
+			return read_java(is);
+		throw new IOException(filename + " is not a units file");
+	} finally {
+		is.close();
+	}
+}
+
+/** reads file, makes its collection the current one and sets up the global method and field directories */
+public static UnitCollection read_and_install(String filename) throws IOException, ClassNotFoundException
+{
+	Contents c = read(filename);
+	if (c.method_dir != null)
+		MethodResolver.globalMethodUnitsDir = c.method_dir;
+	if (c.field_dir != null)
+		FieldUnit.globalFieldUnitDir = c.field_dir;
+	Unit._current_unit_collection = c.uc;
+	return c.uc;
+}
+
+/** writes uc and the directories in the format selected by unifi.units.format */
+public static void write(String filename, UnitCollection uc, Map<String, MethodUnits> method_dir, Map<String, FieldUnit> field_dir) throws IOException
+{
+	OutputStream os = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+	try {
+		if (WRITE_JAVA_FORMAT)
+			write_java(os, uc, method_dir, field_dir);
+		else
+		{
+			try {
+				new Writer(uc, method_dir, field_dir).write(os);
+			} catch (UnsupportedUnitException e) {
+				Util.warn(e.getMessage() + ", writing " + filename + " with java serialization instead");
+				os.close();
+				os = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+				write_java(os, uc, method_dir, field_dir);
+			}
+		}
+	} finally {
+		os.close();
+	}
+}
+
+/** writes the current collection and the global directories */
+public static void write(String filename, UnitCollection uc) throws IOException
+{
+	write(filename, uc, MethodResolver.globalMethodUnitsDir, FieldUnit.globalFieldUnitDir);
+}
+
+/* ---------------------- java serialization format ---------------------- */
+
+@SuppressWarnings("unchecked")
+private static Contents read_java(InputStream is) throws IOException, ClassNotFoundException
+{
+	ObjectInputStream ois = new ObjectInputStream(is);
+	Contents c = new Contents();
+	c.uc = (UnitCollection) ois.readObject();
+	try {
+		c.method_dir = (Map<String, MethodUnits>) ois.readObject();
+		c.field_dir = (Map<String, FieldUnit>) ois.readObject();
+	} catch (EOFException eofe) {
+		// some files have only the unit collection
+	}
+	return c;
+}
+
+private static void write_java(OutputStream os, UnitCollection uc, Map<String, MethodUnits> method_dir, Map<String, FieldUnit> field_dir) throws IOException
+{
+	ObjectOutputStream oos = new ObjectOutputStream(os);
+	oos.writeObject(uc);
+	oos.writeObject(method_dir);
+	oos.writeObject(field_dir);
+	oos.flush();
+}
+
+/* ---------------------- binary format ---------------------- */
+
+/* numbers in records are varints: 7 bits per byte, low bits first, the top bit set on all but the last byte.
+ * references (indices into the tables) are written as is, or as index + 1 where they can be null.
+ * other signed values are zigzag encoded, so that small negative numbers stay short. */
+
+public static void write_var(DataOutput out, int v) throws IOException
+{
+	while ((v & ~0x7f) != 0)
+	{
+		out.writeByte((v & 0x7f) | 0x80);
+		v >>>= 7;
+	}
+	out.writeByte(v);
+}
+
+public static void write_var_long(DataOutput out, long v) throws IOException
+{
+	while ((v & ~0x7fL) != 0)
+	{
+		out.writeByte((int) (v & 0x7f) | 0x80);
+		v >>>= 7;
+	}
+	out.writeByte((int) v);
+}
+
+public static void write_svar(DataOutput out, int v) throws IOException { write_var(out, (v << 1) ^ (v >> 31)); }
+public static void write_svar_long(DataOutput out, long v) throws IOException { write_var_long(out, (v << 1) ^ (v >> 63)); }
+
+public static int read_var(DataInput in) throws IOException
+{
+	int result = 0;
+	for (int shift = 0; ; shift += 7)
+	{
+		byte b = in.readByte();
+		result |= (b & 0x7f) << shift;
+		if (b >= 0)
+			return result;
+	}
+}
+
+public static long read_var_long(DataInput in) throws IOException
+{
+	long result = 0;
+	for (int shift = 0; ; shift += 7)
+	{
+		byte b = in.readByte();
+		result |= ((long) (b & 0x7f)) << shift;
+		if (b >= 0)
+			return result;
+	}
+}
+
+public static int read_svar(DataInput in) throws IOException { int v = read_var(in); return (v >>> 1) ^ -(v & 1); }
+public static long read_svar_long(DataInput in) throws IOException { long v = read_var_long(in); return (v >>> 1) ^ -(v & 1); }
+
+/** a unit record as it is in the file: a UnitRecord with strings, bcps and units as indices (-1 for null).
+ * written as: byte kind, var flags, svar id, var mask of the slots that are not at their default,
+ * then those slots in order. slots that hold indices are plain varints, the others are svars. */
+static class RawUnit {
+	// the slots most units use come first, so that their mask fits in one byte
+	static final int TYPE_SIG = 0, S0 = 1, S1 = 2, I0 = 3, I1 = 4, BCP = 5, LENGTH_UNIT = 6,
+			ELEMENT_OF = 7, ARRAY_OF = 8, LENGTH_OF = 9, R0 = 10, R1 = 11,
+			CLUSTER_NUM = 12, GOLDEN_ID = 13, SEAVIEW_ID = 14, SEAVIEW_REP_ID = 15, WATCH_COLOR = 16,
+			N_SLOTS = 17; // l0 is kept separately, its mask bit is N_SLOTS
+	private static final int INDEX_SLOTS = (1 << TYPE_SIG) | (1 << ELEMENT_OF) | (1 << ARRAY_OF) | (1 << LENGTH_UNIT)
+			| (1 << LENGTH_OF) | (1 << S0) | (1 << S1) | (1 << BCP) | (1 << R0) | (1 << R1);
+
+	byte kind;
+	int flags, id;
+	final int[] slot = new int[N_SLOTS];
+	long l0;
+
+	private static int default_of(int s) { return (s == I0 || s == I1) ? 0 : -1; }
+
+	void write(DataOutput out) throws IOException
+	{
+		int mask = (l0 != 0) ? (1 << N_SLOTS) : 0;
+		for (int s = 0; s < N_SLOTS; s++)
+			if (slot[s] != default_of(s))
+				mask |= 1 << s;
+		out.writeByte(kind);
+		write_var(out, flags);
+		write_svar(out, id);
+		write_var(out, mask);
+		for (int s = 0; s < N_SLOTS; s++)
+			if ((mask & (1 << s)) != 0)
+			{
+				if ((INDEX_SLOTS & (1 << s)) != 0)
+					write_var(out, slot[s]);
+				else
+					write_svar(out, slot[s]);
+			}
+		if (l0 != 0)
+			write_svar_long(out, l0);
+	}
+
+	void read(DataInput in) throws IOException
+	{
+		kind = in.readByte();
+		flags = read_var(in);
+		id = read_svar(in);
+		int mask = read_var(in);
+		for (int s = 0; s < N_SLOTS; s++)
+		{
+			if ((mask & (1 << s)) == 0)
+				slot[s] = default_of(s);
+			else if ((INDEX_SLOTS & (1 << s)) != 0)
+				slot[s] = read_var(in);
+			else
+				slot[s] = read_svar(in);
+		}
+		l0 = ((mask & (1 << N_SLOTS)) != 0) ? read_svar_long(in) : 0;
+	}
+
+	/** reads just the id of the record at in */
+	static int read_id(DataInput in) throws IOException
+	{
+		in.readByte();
+		read_var(in);
+		return read_svar(in);
+	}
+
+	/** the scalar fields of rec, with strings and bcps resolved from the given tables */
+	void to_record(UnitRecord rec, String[] strings, BCP[] bcps)
+	{
+		rec.kind = kind;
+		rec.flags = flags;
+		rec.id = id;
+		rec.type_sig = at(strings, slot[TYPE_SIG]);
+		rec.cluster_num = slot[CLUSTER_NUM];
+		rec.seaview_id = slot[SEAVIEW_ID];
+		rec.seaview_rep_id = slot[SEAVIEW_REP_ID];
+		rec.golden_id = slot[GOLDEN_ID];
+		rec.watch_color = slot[WATCH_COLOR];
+		rec.s0 = at(strings, slot[S0]);
+		rec.s1 = at(strings, slot[S1]);
+		rec.i0 = slot[I0];
+		rec.i1 = slot[I1];
+		rec.l0 = l0;
+		rec.bcp = at(bcps, slot[BCP]);
+	}
+
+	/** sets rec's unit references from the given table */
+	void link_record(UnitRecord rec, Unit[] units)
+	{
+		rec.element_of = at(units, slot[ELEMENT_OF]);
+		rec.array_of = at(units, slot[ARRAY_OF]);
+		rec.length_unit = at(units, slot[LENGTH_UNIT]);
+		rec.length_of = at(units, slot[LENGTH_OF]);
+		rec.r0 = at(units, slot[R0]);
+		rec.r1 = at(units, slot[R1]);
+	}
+
+	boolean has_unit_refs()
+	{
+		return slot[ELEMENT_OF] >= 0 || slot[ARRAY_OF] >= 0 || slot[LENGTH_UNIT] >= 0 || slot[LENGTH_OF] >= 0 || slot[R0] >= 0 || slot[R1] >= 0;
+	}
+}
+
+/** bcp records: var class name + 1, var method + 1, svar pos, svar line, byte is_meet */
+static BCP read_bcp(DataInput in, String[] strings) throws IOException
+{
+	String class_name = at(strings, read_var(in) - 1);
+	String method = at(strings, read_var(in) - 1);
+	int pos = read_svar(in);
+	int line = read_svar(in);
+	return new BCP(class_name, method, pos, line, in.readBoolean());
+}
+
+/** event records: svar id, then var index + 1 of unit a, unit b, bcp and the event it depends on */
+static final int EVENT_ID = 0, EVENT_A = 1, EVENT_B = 2, EVENT_BCP = 3, EVENT_DEPENDS_ON = 4;
+
+static void read_event(DataInput in, int[] fields) throws IOException
+{
+	fields[EVENT_ID] = read_svar(in);
+	for (int f = EVENT_A; f <= EVENT_DEPENDS_ON; f++)
+		fields[f] = read_var(in) - 1;
+}
+
+private static class Writer {
+	private final UnitCollection uc;
+	private final Map<String, MethodUnits> method_dir;
+	private final Map<String, FieldUnit> field_dir;
+
+	private final List<String> strings = new ArrayList<String>();
+	private final Map<String, Integer> string_idx = new HashMap<String, Integer>();
+	private final List<BCP> bcps = new ArrayList<BCP>();
+	private final Map<BCP, Integer> bcp_idx = new HashMap<BCP, Integer>();
+	private final List<Unit> units = new ArrayList<Unit>();
+	private final Map<Unit, Integer> unit_idx = new IdentityHashMap<Unit, Integer>();
+	private final List<UnificationEvent> events = new ArrayList<UnificationEvent>();
+	private final Map<UnificationEvent, Integer> event_idx = new IdentityHashMap<UnificationEvent, Integer>();
+	private final List<MethodUnits> method_units = new ArrayList<MethodUnits>();
+	private final Map<MethodUnits, Integer> method_units_idx = new IdentityHashMap<MethodUnits, Integer>();
+	private final List<MethodSummary> summaries = new ArrayList<MethodSummary>();
+	private final Map<MethodSummary, Integer> summary_idx = new IdentityHashMap<MethodSummary, Integer>();
+	private final UnitRecord rec = new UnitRecord();
+	private final RawUnit raw = new RawUnit();
+
+	Writer(UnitCollection uc, Map<String, MethodUnits> method_dir, Map<String, FieldUnit> field_dir)
+	{
+		this.uc = uc;
+		this.method_dir = method_dir;
+		this.field_dir = field_dir;
+	}
+
+	private int string(String s)
+	{
+		if (s == null)
+			return -1;
+		Integer i = string_idx.get(s);
+		if (i == null)
+		{
+			i = strings.size();
+			strings.add(s);
+			string_idx.put(s, i);
+		}
+		return i;
+	}
+
+	private int bcp(BCP b)
+	{
+		if (b == null)
+			return -1;
+		Integer i = bcp_idx.get(b);
+		if (i == null)
+		{
+			i = bcps.size();
+			bcps.add(b);
+			bcp_idx.put(b, i);
+			string(b.get_class_name());
+			string(b.get_method_name_and_sig());
+		}
+		return i;
+	}
+
+	private int unit(Unit u)
+	{
+		if (u == null)
+			return -1;
+		Integer i = unit_idx.get(u);
+		if (i == null)
+		{
+			i = units.size();
+			units.add(u);
+			unit_idx.put(u, i);
+		}
+		return i;
+	}
+
+	private int event(UnificationEvent e)
+	{
+		if (e == null)
+			return -1;
+		Integer i = event_idx.get(e);
+		if (i == null)
+		{
+			i = events.size();
+			events.add(e);
+			event_idx.put(e, i);
+		}
+		return i;
+	}
+
+	private int method_units(MethodUnits mu)
+	{
+		if (mu == null)
+			return -1;
+		Integer i = method_units_idx.get(mu);
+		if (i == null)
+		{
+			i = method_units.size();
+			method_units.add(mu);
+			method_units_idx.put(mu, i);
+		}
+		return i;
+	}
+
+	private int summary(MethodSummary ms)
+	{
+		if (ms == null)
+			return -1;
+		Integer i = summary_idx.get(ms);
+		if (i == null)
+		{
+			i = summaries.size();
+			summaries.add(ms);
+			summary_idx.put(ms, i);
+		}
+		return i;
+	}
+
+	/** assigns indices to everything reachable from the units and events indexed so far */
+	private void close_over_references() throws UnsupportedUnitException
+	{
+		int next_unit = 0, next_event = 0;
+		while (next_unit < units.size() || next_event < events.size())
+		{
+			for (; next_unit < units.size(); next_unit++)
+			{
+				Unit u = units.get(next_unit);
+				if (UnitRecord.kind_of(u) < 0)
+					throw new UnsupportedUnitException(u);
+				rec.load(u);
+				string(rec.type_sig);
+				string(rec.s0);
+				string(rec.s1);
+				bcp(rec.bcp);
+				unit(rec.element_of);
+				unit(rec.array_of);
+				unit(rec.length_unit);
+				unit(rec.length_of);
+				unit(rec.r0);
+				unit(rec.r1);
+				unit((Unit) u.find());
+				if (u.unifEvents != null)
+					for (UnificationEvent e : u.unifEvents)
+						event(e);
+			}
+			for (; next_event < events.size(); next_event++)
+			{
+				UnificationEvent e = events.get(next_event);
+				unit(e.get_unit_a());
+				unit(e.get_unit_b());
+				bcp(e.get_bcp());
+				event(e.depends_on());
+				if (e instanceof GoldenUnifiEvent)
+				{
+					unit(((GoldenUnifiEvent) e).get_rep());
+					for (Unit u : ((GoldenUnifiEvent) e).get_units())
+						unit(u);
+				}
+			}
+		}
+	}
+
+	/** var size + 1 (0 for null), then var index + 1 of each unit */
+	private void write_units(DataOutputStream out, Collection<? extends Unit> c) throws IOException
+	{
+		write_var(out, (c == null) ? 0 : c.size() + 1);
+		if (c != null)
+			for (Unit u : c)
+				write_var(out, unit(u) + 1);
+	}
+
+	private void write_units(DataOutputStream out, Unit[] a) throws IOException
+	{
+		write_units(out, (a == null) ? null : Arrays.asList(a));
+	}
+
+	private void write_method_units(DataOutputStream out, MethodUnits mu) throws IOException
+	{
+		write_var(out, string(mu.full_sig()) + 1);
+		write_var(out, mu.record_flags());
+		write_svar(out, mu.n_param_words());
+		write_svar(out, mu.get_n_params());
+		write_var(out, mu.mapping_sigs().size());
+		for (String sig : mu.mapping_sigs())
+			write_var(out, string(sig));
+		write_units(out, mu._local_vars);
+		write_units(out, mu._params);
+		write_var(out, unit(mu._rv) + 1);
+		write_var(out, summary(mu.getMethodSummary()) + 1);
+	}
+
+	private void write_summary(DataOutputStream out, MethodSummary.Record r) throws IOException
+	{
+		write_var(out, method_units(r.methodUnits) + 1);
+		out.writeByte((r.isClone ? 1 : 0) | (r.paramsOfMethodUnits ? 2 : 0));
+		if (!r.paramsOfMethodUnits)
+			write_units(out, r.params);
+		write_var(out, unit(r.retVal) + 1);
+		write_var(out, (r.clones == null) ? 0 : r.clones.size() + 1);
+		if (r.clones != null)
+			for (MethodSummary clone : r.clones)
+				write_var(out, summary(clone) + 1);
+		write_units(out, r.slots);
+		write_units(out, r.slotUnits);
+		write_units(out, r.args);
+		if (r.methodInvoke == null)
+			write_var(out, 0);
+		else
+		{
+			write_var(out, 1);
+			write_var(out, bcp(r.methodInvoke.getBcp()) + 1);
+			write_var(out, method_units(r.methodInvoke.getCallerMethodUnits()) + 1);
+			write_var(out, method_units(r.methodInvoke.getCalleeMethodUnits()) + 1);
+		}
+		write_var(out, (r.cloneMap == null) ? 0 : r.cloneMap.size() + 1);
+		if (r.cloneMap != null)
+			for (Map.Entry<Unit, Unit> me : r.cloneMap.entrySet())
+			{
+				write_var(out, unit(me.getKey()) + 1);
+				write_var(out, unit(me.getValue()) + 1);
+			}
+		write_svar(out, r.nUpdates);
+		write_units(out, r.multUnits);
+		write_units(out, r.repsOfCloneMapUnits);
+	}
+
+	/** the directories and the collection's reps, written natively (see read_dirs) */
+	private byte[] serialize_dirs() throws IOException
+	{
+		ByteArrayOutputStream dir_bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(dir_bytes);
+		write_var(out, (method_dir == null) ? 0 : method_dir.size() + 1);
+		if (method_dir != null)
+			for (Map.Entry<String, MethodUnits> me : method_dir.entrySet())
+			{
+				write_var(out, string(me.getKey()));
+				write_var(out, method_units(me.getValue()) + 1);
+			}
+		write_var(out, (field_dir == null) ? 0 : field_dir.size() + 1);
+		if (field_dir != null)
+			for (Map.Entry<String, FieldUnit> me : field_dir.entrySet())
+			{
+				write_var(out, string(me.getKey()));
+				write_var(out, unit(me.getValue()) + 1);
+			}
+
+		out.writeBoolean(uc.reps_are_setup());
+		Map<Unit, List<Unit>> reps = uc.reps_map();
+		write_var(out, (reps == null) ? 0 : reps.size() + 1);
+		if (reps != null)
+			for (Map.Entry<Unit, List<Unit>> me : reps.entrySet())
+			{
+				write_var(out, unit(me.getKey()) + 1);
+				write_units(out, me.getValue());
+			}
+		// the self map maps each unit to itself, so the value is written as its distance from the key
+		Map<Unit, Unit> self_map = uc.units_self_map();
+		write_var(out, (self_map == null) ? 0 : self_map.size() + 1);
+		if (self_map != null)
+			for (Map.Entry<Unit, Unit> me : self_map.entrySet())
+			{
+				int key = unit(me.getKey());
+				write_var(out, key + 1);
+				write_svar(out, unit(me.getValue()) - key);
+			}
+		out.flush();
+
+		// method units and summaries refer to each other, so they are numbered as they are reached,
+		// and all of them are counted before any is read back
+		ByteArrayOutputStream mu_bytes = new ByteArrayOutputStream(), summary_bytes = new ByteArrayOutputStream();
+		DataOutputStream mu_out = new DataOutputStream(mu_bytes), summary_out = new DataOutputStream(summary_bytes);
+		MethodSummary.Record r = new MethodSummary.Record();
+		int next_mu = 0, next_summary = 0;
+		while (next_mu < method_units.size() || next_summary < summaries.size())
+		{
+			for (; next_mu < method_units.size(); next_mu++)
+				write_method_units(mu_out, method_units.get(next_mu));
+			for (; next_summary < summaries.size(); next_summary++)
+			{
+				r.load(summaries.get(next_summary));
+				write_summary(summary_out, r);
+			}
+		}
+		mu_out.flush();
+		summary_out.flush();
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		DataOutputStream all = new DataOutputStream(baos);
+		write_var(all, method_units.size());
+		write_var(all, summaries.size());
+		mu_bytes.writeTo(all);
+		summary_bytes.writeTo(all);
+		dir_bytes.writeTo(all);
+		all.flush();
+		return baos.toByteArray();
+	}
+
+	/** the java serialized part: the constraint set, display names, stats and redundant event counts */
+	private byte[] serialize_rest() throws IOException
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream oos = new ObjectOutputStream(baos) {
+			{ enableReplaceObject(true); }
+			protected Object replaceObject(Object o)
+			{
+				if (o instanceof Unit)
+					return new Ref(Ref.UNIT, unit((Unit) o));
+				if (o instanceof UnificationEvent)
+					return new Ref(Ref.EVENT, event((UnificationEvent) o));
+				if (o instanceof BCP)
+					return new Ref(Ref.BCP, bcp((BCP) o));
+				return o;
+			}
+		};
+		oos.writeObject(uc.constraint_set());
+		oos.writeObject(uc.displayNames);
+		oos.writeObject(uc.get_stats());
+		oos.writeObject(uc.get_redundant_event_counts());
+		oos.close();
+		return baos.toByteArray();
+	}
+
+	void write(OutputStream os) throws IOException, UnsupportedUnitException
+	{
+		for (Unit u : uc.get_units())
+			unit(u);
+		int n_collection_units = units.size();
+		for (UnificationEvent e : uc.get_events())
+			event(e);
+		int n_collection_events = events.size();
+
+		// these may refer to units outside the collection, so write them before closing over references
+		byte[] dirs = serialize_dirs();
+		byte[] rest = serialize_rest();
+		close_over_references();
+
+		CountingOutputStream counter = new CountingOutputStream(os);
+		DataOutputStream out = new DataOutputStream(counter);
+		long[] section_starts = new long[N_SECTIONS];
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+
+		section_starts[STRINGS] = counter.count;
+		out.writeInt(strings.size());
+		int[] string_offsets = new int[strings.size()];
+		for (int i = 0; i < strings.size(); i++)
+		{
+			string_offsets[i] = (int) (counter.count - section_starts[STRINGS]);
+			write_string(out, strings.get(i));
+		}
+
+		section_starts[BCPS] = counter.count;
+		out.writeInt(bcps.size());
+		int[] bcp_offsets = new int[bcps.size()];
+		for (int i = 0; i < bcps.size(); i++)
+		{
+			BCP b = bcps.get(i);
+			bcp_offsets[i] = (int) (counter.count - section_starts[BCPS]);
+			write_var(out, string(b.get_class_name()) + 1);
+			write_var(out, string(b.get_method_name_and_sig()) + 1);
+			write_svar(out, b.get_pos());
+			write_svar(out, b.get_src_line());
+			out.writeBoolean(b.is_meet());
+		}
+
+		int n = units.size();
+		section_starts[UNITS] = counter.count;
+		out.writeInt(n);
+		out.writeInt(n_collection_units);
+		int[] unit_offsets = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			unit_offsets[i] = (int) (counter.count - section_starts[UNITS]);
+			rec.load(units.get(i));
+			raw.kind = rec.kind;
+			raw.flags = rec.flags;
+			raw.id = rec.id;
+			raw.slot[RawUnit.TYPE_SIG] = string(rec.type_sig);
+			raw.slot[RawUnit.CLUSTER_NUM] = rec.cluster_num;
+			raw.slot[RawUnit.SEAVIEW_ID] = rec.seaview_id;
+			raw.slot[RawUnit.SEAVIEW_REP_ID] = rec.seaview_rep_id;
+			raw.slot[RawUnit.GOLDEN_ID] = rec.golden_id;
+			raw.slot[RawUnit.WATCH_COLOR] = rec.watch_color;
+			raw.slot[RawUnit.ELEMENT_OF] = unit(rec.element_of);
+			raw.slot[RawUnit.ARRAY_OF] = unit(rec.array_of);
+			raw.slot[RawUnit.LENGTH_UNIT] = unit(rec.length_unit);
+			raw.slot[RawUnit.LENGTH_OF] = unit(rec.length_of);
+			raw.slot[RawUnit.S0] = string(rec.s0);
+			raw.slot[RawUnit.S1] = string(rec.s1);
+			raw.slot[RawUnit.I0] = rec.i0;
+			raw.slot[RawUnit.I1] = rec.i1;
+			raw.slot[RawUnit.BCP] = bcp(rec.bcp);
+			raw.slot[RawUnit.R0] = unit(rec.r0);
+			raw.slot[RawUnit.R1] = unit(rec.r1);
+			raw.l0 = rec.l0;
+			raw.write(out);
+		}
+		section_starts[PARENTS] = counter.count;
+		for (Unit u : units)
+			out.writeInt(unit((Unit) u.find()));
+		section_starts[RANKS] = counter.count;
+		for (Unit u : units)
+		{
+			// ranks are at most log2 of the # of units
+			int rank = ((UnionFindObject) u).uf_rank();
+			Util.ASSERT(rank >= 0 && rank < 256);
+			out.writeByte(rank);
+		}
+
+		List<GoldenUnifiEvent> golden_events = new ArrayList<GoldenUnifiEvent>();
+		for (UnificationEvent e : events)
+			if (e instanceof GoldenUnifiEvent)
+				golden_events.add((GoldenUnifiEvent) e);
+		section_starts[GOLDEN_EVENTS] = counter.count;
+		out.writeInt(golden_events.size());
+		for (GoldenUnifiEvent e : golden_events)
+		{
+			write_var(out, event(e));
+			write_var(out, unit(e.get_rep()) + 1);
+			write_units(out, e.get_units());
+		}
+
+		section_starts[EVENTS] = counter.count;
+		out.writeInt(events.size());
+		out.writeInt(n_collection_events);
+		int[] event_offsets = new int[events.size()];
+		for (int i = 0; i < events.size(); i++)
+		{
+			UnificationEvent e = events.get(i);
+			event_offsets[i] = (int) (counter.count - section_starts[EVENTS]);
+			write_svar(out, e.getId());
+			write_var(out, unit(e.get_unit_a()) + 1);
+			write_var(out, unit(e.get_unit_b()) + 1);
+			write_var(out, bcp(e.get_bcp()) + 1);
+			write_var(out, event(e.depends_on()) + 1);
+		}
+
+		section_starts[UNIT_EVENTS] = counter.count;
+		int[] unit_event_offsets = new int[n];
+		for (int i = 0; i < n; i++)
+		{
+			List<UnificationEvent> list = units.get(i).unifEvents;
+			unit_event_offsets[i] = (int) (counter.count - section_starts[UNIT_EVENTS]);
+			write_var(out, (list == null) ? 0 : list.size() + 1);
+			if (list != null)
+				for (UnificationEvent e : list)
+					write_var(out, event(e));
+		}
+
+		section_starts[DIRS] = counter.count;
+		out.writeInt(dirs.length);
+		out.write(dirs);
+
+		section_starts[REST] = counter.count;
+		out.writeInt(rest.length);
+		out.write(rest);
+
+		write_index(out, counter, section_starts, string_offsets, bcp_offsets, unit_offsets, event_offsets, unit_event_offsets);
+		out.flush();
+
+		logger.info("wrote " + strings.size() + " strings, " + bcps.size() + " bcps, " + n + " units ("
+				+ n_collection_units + " in collection), " + events.size() + " events, " + method_units.size() + " method units, "
+				+ summaries.size() + " summaries, " + rest.length + " other bytes");
+	}
+
+	private void write_index(DataOutputStream out, CountingOutputStream counter, long[] section_starts, int[]... offset_tables) throws IOException
+	{
+		long index_start = counter.count;
+		for (long start : section_starts)
+			out.writeLong(start);
+		for (int[] table : offset_tables)
+			for (int offset : table)
+				out.writeInt(offset);
+
+		int n = units.size();
+		Integer[] by_id = new Integer[n];
+		for (int i = 0; i < n; i++)
+			by_id[i] = i;
+		Arrays.sort(by_id, new Comparator<Integer>() {
+			public int compare(Integer x, Integer y) {
+				int id_x = units.get(x).getId(), id_y = units.get(y).getId();
+				return (id_x != id_y) ? (id_x < id_y ? -1 : 1) : x.compareTo(y);
+			}
+		});
+		for (Integer i : by_id)
+			out.writeInt(i);
+
+		// only the order is stored, readers compare names by creating the units
+		final String[] names = new String[n];
+		for (int i = 0; i < n; i++)
+			names[i] = units.get(i).toString();
+		Integer[] by_name = new Integer[n];
+		for (int i = 0; i < n; i++)
+			by_name[i] = i;
+		Arrays.sort(by_name, new Comparator<Integer>() {
+			public int compare(Integer x, Integer y) {
+				int c = names[x].compareTo(names[y]);
+				return (c != 0) ? c : x.compareTo(y);
+			}
+		});
+		for (Integer i : by_name)
+			out.writeInt(i);
+
+		out.writeLong(index_start);
+	}
+}
+
+// sections whose offsets are kept in the index
+static final int STRINGS = 0, BCPS = 1, UNITS = 2, PARENTS = 3, RANKS = 4, GOLDEN_EVENTS = 5, EVENTS = 6, UNIT_EVENTS = 7,
+		DIRS = 8, REST = 9, N_SECTIONS = 10;
+
+private static class CountingOutputStream extends FilterOutputStream {
+	long count;
+	CountingOutputStream(OutputStream os) { super(os); }
+	public void write(int b) throws IOException { out.write(b); count++; }
+	public void write(byte[] b, int off, int len) throws IOException { out.write(b, off, len); count += len; }
+}
+
+// strings are mostly short signatures; the rare long string constant is written as chars
+private static final int MAX_UTF_CHARS = 65535/3;
+
+private static void write_string(DataOutputStream out, String s) throws IOException
+{
+	if (s.length() <= MAX_UTF_CHARS)
+	{
+		out.writeByte(0);
+		out.writeUTF(s);
+	}
+	else
+	{
+		out.writeByte(1);
+		out.writeInt(s.length());
+		out.writeChars(s);
+	}
+}
+
+static String read_string(DataInput in) throws IOException
+{
+	if (in.readByte() == 0)
+		return in.readUTF();
+	int len = in.readInt();
+	char[] chars = new char[len];
+	for (int i = 0; i < len; i++)
+		chars[i] = in.readChar();
+	return new String(chars);
+}
+
+private static <T> T at(T[] table, int idx)
+{
+	return (idx < 0) ? null : table[idx];
+}
+
+/** reads a list written by Writer.write_units, null if it was null */
+private static Unit[] read_units(DataInput in, Unit[] units) throws IOException
+{
+	int n = read_var(in) - 1;
+	if (n < 0)
+		return null;
+	Unit[] result = new Unit[n];
+	for (int i = 0; i < n; i++)
+		result[i] = at(units, read_var(in) - 1);
+	return result;
+}
+
+private static <T> T[] typed(Unit[] a, Class<? extends T[]> type)
+{
+	return (a == null) ? null : Arrays.copyOf(a, a.length, type);
+}
+
+@SuppressWarnings("unchecked")
+private static <T> List<T> list_of(Unit[] a)
+{
+	return (a == null) ? null : (List<T>) new ArrayList<Unit>(Arrays.asList(a));
+}
+
+/** reads the method units, summaries, directories and reps written by Writer.serialize_dirs */
+private static void read_dirs(DataInput in, Contents c, String[] strings, BCP[] bcps, Unit[] units) throws IOException
+{
+	MethodUnits[] method_units = new MethodUnits[read_var(in)];
+	MethodSummary[] summaries = new MethodSummary[read_var(in)];
+	MethodSummary.Record r = new MethodSummary.Record();
+	for (int i = 0; i < summaries.length; i++)
+		summaries[i] = r.create();
+
+	for (int i = 0; i < method_units.length; i++)
+	{
+		String full_sig = at(strings, read_var(in) - 1);
+		int flags = read_var(in);
+		int n_param_words = read_svar(in);
+		MethodUnits mu = new MethodUnits(full_sig, flags, n_param_words, read_svar(in));
+		int n_sigs = read_var(in);
+		for (int j = 0; j < n_sigs; j++)
+			mu.mapping_sigs().add(strings[read_var(in)]);
+		LocalVarUnit[] local_vars = typed(read_units(in, units), LocalVarUnit[].class);
+		MethodParamUnit[] params = typed(read_units(in, units), MethodParamUnit[].class);
+		ReturnValueUnit rv = (ReturnValueUnit) at(units, read_var(in) - 1);
+		mu.link(local_vars, params, rv, at(summaries, read_var(in) - 1));
+		method_units[i] = mu;
+	}
+
+	// units are all linked by now, so the summaries can hash them
+	for (int i = 0; i < summaries.length; i++)
+	{
+		r.methodUnits = at(method_units, read_var(in) - 1);
+		int bits = in.readByte();
+		r.isClone = (bits & 1) != 0;
+		r.paramsOfMethodUnits = (bits & 2) != 0;
+		r.params = r.paramsOfMethodUnits ? null : typed(read_units(in, units), MethodParamUnit[].class);
+		r.retVal = (ReturnValueUnit) at(units, read_var(in) - 1);
+		int n_clones = read_var(in) - 1;
+		r.clones = (n_clones < 0) ? null : new ArrayList<MethodSummary>(n_clones);
+		for (int j = 0; j < n_clones; j++)
+			r.clones.add(at(summaries, read_var(in) - 1));
+		r.slots = list_of(read_units(in, units));
+		r.slotUnits = read_units(in, units);
+		r.args = read_units(in, units);
+		r.methodInvoke = null;
+		if (read_var(in) != 0)
+		{
+			BCP bcp = at(bcps, read_var(in) - 1);
+			MethodUnits caller = at(method_units, read_var(in) - 1);
+			r.methodInvoke = new MethodInvoke(bcp, caller, at(method_units, read_var(in) - 1));
+		}
+		int n_cloned = read_var(in) - 1;
+		r.cloneMap = (n_cloned < 0) ? null : new LinkedHashMap<Unit, Unit>();
+		for (int j = 0; j < n_cloned; j++)
+		{
+			Unit key = at(units, read_var(in) - 1);
+			r.cloneMap.put(key, at(units, read_var(in) - 1));
+		}
+		r.nUpdates = read_svar(in);
+		r.multUnits = list_of(read_units(in, units));
+		Unit[] reps_of_cloned = read_units(in, units);
+		r.repsOfCloneMapUnits = (reps_of_cloned == null) ? null : new LinkedHashSet<Unit>(Arrays.asList(reps_of_cloned));
+		r.link(summaries[i]);
+	}
+
+	int n_methods = read_var(in) - 1;
+	c.method_dir = (n_methods < 0) ? null : new LinkedHashMap<String, MethodUnits>();
+	for (int i = 0; i < n_methods; i++)
+	{
+		String sig = strings[read_var(in)];
+		c.method_dir.put(sig, at(method_units, read_var(in) - 1));
+	}
+	int n_fields = read_var(in) - 1;
+	c.field_dir = (n_fields < 0) ? null : new LinkedHashMap<String, FieldUnit>();
+	for (int i = 0; i < n_fields; i++)
+	{
+		String name = strings[read_var(in)];
+		c.field_dir.put(name, (FieldUnit) at(units, read_var(in) - 1));
+	}
+
+	boolean reps_setup_done = in.readBoolean();
+	int n_reps = read_var(in) - 1;
+	Map<Unit, List<Unit>> reps = (n_reps < 0) ? null : new LinkedHashMap<Unit, List<Unit>>();
+	for (int i = 0; i < n_reps; i++)
+	{
+		Unit rep = at(units, read_var(in) - 1);
+		List<Unit> list = list_of(read_units(in, units));
+		reps.put(rep, list);
+	}
+	int n_self = read_var(in) - 1;
+	HashMap<Unit, Unit> self_map = (n_self < 0) ? null : new LinkedHashMap<Unit, Unit>();
+	for (int i = 0; i < n_self; i++)
+	{
+		int key = read_var(in) - 1;
+		self_map.put(at(units, key), at(units, key + read_svar(in)));
+	}
+	c.uc.restore_reps(reps, self_map, reps_setup_done);
+}
+
+@SuppressWarnings("unchecked")
+private static Contents read_binary(DataInputStream in) throws IOException, ClassNotFoundException
+{
+	Util.ASSERT(in.readInt() == MAGIC);
+	int version = in.readInt();
+	if (version != VERSION)
+		throw new IOException("units file version " + version + " is not supported, expected " + VERSION);
+
+	String[] strings = new String[in.readInt()];
+	for (int i = 0; i < strings.length; i++)
+		strings[i] = read_string(in);
+
+	final BCP[] bcps = new BCP[in.readInt()];
+	for (int i = 0; i < bcps.length; i++)
+		bcps[i] = read_bcp(in, strings);
+
+	int n = in.readInt();
+	int n_collection_units = in.readInt();
+	final Unit[] units = new Unit[n];
+	RawUnit[] raws = new RawUnit[n]; // only for units with references to other units
+	RawUnit raw = new RawUnit();
+	UnitRecord rec = new UnitRecord();
+	for (int i = 0; i < n; i++)
+	{
+		raw.read(in);
+		raw.to_record(rec, strings, bcps);
+		units[i] = rec.create();
+		if (raw.has_unit_refs())
+		{
+			raws[i] = raw;
+			raw = new RawUnit();
+		}
+	}
+	// link up units only after all of them exist. this has to be done before any hashing of units,
+	// since the hash codes of some units depend on the units they refer to.
+	for (int i = 0; i < n; i++)
+	{
+		if (raws[i] == null)
+			continue;
+		rec.kind = raws[i].kind;
+		raws[i].link_record(rec, units);
+		rec.link(units[i]);
+	}
+	raws = null;
+
+	int[] parents = new int[n];
+	for (int i = 0; i < n; i++)
+		parents[i] = in.readInt();
+	for (int i = 0; i < n; i++)
+		((UnionFindObject) units[i]).restore_uf(units[parents[i]], in.readUnsignedByte());
+	parents = null;
+
+	// golden events are created up front, their records are read like other events but only supply the id
+	Map<Integer, GoldenUnifiEvent> golden_events = new HashMap<Integer, GoldenUnifiEvent>();
+	int n_golden = in.readInt();
+	for (int i = 0; i < n_golden; i++)
+	{
+		int idx = read_var(in);
+		Unit rep = at(units, read_var(in) - 1);
+		golden_events.put(idx, new GoldenUnifiEvent(rep, list_of(read_units(in, units))));
+	}
+
+	final UnificationEvent[] events = new UnificationEvent[in.readInt()];
+	int n_collection_events = in.readInt();
+	int[] depends_on = new int[events.length];
+	int[] fields = new int[5];
+	for (int i = 0; i < events.length; i++)
+	{
+		read_event(in, fields);
+		events[i] = golden_events.containsKey(i) ? golden_events.get(i)
+				: new UnificationEvent(at(units, fields[EVENT_A]), at(units, fields[EVENT_B]), at(bcps, fields[EVENT_BCP]));
+		events[i].setId(fields[EVENT_ID]);
+		depends_on[i] = fields[EVENT_DEPENDS_ON];
+	}
+	for (int i = 0; i < events.length; i++)
+		if (depends_on[i] >= 0)
+			events[i].set_depends_on(events[depends_on[i]]);
+	depends_on = null;
+
+	for (int i = 0; i < n; i++)
+	{
+		int n_unit_events = read_var(in) - 1;
+		if (n_unit_events < 0)
+			continue;
+		List<UnificationEvent> list = new ArrayList<UnificationEvent>(n_unit_events);
+		for (int j = 0; j < n_unit_events; j++)
+			list.add(events[read_var(in)]);
+		units[i].unifEvents = list;
+	}
+
+	Contents c = new Contents();
+	UnitCollection uc = c.uc = new UnitCollection();
+	for (int i = 0; i < n_collection_units; i++)
+		uc.get_units().add(units[i]);
+	for (int i = 0; i < n_collection_events; i++)
+		uc.get_events().add(events[i]);
+
+	in.readInt(); // length of the dirs, only needed by readers that skip them
+	read_dirs(in, c, strings, bcps, units);
+
+	byte[] rest = new byte[in.readInt()];
+	in.readFully(rest);
+	ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(rest)) {
+		{ enableResolveObject(true); }
+		protected Object resolveObject(Object o)
+		{
+			if (!(o instanceof Ref))
+				return o;
+			Ref r = (Ref) o;
+			switch (r.kind)
+			{
+			case Ref.UNIT: return units[r.index];
+			case Ref.EVENT: return events[r.index];
+			default: return bcps[r.index];
+			}
+		}
+	};
+	uc.set_constraint_set((ConstraintSet) ois.readObject());
+	uc.displayNames = (DisplayNames) ois.readObject();
+	uc.set_stats((Stats) ois.readObject());
+	uc.get_redundant_event_counts().putAll((Map<BCP, Integer>) ois.readObject());
+	ois.close();
+
+	logger.info("read " + strings.length + " strings, " + bcps.length + " bcps, " + n + " units, " + events.length + " events");
+	return c;
+}
+
+/** converts a units file, in either format, to the format selected by unifi.units.format */
+public static void main(String args[]) throws Exception
+{
+	if (args.length != 2)
+	{
+		System.err.println("Usage: java [-Dunifi.units.format=java] unifi.UnitsFile <input units file> <output units file>");
+		System.exit(1);
+	}
+	Contents c = read(args[0]);
+	System.out.println("Read " + args[0] + ": " + c.uc);
+	write(args[1], c.uc, c.method_dir, c.field_dir);
+	System.out.println("Wrote " + args[1] + (WRITE_JAVA_FORMAT ? " (java serialization)" : ""));
+}
+
+}
@@ -17,36 +17,128 @@ limitations under the License.
 package unifi.contextsensitive;
 
 import java.io.PrintStream;
-import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.Iterator;
-import java.util.LinkedHashSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import unifi.MethodInvokeTracker;
 import unifi.MethodUnits;
+import unifi.unifi_state;
+import unifi.drivers.Analyze;
 import unifi.oo.MethodResolver;
 import unifi.util.Util;
 
 /** driver class for the context sensitive portion of the analysis.
  * maintains a worklist and propagates updates of method summaries.
+ * the worklist is ordered by the strongly connected components of the call graph,
+ * callees first: a method's summary is updated into its callers' clones only after
+ * the summaries of the methods it calls have settled, so each SCC reaches a fixed point
+ * before its callers are processed. within an SCC, methods go in their original order.
+ * a caller is queued only when one of its clones actually changed.
+ * summaries can also change through unifications outside the worklist (e.g. in other methods,
+ * through a field in the same class as some of their units), which don't queue anything. so once
+ * the worklist is empty, the methods whose clusters changed since they were last updated are
+ * queued again, until there are none. the result then doesn't depend on the order.
  */
 public class ContextSensitiveAnalysis {
-private static int nTotalUpdates, nWorklistUpdates, nRequeues, nMethodUnits;
-public static LinkedHashSet<MethodUnits> worklist = new LinkedHashSet<MethodUnits>(); // this is a global, could be in any class
+private static int nTotalUpdates, nWorklistUpdates, nRequeues, nMethodUnits, nDequeues, nSCCs, maxSCCSize, nRounds, nRequeuedDirty;
+private static long worklistMillis;
 
-private static Logger logger = Logger.getLogger("unifi.Unit");
+private static Logger logger = Logger.getLogger("unifi.contextsensitive.ContextSensitiveAnalysis");
+static { logger.setParent(MethodSummary.parent_logger); }
 
-private static void addAllMethodUnitsToWorklist()
+// the worklist priority of each method, by call graph method id: lower is processed first, -1 if not scheduled.
+// queued is by priority.
+private static int[] priority = new int[0];
+private static boolean[] queued = new boolean[0];
+private static PriorityQueue<Integer> worklist = new PriorityQueue<Integer>(); // holds priorities
+private static MethodUnits[] nodeWithPriority = new MethodUnits[0];
+
+/** orders all method units by call graph SCC, callees first. within an SCC, methods keep their order in allMethodUnits */
+private static void computeSchedule(Collection<MethodUnits> allMethodUnits)
 {
-	nTotalUpdates = 0;
-	Collection<MethodUnits> allMethodUnits = MethodResolver.get_all_method_units();
-	logger.info("Starting worklist with " + allMethodUnits.size() + " methods");
+	MethodInvokeTracker tracker = unifi_state.getMethodDepTracker();
+	Set<MethodUnits> seen = new HashSet<MethodUnits>();
+	List<Integer> idList = new ArrayList<Integer>();
+	for (MethodUnits mu : allMethodUnits)
+		if (mu != null && seen.add(mu))
+			idList.add(tracker.addMethod(mu));
+	int n = idList.size();
+	int[] ids = new int[n];
+	for (int i = 0; i < n; i++)
+		ids[i] = idList.get(i);
+
+	MethodInvokeTracker.SCCs sccs = tracker.computeSCCs(ids);
+	nSCCs = sccs.nSCCs();
+	maxSCCSize = sccs.maxSCCSize();
+	int[] order = tracker.reverseTopologicalOrder(ids, sccs);
 
+	priority = new int[tracker.nMethods()];
+	Arrays.fill(priority, -1);
+	nodeWithPriority = new MethodUnits[n];
+	for (int p = 0; p < n; p++)
+	{
+		priority[order[p]] = p;
+		nodeWithPriority[p] = tracker.getMethod(order[p]);
+	}
+	queued = new boolean[n];
+	worklist.clear();
+	logger.info(n + " methods in " + nSCCs + " call graph SCCs, largest SCC has " + maxSCCSize + " methods");
+}
+
+/** seeds the worklist. worklist updates count only the updates due to changed summaries, not these */
+private static void addAllMethodUnitsToWorklist(Collection<MethodUnits> allMethodUnits)
+{
+	int nWorklistUpdatesBefore = nWorklistUpdates;
 	for (MethodUnits mu : allMethodUnits)
         if (mu != null && !mu.isGolden())
         	addToWorklist(mu);
 	nMethodUnits = allMethodUnits.size();
-	nWorklistUpdates = 0;
+	nWorklistUpdates = nWorklistUpdatesBefore;
+}
+
+/** queues the methods whose summaries' clusters changed since they were last updated, not counted as worklist updates.
+ * returns the # of methods queued */
+private static int addDirtyMethodUnitsToWorklist(Collection<MethodUnits> allMethodUnits)
+{
+	int nWorklistUpdatesBefore = nWorklistUpdates;
+	int nDirty = 0;
+	for (MethodUnits mu : allMethodUnits)
+		if (mu != null && !mu.isGolden() && mu.getMethodSummary().clustersChanged())
+		{
+			addToWorklist(mu);
+			nDirty++;
+		}
+	nWorklistUpdates = nWorklistUpdatesBefore;
+	nRequeuedDirty += nDirty;
+	return nDirty;
+}
+
+/** returns the priority of mu, adding it at the end of the schedule if it wasn't known when the schedule was computed */
+private static int getPriority(MethodUnits mu)
+{
+	int id = unifi_state.getMethodDepTracker().addMethod(mu);
+	if (id >= priority.length)
+	{
+		int old = priority.length;
+		priority = Arrays.copyOf(priority, id+1);
+		Arrays.fill(priority, old, id+1, -1);
+	}
+	if (priority[id] >= 0)
+		return priority[id];
+
+	int p = nodeWithPriority.length;
+	priority[id] = p;
+	queued = Arrays.copyOf(queued, p+1);
+	nodeWithPriority = Arrays.copyOf(nodeWithPriority, p+1);
+	nodeWithPriority[p] = mu;
+	return p;
 }
 
 public static void addToWorklist(MethodUnits mu)
@@ -54,41 +146,88 @@ public static void addToWorklist(MethodUnits mu)
     Util.ASSERT (mu != null);
 	nTotalUpdates++;
 	nWorklistUpdates++;
-	if (worklist.contains(mu))
+	int p = getPriority(mu);
+	if (queued[p])
 	{
-		worklist.remove(mu);
-		System.out.println ("Worklist: requeuing method : " + mu);
+		// already queued, its place in the schedule doesn't change
+		if (logger.isLoggable(Level.FINE))
+			logger.fine ("Worklist: requeuing method : " + mu);
 		nRequeues++;
+		return;
 	}
-	worklist.add(mu);
-	System.out.println ("Worklist: queued method " + nWorklistUpdates + " " + mu);
+	queued[p] = true;
+	worklist.add(p);
+	if (logger.isLoggable(Level.FINE))
+		logger.fine ("Worklist: queued method " + nWorklistUpdates + " " + mu);
 }
 
 public static void doIt()
 {
-	addAllMethodUnitsToWorklist();
+	nTotalUpdates = nWorklistUpdates = nRequeues = nDequeues = nRounds = nRequeuedDirty = 0;
+	long start = System.currentTimeMillis();
+	Collection<MethodUnits> allMethodUnits = MethodResolver.get_all_method_units();
+	logger.info("Starting worklist with " + allMethodUnits.size() + " methods");
+	computeSchedule(allMethodUnits);
+
+	addAllMethodUnitsToWorklist(allMethodUnits);
 	while (true)
 	{
-		Iterator<MethodUnits> it = worklist.iterator();
-		if (!it.hasNext())
+		drainWorklist();
+		nRounds++;
+		int nDirty = addDirtyMethodUnitsToWorklist(allMethodUnits);
+		logger.info("Worklist round " + nRounds + ": " + nDirty + " methods with changed clusters");
+		if (nDirty == 0)
 			break;
-		MethodUnits mu = it.next();
-		it.remove();
-		System.out.println ("Worklist: dequeued method : " + mu);
-		if (mu.isGolden())
-		{
-			System.out.println ("Dropping golden method units: " + mu);
-		}
-		mu.getMethodSummary().updateClones();
 	}
+	worklistMillis = System.currentTimeMillis() - start;
+}
+
+/** takes the next method off the worklist */
+private static MethodUnits dequeue()
+{
+	int p = worklist.poll();
+	MethodUnits mu = nodeWithPriority[p];
+	queued[p] = false;
+	nDequeues++;
+	if (logger.isLoggable(Level.FINE))
+		logger.fine ("Worklist: dequeued method : " + mu);
+	if (mu.isGolden())
+	{
+		if (logger.isLoggable(Level.FINE))
+			logger.fine ("Dropping golden method units: " + mu);
+	}
+	return mu;
+}
+
+private static void drainWorklist()
+{
+	while (!worklist.isEmpty())
+		dequeue().getMethodSummary().updateClones();
 }
 
 public static void printStats(PrintStream out)
 {
 	out.println ("Total method units: " + nMethodUnits);
+	out.println ("Total call graph SCCs: " + nSCCs + " (largest " + maxSCCSize + ")");
 	out.println ("Total method updates: " + nTotalUpdates);
 	out.println ("Total worklist updates: " + nWorklistUpdates);
 	out.println ("Total worklist requeues: " + nRequeues);
+	out.println ("Total worklist rounds: " + nRounds + ", methods queued again for changed clusters: " + nRequeuedDirty);
+	out.println ("Total worklist dequeues: " + nDequeues);
+	MethodSummary.printStats(out);
+}
 
+/** prints the precision/cost point of the context sensitivity settings (unifi.cs.insensitive, unifi.cs.allocs.not.shared, unifi.cs.max.clones), also when
+ * the analysis is context insensitive, so runs with different settings can be compared.
+ * analysisMillis is the time taken to analyze the classes, which includes creating the clones */
+public static void printReport(PrintStream out, long analysisMillis)
+{
+	out.println ("Context sensitivity: " + (Analyze.CONTEXT_SENSITIVE_ANALYSIS ? "clones per call site" : "off")
+			     + (MethodSummary.ALLOCS_NOT_SHARED ? ", allocs not shared across clones" : "")
+			     + ", max clones per method " + (MethodSummary.MAX_CLONES > 0 ? Integer.toString(MethodSummary.MAX_CLONES) : "unlimited"));
+	out.println ("Context sensitivity: " + MethodSummary.nClones() + " clones with " + MethodSummary.nCloneUnits() + " clone units, "
+			     + MethodUnits.n_clone_lookup_hits() + " of " + MethodUnits.n_clone_lookups() + " call site lookups found a clone, "
+			     + MethodUnits.n_capped_call_sites() + " call sites over the clone limit");
+	out.println ("Context sensitivity: " + analysisMillis + "ms analyzing classes, " + worklistMillis + "ms in the worklist, " + Util.getMemoryStats());
 }
 }
@@ -24,6 +24,9 @@ import unifi.MethodUnits;
 /** class to represent a method invocation */
 public class MethodInvoke implements Serializable {
 
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = -6578261913148885846L;
+
 private MethodUnits callerMU, calleeMU; // method units of caller
 private BCP bcp; // bcp at callsite
 
@@ -47,4 +50,8 @@ public BCP getBcp() {
 	return bcp;
 }
 
+public MethodUnits getCalleeMethodUnits() {
+	return calleeMU;
+}
+
 }
@@ -17,8 +17,11 @@ limitations under the License.
 package unifi.contextsensitive;
 
 
+import java.io.PrintStream;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -27,7 +30,10 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import org.apache.bcel.generic.BasicType;
+
 import unifi.MethodUnits;
+import unifi.UnionFindObject;
 import unifi.solver.Fraction;
 import unifi.units.AllocUnit;
 import unifi.units.ArrayLengthUnit;
@@ -46,28 +52,66 @@ import unifi.util.Util;
  * each invoke site for the method interface has a clone of this summary.
  * A cloned method summary does not have unification events.
  * It has a pointer to a MethodUnits which contains the unification events.
+ * the master numbers the units its clones have their own version of (params, retval and their
+ * length units) as slots; a clone is just an array of units indexed by slot, and the master's
+ * clusters are kept as int arrays over its slots plus the field and alloc units they include.
+ * with -Dunifi.cs.compact=true, a clone uses the caller's args for the param slots instead of
+ * creating clone param units, so only the retval (which the caller needs on its stack) is cloned.
  */
 public class MethodSummary implements Serializable {
 
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = 693199496519199086L;
+
 public static Logger parent_logger = Logger.getLogger("unifi.contextsensitive");
 private static Logger logger = Logger.getLogger("unifi.contextsensitive.MethodSummary");
 static { logger.setParent(parent_logger); parent_logger.setParent(Logger.getLogger("unifi"));  }
 
+public static final boolean COMPACT = "true".equalsIgnoreCase(System.getProperty("unifi.cs.compact"));
+
+// allocs not shared across clones: an object allocated in a method is not a member of the master summary's clusters
+// in its clones, so clones get no version of it at all (it is not split per call site), and the units it is unified
+// with are not treated as connected to a single unit.
+public static final boolean ALLOCS_NOT_SHARED = Boolean.getBoolean("unifi.cs.allocs.not.shared");
+// max. # of clones per method, call sites beyond that use the master summary. 0 for no limit
+public static final int MAX_CLONES = Integer.getInteger("unifi.cs.max.clones", 0);
+
 /* information about the method for which this object is a summary (both master and clones) */
 private MethodUnits methodUnits; /* method units object this method maps to */
-private MethodParamUnit[] params;
+private MethodParamUnit[] params; // null for compact clones
 private ReturnValueUnit retVal;
 private boolean isClone; // is this a clone or a master method summary ?
 
 // data for master method summaries only
 private List<MethodSummary> clones;
-private Set<Unit> allUnits; // all units in the summary. for MMS only. does not literally include all units, but only units reachable from params/retval
-private Map<Unit,List<Unit>> repToUnitsMap;
+private List<Unit> slots; // slots are only ever added, so a slot # means the same for all clones
+private Map<Unit,Integer> slotNum;
+
+// the clusters of the master, as a snapshot of the units reachable from params/retval.
+// cluster c has members clusterStart[c] .. clusterStart[c+1]-1 of clusterUnits, and memberSlot[i]
+// is the slot # of clusterUnits[i], or SHARED if clones use the unit itself (fields, allocs),
+// or NONE if clones have no version of it.
+// the snapshot is recomputed only if one of the counters it was taken at shows that a unit may
+// have been unified or a dependent unit added since (see ensureClusters).
+// each cluster remembers the snapshot version it last changed in, so clones can skip the unchanged ones.
+private static final int SHARED = -1, NONE = -2;
+private transient Unit[] clusterUnits;
+private transient int[] memberSlot, clusterStart;
+private transient boolean clustersValid;
+private transient int ufVersion, dependentsVersion, nMultUnitsSeen;
+private transient int clustersVersion; // bumped each time the snapshot is recomputed
+private transient Unit[] clusterReps;
+private transient boolean[] clusterSingle; // connectedToSingleUnit of each rep when the snapshot was taken
+private transient int[] clusterChangedAt; // clustersVersion in which each cluster last changed
+private static int nSnapshotsReused, nSnapshotsRecomputed, nClonesInSync, nCloneUnits, nArgSlots, nClones;
 
 // data for clones only
-private Map<Unit,Unit> cloneMap = null; /* mapping of units in the MMS to units in this summary */
+private Unit[] slotUnits; /* this clone's version of each slot of the master, null if it has none (yet) */
+private Unit[] args; // for compact clones, the caller's args (one per param word), which stand for the params
 private MethodInvoke methodInvoke; // method invoke point for this clone (null for MMS)
+private Map<Unit,Unit> cloneMap; // only set in clones read from units files written before slots, see upgrade()
 private int nUpdates = 0; // # of times update has been called on this clone
+private transient int syncedVersion; // master's clustersVersion this clone was last brought up to date with, 0 if never
 
 private List<MultUnit> multUnits; /** mult units in this method */
 
@@ -84,7 +128,11 @@ public MethodSummary (MethodUnits mu, MethodParamUnit[] params, ReturnValueUnit
 	if (params == null && retVal == null)
 		isClone = true;
 	if (!isClone)
+	{
 		clones = new ArrayList<MethodSummary>();
+		slots = new ArrayList<Unit>();
+		slotNum = new HashMap<Unit,Integer>();
+	}
 
 	multUnits = new ArrayList<MultUnit>();
 }
@@ -99,8 +147,77 @@ public void addMultUnit (MultUnit mu)
 	multUnits.add(mu);
 }
 
+/** converts a master summary read from a units file written before slots, and its clones */
+private void upgrade()
+{
+	if (slots == null)
+	{
+		slots = new ArrayList<Unit>();
+		slotNum = new HashMap<Unit,Integer>();
+	}
+	for (MethodSummary clone : clones)
+	{
+		if (clone.slotUnits != null)
+			continue;
+		clone.slotUnits = new Unit[0];
+		for (Map.Entry<Unit,Unit> me : clone.cloneMap.entrySet())
+			clone.setSlotUnit(slotOf(me.getKey()), me.getValue());
+		clone.cloneMap = null;
+	}
+}
+
+/** returns the slot # of u in this master, giving it a new slot if it doesn't have one */
+private int slotOf(Unit u)
+{
+	Integer s = slotNum.get(u);
+	if (s == null)
+	{
+		s = slots.size();
+		slots.add(u);
+		slotNum.put(u, s);
+	}
+	return s;
+}
+
+/** gives slots to the units clones have their own version of: params, retval and their length units */
+private void assignSlots()
+{
+	for (MethodParamUnit p : params)
+		assignSlots(p);
+	assignSlots(retVal);
+}
+
+private void assignSlots(Unit u)
+{
+	if (u == null)
+		return;
+	slotOf(u);
+	if (u.hasLengthUnit())
+		slotOf(u.getLengthUnit());
+}
+
+/** returns this clone's version of slot s, null if none */
+private Unit slotUnit(int s)
+{
+	return (s < slotUnits.length) ? slotUnits[s] : null;
+}
+
+/** returns this clone's version of master unit u, null if none */
+private Unit cloneOf(Unit u)
+{
+	Integer s = methodUnits.getMethodSummary().slotNum.get(u);
+	return (s == null) ? null : slotUnit(s);
+}
+
+private void setSlotUnit(int s, Unit u)
+{
+	if (s >= slotUnits.length)
+		slotUnits = Arrays.copyOf(slotUnits, Math.max(s+1, 2*slotUnits.length));
+	slotUnits[s] = u;
+}
+
 /** clone a unit including its depending units like arrayOf, elementOf and lengthUnit (but not including mult units)
- * the new units are updated in cloneMap.
+ * the new units are put in the clone's slots.
  * this must be a clone summary, u must belong to the master summary.
  * returns true or false depending on whether a new unit was created */
 private boolean cloneUnit(Unit u, int cloneNum, boolean registerUnit)
@@ -111,16 +228,18 @@ private boolean cloneUnit(Unit u, int cloneNum, boolean registerUnit)
 	if (u == null)
 		return unitCreated;
 
-	Unit uClone = cloneMap.get(u);
+	int s = methodUnits.getMethodSummary().slotOf(u);
+	Unit uClone = slotUnit(s);
 	if (uClone == null)
 	{
 		if (u.isGolden())
 		{
-			cloneMap.put(u, u);
+			setSlotUnit(s, u);
 			return false;
 		}
 
 		unitCreated = true;
+		nCloneUnits++;
 		uClone = (Unit) u.clone();
 		uClone.reset(); // reset UFO information
 
@@ -132,8 +251,7 @@ private boolean cloneUnit(Unit u, int cloneNum, boolean registerUnit)
 
 		if (registerUnit)
 			Unit.registerUnit(uClone);
-		cloneMap.put(u, uClone);
-		Util.ASSERT (cloneMap.get(u) == uClone);
+		setSlotUnit(s, uClone);
 	}
 
 	// does the clone need an associated lenght unit ? create it if so
@@ -144,7 +262,7 @@ private boolean cloneUnit(Unit u, int cloneNum, boolean registerUnit)
 		Unit uLength = u.getLengthUnit();
 		boolean unitCreatedForLength = cloneUnit(uLength, cloneNum, false); // don't register, we need to set up lengthof etc for correct hashcode
 		unitCreated |= unitCreatedForLength;
-		ArrayLengthUnit uLengthClone = (ArrayLengthUnit) cloneMap.get(uLength);
+		ArrayLengthUnit uLengthClone = (ArrayLengthUnit) cloneOf(uLength);
 		uClone.setLengthUnit(uLengthClone);
 		// register it only if unit has been newly created
 		// register it only after the object has been completely constructed, otherwise the hashcode changes
@@ -156,7 +274,7 @@ private boolean cloneUnit(Unit u, int cloneNum, boolean registerUnit)
 	if (uElementOf != null)
 	{
 		unitCreated |= cloneUnit(uElementOf, cloneNum, false);
-		Unit uElementOfClone = cloneMap.get(uElementOf);
+		Unit uElementOfClone = cloneOf(uElementOf);
 		uClone.setElementOf(uElementOfClone);
 		Unit.registerUnit(uElementOfClone);
 	}
@@ -164,7 +282,7 @@ private boolean cloneUnit(Unit u, int cloneNum, boolean registerUnit)
 	{
 		Unit uArrayOf = u.getArrayOf();
 		unitCreated |= this.cloneUnit(uArrayOf, cloneNum, false);
-		Unit uArrayOfClone = cloneMap.get(uArrayOf);
+		Unit uArrayOfClone = cloneOf(uArrayOf);
 		uClone.setArrayOf(uArrayOfClone);
 		Unit.registerUnit(uArrayOfClone);
 	}
@@ -172,36 +290,115 @@ private boolean cloneUnit(Unit u, int cloneNum, boolean registerUnit)
 	return unitCreated;
 }
 
-/** generates a clone of this method summary. called only once for each clone. */
-public MethodSummary cloneSummary(MethodInvoke mi)
+/** for compact clones: puts arg in the slot of master param u, and the arg's length unit in the slot
+ * of u's length unit. a golden param keeps its own slot and is unified with the arg instead.
+ * returns whether a slot was filled */
+private boolean bindArg(Unit u, Unit arg)
+{
+	if (u == null || arg == null)
+		return false;
+
+	boolean bound = false;
+	MethodSummary master = methodUnits.getMethodSummary();
+	int s = master.slotOf(u);
+	Unit uClone = slotUnit(s);
+	if (uClone == null)
+	{
+		bound = true;
+		nArgSlots++;
+		if (u.isGolden())
+		{
+			setSlotUnit(s, u);
+			u.unify(arg, methodInvoke.getBcp());
+			return bound;
+		}
+		setSlotUnit(s, arg);
+	}
+	else if (uClone != arg)
+	{
+		// the 2 words of a long or double param
+		if (uClone.find() != arg.find())
+			uClone.unify(arg, methodInvoke.getBcp());
+		return bound;
+	}
+
+	if (u.hasLengthUnit() && !(arg.getType() instanceof BasicType))
+	{
+		int sLength = master.slotOf(u.getLengthUnit());
+		if (slotUnit(sLength) == null)
+		{
+			bound = true;
+			setSlotUnit(sLength, arg.getLengthUnit());
+		}
+	}
+	return bound;
+}
+
+/** for compact clones: args seen at a later visit of the call site */
+public void addArgs(Unit[] moreArgs)
+{
+	Util.ASSERT (isClone && args != null && moreArgs.length == args.length);
+	MethodSummary masterSummary = methodUnits.getMethodSummary();
+	for (int i = 0; i < moreArgs.length; i++)
+	{
+		if (args[i] == null)
+			args[i] = moreArgs[i];
+		bindArg(masterSummary.params[i], moreArgs[i]);
+	}
+}
+
+/** generates a clone of this method summary. called only once for each clone.
+ * args are the caller's args for a compact clone, null otherwise. */
+public MethodSummary cloneSummary(MethodInvoke mi, Unit[] args)
 {
 	Util.ASSERT (!this.isClone); // only master method summaries can be cloned.
+	Util.ASSERT ((args != null) == COMPACT);
+	upgrade();
 
 	int cloneNum = clones.size();
 	MethodSummary newSummary = new MethodSummary(this.methodUnits, null, null);
-	newSummary.cloneMap = new LinkedHashMap<Unit, Unit>();
+	newSummary.slotUnits = new Unit[slots.size()];
 	newSummary.methodInvoke = mi;
-	// allocate new method param unit and return value units into newSummary
-	newSummary.params = new MethodParamUnit[this.params.length];
+	newSummary.args = args;
 
 	// setup params/retval for newSummary
 	newSummary.createCloneUnitsIfNeeded(cloneNum);
-	for (int i = 0; i < params.length; i++)
-		newSummary.params[i] = (MethodParamUnit) newSummary.cloneMap.get(params[i]);
+	if (!COMPACT)
+	{
+		// allocate new method param unit and return value units into newSummary
+		newSummary.params = new MethodParamUnit[this.params.length];
+		for (int i = 0; i < params.length; i++)
+			newSummary.params[i] = (MethodParamUnit) newSummary.cloneOf(params[i]);
+	}
 
-	newSummary.retVal = (ReturnValueUnit) newSummary.cloneMap.get(retVal);
+	newSummary.retVal = (ReturnValueUnit) newSummary.cloneOf(retVal);
 	this.clones.add(newSummary);
 	Util.ASSERT(this.clones.size() == (cloneNum+1));
+	nClones++;
 
 	newSummary.multUnits = new ArrayList<MultUnit>();
 
 	// set up unification between newSummary units
-	discoverAllUnits();
-	computeClusters();
+	ensureClusters();
 	this.updateClone(newSummary, cloneNum);
 	return newSummary;
 }
 
+public MethodSummary cloneSummary(MethodInvoke mi)
+{
+	return cloneSummary(mi, null);
+}
+
+/** whether another call site may get its own clone of this master summary (see MAX_CLONES) */
+public boolean hasRoomForClone()
+{
+	Util.ASSERT (!this.isClone);
+	return MAX_CLONES <= 0 || clones.size() < MAX_CLONES;
+}
+
+public static int nClones() { return nClones; }
+public static int nCloneUnits() { return nCloneUnits; }
+
 private Set<Unit> repsOfCloneMapUnits;
 
 /** sets up repsOfCloneMapUnits to contain reps of all the units that have been cloned */
@@ -212,8 +409,20 @@ private void computeRepsOfCloneMapUnits()
 	else
 		repsOfCloneMapUnits.clear();
 
-	for (Unit u : cloneMap.keySet())
-		repsOfCloneMapUnits.add((Unit) u.find());
+	List<Unit> masterSlots = methodUnits.getMethodSummary().slots;
+	for (int s = 0; s < slotUnits.length && s < masterSlots.size(); s++)
+		if (slotUnits[s] != null)
+			repsOfCloneMapUnits.add((Unit) masterSlots.get(s).find());
+}
+
+/** returns this clone's version of some master unit with the given rep, null if none */
+private Unit cloneWithRep(Unit rep)
+{
+	List<Unit> masterSlots = methodUnits.getMethodSummary().slots;
+	for (int s = 0; s < slotUnits.length && s < masterSlots.size(); s++)
+		if (slotUnits[s] != null && masterSlots.get(s).find().equals(rep))
+			return slotUnits[s];
+	return null;
 }
 
 /** method to clone the given mult unit.
@@ -230,7 +439,7 @@ private boolean cloneMultUnitIfNeeded (MultUnit mu)
 
 	// should clone if at least one of a and b is in some equivalence class with some unit
 	// that has already been cloned.
-	// XXX: may need to iterate here till fixed point because we're adding to cloneMap inside this loop
+	// XXX: may need to iterate here till fixed point because we're adding to the slots inside this loop
 	// e.g. if we have an expression: field1 * (field2 * p)
 	// and p is a parameter that is cloned.
 	// if we process the outer mult first, we find we don't need to clone it
@@ -244,38 +453,20 @@ private boolean cloneMultUnitIfNeeded (MultUnit mu)
 	{
 		// figure out who will represent a in the new mult unit
 		Unit aClone = a;
-		boolean found = false;
 		if (repsOfCloneMapUnits.contains(aRep))
 		{
 			// there must be a u whose rep is the same as a's rep
-			for (Unit u : cloneMap.keySet())
-			{
-				if (u.find().equals(aRep))
-				{
-					aClone = cloneMap.get(u);
-					found = true;
-					break;
-				}
-			}
-			Util.ASSERT (found);
+			aClone = cloneWithRep(aRep);
+			Util.ASSERT (aClone != null);
 		}
 		Util.ASSERT (aClone != null);
 
 		// same thing for b
-		found = false;
 		Unit bClone = b;
 		if (repsOfCloneMapUnits.contains(bRep))
 		{
-			for (Unit u : cloneMap.keySet())
-			{
-				if (u.find().equals(bRep))
-				{
-					bClone = cloneMap.get(u);
-					found = true;
-					break;
-				}
-			}
-			Util.ASSERT (found);
+			bClone = cloneWithRep(bRep);
+			Util.ASSERT (bClone != null);
 		}
 		Util.ASSERT (bClone != null);
 
@@ -283,9 +474,9 @@ private boolean cloneMultUnitIfNeeded (MultUnit mu)
 		Util.ASSERT (a != aClone || b != bClone);
 
 		Fraction coeff = mu.get_coeff();
-		MultUnit clone = new MultUnit (aClone, bClone, new Fraction(coeff.get_numerator(), coeff.get_denominator()));
+		MultUnit clone = new MultUnit (aClone, bClone, coeff);
         Unit.registerUnit(clone);
-		cloneMap.put(mu, clone);
+		setSlotUnit(methodUnits.getMethodSummary().slotOf(mu), clone);
 		repsOfCloneMapUnits.add((Unit) mu.find()); // update repsOfCloneMap
 		// add the cloned mult unit to the caller's summary
 		methodInvoke.getCallerMethodUnits().getMethodSummary().addMultUnit(clone);
@@ -294,9 +485,9 @@ private boolean cloneMultUnitIfNeeded (MultUnit mu)
 	return false;
 }
 
-/** for this clone, create clone units of all params and retval (and dependents) of master summary
- * cloneMap is updated accordingly.
- * returns whether a new unit was created */
+/** for this clone, create clone units of all params and retval (and dependents) of master summary,
+ * or for a compact clone, bind the params to the args.
+ * returns whether a new unit was created (or a slot filled) */
 public boolean createCloneUnitsIfNeeded(int cloneNum)
 {
 	Util.ASSERT (this.isClone);
@@ -304,8 +495,13 @@ public boolean createCloneUnitsIfNeeded(int cloneNum)
 	boolean unitCreated = false;
 	MethodSummary masterSummary = methodUnits.getMethodSummary();
 
-	for (int i = 0; i < params.length; i++)
-		unitCreated |= cloneUnit(masterSummary.params[i], cloneNum, true);
+	for (int i = 0; i < masterSummary.params.length; i++)
+	{
+		if (args != null)
+			unitCreated |= bindArg(masterSummary.params[i], args[i]);
+		else
+			unitCreated |= cloneUnit(masterSummary.params[i], cloneNum, true);
+	}
 
 	unitCreated |= cloneUnit(masterSummary.retVal, cloneNum, true);
 
@@ -322,13 +518,12 @@ public boolean createCloneUnitsIfNeeded(int cloneNum)
 	// we use U in the cloned mult unit.
 	// if we do clone the mult unit, we need to add it to the set of mult units in the calling method's summary
 
-	computeRepsOfCloneMapUnits();
-
 	for (MultUnit mu: masterSummary.multUnits)
 	{
-		if (cloneMap.get(mu) != null)
+		if (cloneOf(mu) != null)
 			continue;
 
+	//	computeRepsOfCloneMapUnits(); // once, before the loop
 	//	cloneMultUnitIfNeeded (mu);
 	}
 
@@ -336,7 +531,7 @@ public boolean createCloneUnitsIfNeeded(int cloneNum)
 }
 
 /** adds u and its dependent units to allUnits */
-private void addUnit(Unit u)
+private void addUnit(Set<Unit> allUnits, Unit u)
 {
 	if (u == null)
 		return;
@@ -345,36 +540,73 @@ private void addUnit(Unit u)
 
 	allUnits.add(u);
 	if (u.hasLengthUnit())
-		addUnit(u.getLengthUnit());
+		addUnit(allUnits, u.getLengthUnit());
 	Unit uElementOf = u.getElementOf();
 	if (uElementOf != null)
-		addUnit(uElementOf);
+		addUnit(allUnits, uElementOf);
 	if (u.hasArrayOf())
-		addUnit(u.getArrayOf());
+		addUnit(allUnits, u.getArrayOf());
 }
 
-/** computes all units reachable from params/retval and puts them into allUnits. */
-private void discoverAllUnits()
+/** returns all units reachable from params/retval. does not literally include all units in the summary */
+private Set<Unit> discoverAllUnits()
 {
-	if (allUnits == null)
-		allUnits = new LinkedHashSet<Unit>();
-	else
-		allUnits.clear(); // do we really need to clear ?
-
+	Set<Unit> allUnits = new LinkedHashSet<Unit>();
 	for (int i = 0; i < params.length; i++)
-		addUnit(this.params[i]);
-	addUnit(this.retVal);
+		addUnit(allUnits, this.params[i]);
+	addUnit(allUnits, this.retVal);
 	allUnits.addAll(multUnits);
+	return allUnits;
 }
 
-/* computes repToUnitsMap for this summary */
-private void computeClusters()
+/** brings the clusters up to date. the last snapshot is kept if no dependent unit
+ * or mult unit has been added since, and each of its reps is still the root of its class with
+ * the same connectedToSingleUnit, i.e. no cluster has merged with another one. */
+private void ensureClusters()
 {
-	if (repToUnitsMap == null)
-		repToUnitsMap = new LinkedHashMap<Unit, List<Unit>>();
-	else
-		repToUnitsMap.clear();
+	Util.ASSERT (!isClone);
+	int uf = UnionFindObject.modification_count();
+	if (clustersValid && dependentsVersion == Unit.getDependentsVersion() && nMultUnitsSeen == multUnits.size()
+		&& (ufVersion == uf || repsUnchanged()))
+	{
+		ufVersion = uf;
+		nSnapshotsReused++;
+		// cluster nums live in the units, which may be shared with other summaries (fields, allocs),
+		// so set them again as computeClusters would
+		for (int c = 0; c < clusterReps.length; c++)
+		{
+			clusterReps[c].clusterNum = c;
+			for (int i = clusterStart[c]; i < clusterStart[c+1]; i++)
+				clusterUnits[i].clusterNum = c;
+		}
+		return;
+	}
 
+	nSnapshotsRecomputed++;
+	assignSlots();
+	computeClusters(discoverAllUnits());
+	clustersValid = true;
+	ufVersion = uf;
+	dependentsVersion = Unit.getDependentsVersion();
+	nMultUnitsSeen = multUnits.size();
+}
+
+/** whether the reps of the last snapshot still represent the same clusters */
+private boolean repsUnchanged()
+{
+	for (int i = 0; i < clusterReps.length; i++)
+	{
+		Unit rep = clusterReps[i];
+		if (rep.find() != rep || rep.connectedToSingleUnit != clusterSingle[i])
+			return false;
+	}
+	return true;
+}
+
+/* computes the clusters of allUnits for this summary, and which clusters differ from the previous snapshot */
+private void computeClusters(Set<Unit> allUnits)
+{
+	Map<Unit,List<Unit>> repToUnitsMap = new LinkedHashMap<Unit, List<Unit>>();
 	int nextClusterNum = 0;
 	for (Unit u : allUnits)
 	{
@@ -390,28 +622,82 @@ private void computeClusters()
 		list.add (u);
 	}
 
-	// assign cluster num to all units
+	// a cluster is unchanged if the previous snapshot had the same rep with the same units
+	Map<Unit,Integer> oldClusterIdx = new HashMap<Unit,Integer>();
+	if (clusterReps != null)
+		for (int c = 0; c < clusterReps.length; c++)
+			oldClusterIdx.put(clusterReps[c], c);
+
+	clustersVersion++;
+	int n = repToUnitsMap.size();
+	Unit[] newClusterUnits = new Unit[allUnits.size()];
+	int[] newMemberSlot = new int[allUnits.size()], newClusterStart = new int[n+1];
+	Unit[] newReps = new Unit[n];
+	boolean[] newSingle = new boolean[n];
+	int[] newChangedAt = new int[n];
+	int c = 0, i = 0;
 	for (Map.Entry<Unit,List<Unit>> me : repToUnitsMap.entrySet())
 	{
 		Unit rep = me.getKey();
-		List<Unit> list = me.getValue();
-		for (Unit u : list)
+		newReps[c] = rep;
+		newSingle[c] = rep.connectedToSingleUnit;
+		newClusterStart[c] = i;
+		for (Unit u : me.getValue())
+		{
+			// assign cluster num to all units
 			u.clusterNum = rep.clusterNum;
+			newClusterUnits[i] = u;
+			Integer s = slotNum.get(u);
+			if ((u instanceof FieldUnit) || (u instanceof AllocUnit && !ALLOCS_NOT_SHARED))
+				newMemberSlot[i] = SHARED; // there is a single unit across the master method summary and all clones
+			else if (u instanceof AllocUnit)
+				newMemberSlot[i] = NONE; // not shared, so clones do not get this alloc
+			else
+				newMemberSlot[i] = (s == null) ? NONE : s;
+			i++;
+		}
+
+		Integer old = oldClusterIdx.get(rep);
+		boolean same = (old != null) && clusterSingle[old] == rep.connectedToSingleUnit
+					   && sameMembers(old, newClusterUnits, newClusterStart[c], i);
+		newChangedAt[c] = same ? clusterChangedAt[old] : clustersVersion;
+		c++;
 	}
+	newClusterStart[n] = i;
+
+	clusterUnits = newClusterUnits;
+	memberSlot = newMemberSlot;
+	clusterStart = newClusterStart;
+	clusterReps = newReps;
+	clusterSingle = newSingle;
+	clusterChangedAt = newChangedAt;
 }
 
-/** returns the version of u in the clone. for fields and alloc units,
- * there is a single unit across the master method summary and all clones.
- * for other types of units, looks up the clone map
- */
-private Unit getEquivUnitInClone(MethodSummary clone, Unit u)
+/** whether old cluster c of the current snapshot has exactly the units units[from..to-1] */
+private boolean sameMembers(int c, Unit[] units, int from, int to)
+{
+	if (clusterStart[c+1] - clusterStart[c] != to - from)
+		return false;
+	for (int i = clusterStart[c], j = from; j < to; i++, j++)
+		if (!clusterUnits[i].equals(units[j]))
+			return false;
+	return true;
+}
+
+/** whether this summary's clones need to be updated again because of unifications done outside its own updates,
+ * e.g. in another method, through a field or alloc unit in the same class as some of this summary's units.
+ * that is the case if a cluster of the last snapshot has merged with another one, or mult units were added. */
+public boolean clustersChanged()
 {
-	if ((u instanceof FieldUnit) || (u instanceof AllocUnit))
-		return u;
-	return clone.cloneMap.get(u);
+	Util.ASSERT (!isClone);
+	if (!clustersValid || clones.isEmpty())
+		return false;
+	return nMultUnitsSeen != multUnits.size() || !repsUnchanged();
 }
 
-/** updates clone mClone based on this (which must be a master). */
+/** updates clone mClone based on this (which must be a master).
+ * unless new units were created in mClone, only the clusters that changed since mClone was last updated
+ * are looked at, since unifications done for the others still hold. */
 private boolean updateClone(MethodSummary mClone, int cloneNum)
 {
 	Util.ASSERT (!this.isClone);
@@ -419,18 +705,28 @@ private boolean updateClone(MethodSummary mClone, int cloneNum)
 	boolean change = false;
 
 	// check if any new units have to be created in this clone
-	change |= mClone.createCloneUnitsIfNeeded(cloneNum);
+	boolean unitsCreated = mClone.createCloneUnitsIfNeeded(cloneNum);
+	change |= unitsCreated;
+	if (!unitsCreated && mClone.syncedVersion == clustersVersion)
+		nClonesInSync++;
+	boolean all = unitsCreated || mClone.syncedVersion == 0;
 
-	// now for each cluster in the master method summary,
+	// now for each cluster in the master method summary that has changed,
 	// unifi units in the same cluster in mClone
-	for (Unit rep : this.repToUnitsMap.keySet())
+	for (int c = 0; c < clusterReps.length; c++)
 	{
-		boolean connectedToSingleUnit = rep.connectedToSingleUnit;
+		if (!all && clusterChangedAt[c] <= mClone.syncedVersion)
+			continue;
+		boolean connectedToSingleUnit = clusterReps[c].connectedToSingleUnit;
 
 		Unit repClone = null; // repClone will be the first equiv unit we see in the clone
-		for (Unit u : this.repToUnitsMap.get(rep))
+		for (int i = clusterStart[c]; i < clusterStart[c+1]; i++)
 		{
-			Unit uClone = getEquivUnitInClone(mClone, u);
+			int s = memberSlot[i];
+			if (s == NONE)
+				continue;
+			Unit u = clusterUnits[i];
+			Unit uClone = (s == SHARED) ? u : mClone.slotUnit(s);
 			if (uClone == null)
 				continue;
 
@@ -466,6 +762,7 @@ private boolean updateClone(MethodSummary mClone, int cloneNum)
 			}
 		}
 	}
+	mClone.syncedVersion = clustersVersion;
 	return change;
 }
 
@@ -474,9 +771,9 @@ private boolean updateClone(MethodSummary mClone, int cloneNum)
 public void updateClones()
 {
 	Util.ASSERT(!isClone); // should not call update clones on a clone, only on master summaries
+	upgrade();
 	verify();
-	discoverAllUnits();
-	computeClusters();
+	ensureClusters();
 	if (logger.isLoggable(Level.FINE))
 		logger.fine ("Updating " + this.clones.size() + " clones for " + this);
 
@@ -484,34 +781,121 @@ public void updateClones()
 	{
 		MethodSummary mClone = clones.get(i);
 		boolean change = updateClone(mClone, i);
-
 		if (change)
-		{
-			if (logger.isLoggable(Level.FINE))
-				logger.fine ("Worklist: changed summary for clone " + i + " " + mClone + " [caller in method " + mClone.methodInvoke.getCallerMethodUnits() + "]");
+			cloneChanged(i);
+	}
+}
+
+private void cloneChanged(int i)
+{
+	MethodSummary mClone = clones.get(i);
+	if (logger.isLoggable(Level.FINE))
+		logger.fine ("Worklist: changed summary for clone " + i + " " + mClone + " [caller in method " + mClone.methodInvoke.getCallerMethodUnits() + "]");
 
-			MethodUnits callerMU = mClone.methodInvoke.getCallerMethodUnits();
-			ContextSensitiveAnalysis.addToWorklist(callerMU);
+	MethodUnits callerMU = mClone.methodInvoke.getCallerMethodUnits();
+	ContextSensitiveAnalysis.addToWorklist(callerMU);
+}
+
+public static void printStats(PrintStream out)
+{
+	out.println ("Total cluster snapshots: " + nSnapshotsRecomputed + " computed, " + nSnapshotsReused + " reused");
+	out.println ("Total clone updates with no changed clusters: " + nClonesInSync);
+	out.println ("Total clone units: " + nCloneUnits + (COMPACT ? (", param slots bound to args: " + nArgSlots) : ""));
+}
+
+/** the persistent state of a summary, as stored in a units file (see unifi.UnitsFile).
+ * like UnitRecord, references are kept as objects here and the file format maps them to indices.
+ * create() makes an empty summary, link() fills it in once all the summaries and units it refers to exist. */
+public static class Record {
+	public MethodUnits methodUnits;
+	public boolean isClone;
+	public boolean paramsOfMethodUnits; // params is the method units' own param array, as for master summaries
+	public MethodParamUnit[] params;
+	public ReturnValueUnit retVal;
+	public List<MethodSummary> clones;
+	public List<Unit> slots;
+	public Unit[] slotUnits, args;
+	public MethodInvoke methodInvoke;
+	public Map<Unit,Unit> cloneMap;
+	public int nUpdates;
+	public List<MultUnit> multUnits;
+	public Set<Unit> repsOfCloneMapUnits;
+
+	public void load(MethodSummary ms)
+	{
+		methodUnits = ms.methodUnits;
+		isClone = ms.isClone;
+		paramsOfMethodUnits = ms.params != null && methodUnits != null && ms.params == methodUnits.get_param_units();
+		params = ms.params;
+		retVal = ms.retVal;
+		clones = ms.clones;
+		slots = ms.slots;
+		slotUnits = ms.slotUnits;
+		args = ms.args;
+		methodInvoke = ms.methodInvoke;
+		cloneMap = ms.cloneMap;
+		nUpdates = ms.nUpdates;
+		multUnits = ms.multUnits;
+		repsOfCloneMapUnits = ms.repsOfCloneMapUnits;
+	}
+
+	public MethodSummary create()
+	{
+		return new MethodSummary();
+	}
+
+	/** sets ms's state from this record. the units must already be linked, since slots are hashed */
+	public void link(MethodSummary ms)
+	{
+		ms.methodUnits = methodUnits;
+		ms.isClone = isClone;
+		ms.params = paramsOfMethodUnits ? methodUnits.get_param_units() : params;
+		ms.retVal = retVal;
+		ms.clones = clones;
+		ms.slots = slots;
+		if (slots != null)
+		{
+			ms.slotNum = new HashMap<Unit,Integer>();
+			for (int s = 0; s < slots.size(); s++)
+				ms.slotNum.put(slots.get(s), s);
 		}
+		ms.slotUnits = slotUnits;
+		ms.args = args;
+		ms.methodInvoke = methodInvoke;
+		ms.cloneMap = cloneMap;
+		ms.nUpdates = nUpdates;
+		ms.multUnits = multUnits;
+		ms.repsOfCloneMapUnits = repsOfCloneMapUnits;
 	}
 }
 
+// for Record.create()
+private MethodSummary() { }
+
 public String toString()
 {
 	StringBuilder sb = new StringBuilder();
+	if (isClone)
+	{
+		int nSlots = 0;
+		for (Unit u : slotUnits)
+			if (u != null)
+				nSlots++;
+		sb.append ("Method summary clone for " + methodUnits + " at " + methodInvoke.getBcp() + ": " + nSlots + " slots " + nUpdates + " updates\n");
+		return sb.toString();
+	}
+
 	sb.append ("Method summary for " + methodUnits + "\n");
-	discoverAllUnits();
-	computeClusters();
-	sb.append (allUnits.size() + " units " + repToUnitsMap.size() + " reps " + nUpdates + " updates\n");
-	int clusterNum = 0;
-	for (Unit rep : this.repToUnitsMap.keySet())
+	ensureClusters();
+	sb.append (clusterUnits.length + " units " + clusterReps.length + " reps " + slots.size() + " slots " + nUpdates + " updates\n");
+	for (int c = 0; c < clusterReps.length; c++)
 	{
-		sb.append ("\nCluster " + (++clusterNum) + ":\n");
+		sb.append ("\nCluster " + (c+1) + ":\n");
 		int unitNum = 0;
-		for (Unit u : this.repToUnitsMap.get(rep))
+		for (int i = clusterStart[c]; i < clusterStart[c+1]; i++)
 		{
 			++unitNum;
-			sb.append (clusterNum + "." + unitNum + ": " + u + "\n");
+			sb.append ((c+1) + "." + unitNum + ": " + clusterUnits[i] + "\n");
 		}
 	}
 	return sb.toString();
@@ -519,7 +903,7 @@ public String toString()
 
 public void verify()
 {
-	Util.ASSERT (isClone == (cloneMap != null)); // clones must have a map, master's must not
+	Util.ASSERT (isClone == (slotUnits != null)); // clones must have slots, master's must not
 	Util.ASSERT (isClone == (methodInvoke != null)); // clones must have a invoke, master's must not
 
 	if (clones != null)
@@ -24,6 +24,8 @@ import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.PriorityQueue;
 import java.util.Stack;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -83,6 +85,9 @@ abstract public class DF_algorithm
     protected MethodGen _current_mg;
     protected ConstantPoolGen _current_cpgen;
 
+    // iteration counts for the last method analyzed
+    private int _n_bb_visits, _n_transfers;
+
     /* MUST be called, after _bb_collection is set up */
     protected abstract void init_for_method ();
 
@@ -687,60 +692,166 @@ abstract public class DF_algorithm
             s_in.transfer (bb);
         }
 
-        // now loop till fixed point
-        boolean fixed_point = true;
-        do
-        {
-            fixed_point = true;
-            for (Iterator itr = _bb_collection.iterator (); itr.hasNext (); )
-            {
-                // meet this bb's in state with all it's pred's out states
+        iterate_to_fixed_point ();
 
-                BasicBlock bb = (BasicBlock) itr.next ();
+        if (_logger.isLoggable(Level.FINE))
+            _logger.fine ("Fixed point for " + _current_mg.getClassName() + "." + _current_mg.getName() + _current_mg.getSignature()
+                          + ": " + _bb_collection.size() + " bbs, " + _n_bb_visits + " bb visits, " + _n_transfers + " transfers");
 
-//                System.out.println (" Processing " + bb);
+        return get_answer ();
+    }
 
-                // we DONT' want processing for start bb
-                // otherwise it destroys START's out state
-                // which should not be touched.
-                if (bb.is_start_bb ())
-                {
-                    continue;
-                }
+    public int get_n_bb_visits () { return _n_bb_visits; }
+    public int get_n_transfers () { return _n_transfers; }
 
-                DF_state s_in = bb.get_in_state ();
-                DF_state old_s_in = s_in.create_copy ();
-                if (s_in instanceof unifi_state)
+    /** returns all bbs in reverse postorder of a dfs from the start bb.
+     * bbs not reachable from the start bb (if any) follow, in collection order. */
+    private List<BasicBlock> reverse_postorder ()
+    {
+        BasicBlock start_bb = null;
+        for (BasicBlock bb : _bb_collection)
+            if (bb.is_start_bb ())
+                start_bb = bb;
+        Util.ASSERT (start_bb != null);
+
+        // iterative dfs, big methods can have very deep cfgs
+        List<BasicBlock> postorder = new ArrayList<BasicBlock> ();
+        Set<BasicBlock> visited = new LinkedHashSet<BasicBlock> ();
+        Stack<BasicBlock> bb_stack = new Stack<BasicBlock> ();
+        Stack<Iterator<?>> succ_it_stack = new Stack<Iterator<?>> ();
+        visited.add (start_bb);
+        bb_stack.push (start_bb);
+        succ_it_stack.push (start_bb.get_succ_iterator ());
+        while (!bb_stack.isEmpty ())
+        {
+            Iterator<?> succ_it = succ_it_stack.peek ();
+            if (succ_it.hasNext ())
+            {
+                BasicBlock succ = (BasicBlock) succ_it.next ();
+                if (visited.add (succ))
                 {
-                    Util.ASSERT ( ( (unifi_state) s_in)._stack.size () ==
-                                 ( (unifi_state) old_s_in)._stack.size ());
+                    bb_stack.push (succ);
+                    succ_it_stack.push (succ.get_succ_iterator ());
                 }
-                s_in.clear ();
+            }
+            else
+            {
+                postorder.add (bb_stack.pop ());
+                succ_it_stack.pop ();
+            }
+        }
+
+        List<BasicBlock> result = new ArrayList<BasicBlock> (_bb_collection.size ());
+        for (int i = postorder.size () - 1; i >= 0; i--)
+            result.add (postorder.get (i));
+        for (BasicBlock bb : _bb_collection)
+            if (!visited.contains (bb))
+                result.add (bb);
+        return result;
+    }
 
-                for (Iterator pred_itr = bb.get_pred_iterator ();
-                     pred_itr.hasNext (); )
+    /** returns the bbs whose in state (via the meet) depends on bb's out state.
+     * these are bb's succs, but a change in the out state of a bb ending in a jsr
+     * also affects the bbs following all jsrs to the same target (see RD_state.meet). */
+    private Collection<BasicBlock> dependents (BasicBlock bb)
+    {
+        Collection<BasicBlock> result = new LinkedHashSet<BasicBlock> ();
+        for (Iterator<?> it = bb.get_succ_iterator (); it.hasNext (); )
+        {
+            BasicBlock succ = (BasicBlock) it.next ();
+            result.add (succ);
+            if (bb.get_following_bb () != null && succ.is_jsr_entry_point ())
+            {
+                for (Iterator<?> it1 = succ.get_incoming_jsr_bbs ().iterator (); it1.hasNext (); )
                 {
-                    BasicBlock next_pred = (BasicBlock) pred_itr.next ();
-                    next_pred.verify ();
-                    s_in.meet (next_pred.get_out_state (), bb, old_s_in);
+                    BasicBlock following = ((BasicBlock) it1.next ()).get_following_bb ();
+                    if (following != null)
+                        result.add (following);
                 }
+            }
+        }
+        return result;
+    }
 
-                boolean change = ! (s_in.equals (old_s_in));
-                if (change)
+    /** worklist iteration till fixed point.
+     * bbs are processed in reverse postorder, and a bb is put back on the worklist
+     * only when the out state of a bb it depends on changes. so the meet (and the
+     * copy of the in state) is skipped for bbs none of whose preds have changed. */
+    private void iterate_to_fixed_point ()
+    {
+        _n_bb_visits = _n_transfers = 0;
+
+        List<BasicBlock> rpo = reverse_postorder ();
+        Map<BasicBlock, Integer> rpo_num = new LinkedHashMap<BasicBlock, Integer> ();
+        for (int i = 0; i < rpo.size (); i++)
+            rpo_num.put (rpo.get (i), i);
+
+        // the worklist holds rpo numbers, so the lowest numbered bb is always processed first
+        PriorityQueue<Integer> worklist = new PriorityQueue<Integer> ();
+        boolean[] on_worklist = new boolean[rpo.size ()];
+
+        // all bbs have been transferred once, so every meet has to be done at least once
+        for (int i = 0; i < rpo.size (); i++)
+        {
+            // we DONT' want processing for start bb
+            // otherwise it destroys START's out state
+            // which should not be touched.
+            if (rpo.get (i).is_start_bb ())
+                continue;
+            worklist.add (i);
+            on_worklist[i] = true;
+        }
+
+        while (!worklist.isEmpty ())
+        {
+            int bb_num = worklist.poll ();
+            on_worklist[bb_num] = false;
+            BasicBlock bb = rpo.get (bb_num);
+            _n_bb_visits++;
+
+            // meet this bb's in state with all it's pred's out states
+            DF_state s_in = bb.get_in_state ();
+            DF_state old_s_in = s_in.create_copy ();
+            if (s_in instanceof unifi_state)
+            {
+                Util.ASSERT ( ( (unifi_state) s_in)._stack.size () ==
+                             ( (unifi_state) old_s_in)._stack.size ());
+            }
+            s_in.clear ();
+
+            for (Iterator pred_itr = bb.get_pred_iterator ();
+                 pred_itr.hasNext (); )
+            {
+                BasicBlock next_pred = (BasicBlock) pred_itr.next ();
+                next_pred.verify ();
+                s_in.meet (next_pred.get_out_state (), bb, old_s_in);
+            }
+
+            boolean change = ! (s_in.equals (old_s_in));
+            if (!change)
+                continue;
+
+            // ensure that hte change is ok (state doesn't decrease when
+            // it's meant to increase etc). this catches infinite loop
+            // type errors in the DF iteration.
+            s_in.verify_against_old_state (old_s_in, bb);
+
+            DF_state old_s_out = bb.get_out_state ().create_copy ();
+            s_in.transfer (bb);
+            _n_transfers++;
+
+            if (bb.get_out_state ().equals (old_s_out))
+                continue;
+
+            for (BasicBlock dep : dependents (bb))
+            {
+                int dep_num = rpo_num.get (dep);
+                if (!on_worklist[dep_num] && !dep.is_start_bb ())
                 {
-                    // ensure that hte change is ok (state doesn't decrease when
-                    // it's meant to increase etc). this catches infinite loop
-                    // type errors in the DF iteration.
-                    //
-                     s_in.verify_against_old_state (old_s_in, bb);
-
-                    fixed_point = false;
-                    s_in.transfer (bb);
+                    worklist.add (dep_num);
+                    on_worklist[dep_num] = true;
                 }
             }
         }
-        while (!fixed_point);
-
-        return get_answer ();
     }
 }
@@ -21,6 +21,7 @@ import java.util.*;
 import org.apache.bcel.generic.*;
 
 import unifi.UnitCollection;
+import unifi.UnitsFile;
 import unifi.solver.*;
 import unifi.units.MethodParamUnit;
 import unifi.units.ReturnValueUnit;
@@ -32,6 +33,9 @@ class Diff {
 private static Set<Unit> uc1_common_units = new LinkedHashSet<Unit>();
 private static Set<Unit> uc2_common_units = new LinkedHashSet<Unit>();
 private static long startTime = System.currentTimeMillis(), endTime;
+// units of uc2 whose formulas changed when it was solved starting from uc1's formulas, as read
+// from its units file before resolve_constraints re-solves it; null if all formulas are compared
+private static Set<Unit> changed_in_uc2;
 
 private static Map<Class, Integer> computeHistogram(Collection c)
 {
@@ -70,15 +74,15 @@ public static void main(String args[]) throws IOException, ClassNotFoundExceptio
     System.out.println ("CLASSPATH is: " + System.getProperty ("java.class.path"));
     System.out.println ("Current directory is: " + System.getProperty ("user.dir"));
 
-    ObjectInputStream oos1 = new ObjectInputStream(new FileInputStream(args[0]));
-    ObjectInputStream oos2 = new ObjectInputStream(new FileInputStream(args[1]));
-
     // unit collections 1 and 2
-    UnitCollection uc1 = (UnitCollection) oos1.readObject ();
-    UnitCollection uc2 = (UnitCollection) oos2.readObject ();
-    
-    oos1.close();
-    oos2.close();
+    UnitCollection uc1 = UnitsFile.read(args[0]).uc;
+    UnitCollection uc2 = UnitsFile.read(args[1]).uc;
+
+    // the second units file was written by a run that read the first one.
+    // copy its changes now, resolve_constraints below solves again and would record its own
+    Set<Unit> changed = uc2.get_mult_constraints().changed_formulas();
+    if (Boolean.getBoolean("unifi.diff.changed.formulas") && changed != null)
+        changed_in_uc2 = new LinkedHashSet<Unit>(changed);
 
     // unification events 1 and 2
     // Collection ue1 = (Collection) oos1.readObject ();
@@ -256,6 +260,12 @@ private static void compare (UnitCollection uc1, UnitCollection uc2, String pref
     }
 }
 
+/** if uc2 was solved starting from the formulas of uc1 (-Dunifi.diff.changed.formulas, when the
+ * second units file was written with -Dunifi.read=<first file>), only the formulas its units file
+ * reports as changed are compared. these are read before resolve_constraints solves again.
+ * a second file written with -gr gains nothing: makeGolden solves the constraints read before the
+ * analysis and then starts a new constraint set, so that run's changes are not relative to the
+ * input file and all formulas are compared. */
 public static List<DiffRecord> compare_formulas(UnitCollection uc1, UnitCollection uc2)
 {
     List<DiffRecord> results = new ArrayList<DiffRecord>();
@@ -265,11 +275,28 @@ public static List<DiffRecord> compare_formulas(UnitCollection uc1, UnitCollecti
     Map<Unit,Constraint> formulas1 = cs1.formulas();
     Map<Unit,Constraint> formulas2 = cs2.formulas();
 
+    // units of uc1 whose formulas may differ, null if all of them
+    Set<Unit> changed = null;
+    if (changed_in_uc2 != null)
+    {
+        // resolve_constraints solved again with another units order, which may move the formulas
+        // of any unit in the same component as a changed one
+        changed = new LinkedHashSet<Unit>();
+        for (Unit u2 : cs2.units_connected_to (changed_in_uc2))
+        {
+            Unit u1 = uc1.get_equiv_unit(u2);
+            if (u1 != null)
+                changed.add (u1);
+        }
+    }
+    if (changed != null)
+        System.out.println ("Comparing " + changed.size() + " changed formulas of " + formulas1.size());
+
     for (Map.Entry<Unit,Constraint> me : formulas1.entrySet())
     {
         Unit u1 = me.getKey();
         Constraint c1 = me.getValue();
-        if (c1 == null)
+        if (c1 == null || (changed != null && !changed.contains(u1)))
             continue;
 
         Unit u2 = uc2.get_equiv_unit(u1);
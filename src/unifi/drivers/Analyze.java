@@ -23,11 +23,16 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarInputStream;
@@ -47,13 +52,19 @@ import org.apache.bcel.generic.ConstantPoolGen;
 import org.apache.bcel.generic.InstructionList;
 import org.apache.bcel.generic.MethodGen;
 
+import unifi.BCPFactory;
+import unifi.EventLog;
+import unifi.MethodInvokeTracker;
 import unifi.MethodUnits;
 import unifi.SavedErrorMessages;
 import unifi.Stats;
 import unifi.UnitCollection;
+import unifi.UnitsFile;
 import unifi.WatchList;
 import unifi.unifi_DF_algorithm;
+import unifi.unifi_state;
 import unifi.contextsensitive.ContextSensitiveAnalysis;
+import unifi.contextsensitive.MethodSummary;
 import unifi.oo.MethodResolver;
 import unifi.rd.LogicalLVMap;
 import unifi.rd.RD_DF_algorithm;
@@ -82,6 +93,24 @@ private static Thread _gui_thread;
 public static NameFilter nameFilter;
 private static Stats STATS = new Stats(); // stats object
 
+// # of worker threads for the per-class local analysis (unifi.threads).
+// unification itself always runs on the main thread, in jar order.
+private static int nThreads = 1;
+// # of classes a worker can run ahead of the main thread, per thread
+private static final int CLASSES_IN_FLIGHT_PER_THREAD = 4;
+
+/** per-class results of the part of the analysis that does not touch any global state:
+ * parsing, MethodGen construction and local var disambiguation (reaching defs).
+ * computed by a worker thread, consumed by analyze_class on the main thread. */
+private static class PreparedClass
+{
+    JavaClass clazz;
+    ConstantPoolGen cpgen;
+    MethodGen[] mgs;
+    LineNumberTable[] lnts;
+    LogicalLVMap[] lv_maps;
+}
+
 public static void Tee (String s)
 {
 //    Out.println (s);
@@ -257,10 +286,21 @@ private static void print_usage_and_exit()
 	System.out.println ("java unifi.drivers.Analyze <options> foo.jar bar.class ClassName\n"
 					  + "options:\n"
 					  + "  -r read units file (also: -Dunifi.read)\n"
-					  + "  -w write units file (also: -Dunifi.write)\n"
+					  + "  -w write units file (also: -Dunifi.write; -Dunifi.units.format=java for the old java serialized format)\n"
 					  + "  -gw write golden units file (also: -Dunifi.golden.write)\n"
 					  + "  -gr read golden units file (also: -Dunifi.golden.read)\n"
 					  + "  -dw write diff w.r.t. golden units (also: -Dunifi.diff.write)\n"
+					  + "  -Dunifi.events=forest keep only events that merge unit classes, count the rest\n"
+					  + "  -Dunifi.events.spill=<file> log all unification events to file (see unifi.EventLog)\n"
+					  + "  -Dunifi.cs.compact=true use the caller's args for the params of method summary clones, no clone param units\n"
+					  + "  -Dunifi.cs.insensitive=true context insensitive analysis, no summary clones per call site\n"
+					  + "  -Dunifi.cs.allocs.not.shared=true do not share objects allocated in a method with its clones\n"
+					  + "  -Dunifi.callgraph.write=<file> write the call graph with call site counts to file (see unifi.MethodInvokeTracker)\n"
+					  + "  -Dunifi.cs.max.clones=N call sites beyond the first N of a method use its context insensitive summary\n"
+					  + "  -Dunifi.solver=sparse|old|check compound constraint solver: sparse matrix (default), one unit at a time, or old checked against sparse\n"
+					  + "  -Dunifi.solver.threads=N solve independent parts of the compound constraints on N threads with the sparse solver\n"
+					  + "  -Dunifi.paranoid=true check the operand stack against the unit collection before every insn, and the old solver's constraints after every elimination (slow)\n"
+					  + "  -t N parse classes and compute their local var maps on N threads; unification stays on one thread (also: -Dunifi.threads)\n"
 					  + "  -c <unifi control file>\n"
 					  + "  -n <unit names file>\n"
 					  + "  -v verbose output\n"
@@ -298,6 +338,8 @@ private static String[] parse_args (String args[])
             	System.setProperty ("unifi.unit.names", args[++argno]);
             else if (args[argno].equals("-v"))
             	System.setProperty ("unifi.verbose", "true"); // actual value doesn't matter
+            else if (args[argno].equals("-t"))
+            	System.setProperty ("unifi.threads", args[++argno]);
             else if (args[argno].equals("-wl"))
             	System.setProperty ("unifi.watchlist", args[++argno]);
             else if (args[argno].equals("-gw"))
@@ -346,6 +388,7 @@ private static void analyze_jar_file (String name) throws IOException
 
     JarFile jf = new JarFile (name);
     Enumeration e = jf.entries();
+    List<JarEntry> class_entries = new ArrayList<JarEntry>();
 
     while (e.hasMoreElements())
     {
@@ -374,20 +417,135 @@ private static void analyze_jar_file (String name) throws IOException
 
         if (je.getName ().endsWith (".class"))
         {
-            analyze_class (get_clazz_from_istream (je.getName(), jf.getInputStream (je)));
+            if (nThreads <= 1)
+                analyze_class (get_clazz_from_istream (je.getName(), jf.getInputStream (je)));
+            else
+                class_entries.add (je);
         }
     }
+
+    if (nThreads > 1)
+        analyze_class_entries_in_parallel (jf, class_entries);
+
     jin.close();
 
     // clear the cache to save memory
     clear_cache();
 }
 
+/**
+ * prepares the classes in the given jar entries on a pool of nThreads workers,
+ * and runs analyze_class on each of them on this thread, in the original order.
+ * since units, events and ids are created only by analyze_class, the result is
+ * identical to a single threaded run.
+ */
+private static void analyze_class_entries_in_parallel (final JarFile jf, List<JarEntry> entries) throws IOException
+{
+    ExecutorService pool = Executors.newFixedThreadPool (nThreads);
+    int window = nThreads * CLASSES_IN_FLIGHT_PER_THREAD;
+    List<Future<PreparedClass>> futures = new ArrayList<Future<PreparedClass>>();
+
+    try {
+        int next_to_submit = 0;
+        for (int i = 0; i < entries.size(); i++)
+        {
+            // keep only a bounded number of prepared classes in memory
+            while (next_to_submit < entries.size() && next_to_submit < i + window)
+            {
+                final JarEntry je = entries.get(next_to_submit++);
+                futures.add (pool.submit (new Callable<PreparedClass>() {
+                    public PreparedClass call() throws IOException {
+                        return prepare_class (get_clazz_from_istream (je.getName(), jf.getInputStream (je)), true);
+                    }
+                }));
+            }
+
+            PreparedClass pc = null;
+            try {
+                pc = futures.get(i).get();
+            } catch (InterruptedException ie) {
+                Util.fatal ("Interrupted while preparing " + entries.get(i).getName(), ie);
+            } catch (ExecutionException ee) {
+                Util.fatal ("Error while preparing " + entries.get(i).getName(), ee);
+            }
+            futures.set (i, null); // release it as soon as it's consumed
+            analyze_class (pc);
+        }
+    } finally {
+        pool.shutdownNow();
+    }
+}
+
+/**
+ * returns the line number table of the given method, or null if it has none
+ */
+private static LineNumberTable get_line_number_table (Method m)
+{
+    LineNumberTable line_num_table = null;
+
+    if (m.getCode () != null)
+    {
+        Attribute[] attribs = m.getCode ().getAttributes ();
+        if (attribs != null)
+        {
+            for (int j = 0; j < attribs.length; j++)
+            {
+                if (attribs[j] instanceof LineNumberTable)
+                {
+                    line_num_table = (LineNumberTable) attribs[j];
+                }
+            }
+        }
+    }
+    return line_num_table;
+}
+
+/**
+ * sets up the MethodGens for all methods of clazz, and if compute_lv_maps is true,
+ * also disambiguates their local vars.
+ * must not touch any global analysis state, since it may be called from worker threads.
+ */
+private static PreparedClass prepare_class (JavaClass clazz, boolean compute_lv_maps)
+{
+    PreparedClass pc = new PreparedClass();
+    pc.clazz = clazz;
+    pc.cpgen = new ConstantPoolGen (clazz.getConstantPool ());
+
+    Method[] methods = clazz.getMethods ();
+    pc.mgs = new MethodGen[methods.length];
+    pc.lnts = new LineNumberTable[methods.length];
+    pc.lv_maps = new LogicalLVMap[methods.length];
+
+    // no point doing local var analysis for a disabled class
+    compute_lv_maps = compute_lv_maps && nameFilter.select(clazz.getClassName());
+
+    for (int i = 0; i < methods.length; i++)
+    {
+        pc.lnts[i] = get_line_number_table (methods[i]);
+        pc.mgs[i] = new MethodGen (methods[i], clazz.getClassName (), pc.cpgen);
+
+        if (compute_lv_maps && !methods[i].isNative () && !methods[i].isAbstract ())
+        {
+            MethodGen mg = pc.mgs[i];
+            String full_sig = mg.getClassName () + "." + mg.getName () + mg.getSignature ();
+            if (nameFilter.select(full_sig))
+                pc.lv_maps[i] = compute_lv_map (mg, pc.cpgen, pc.lnts[i], full_sig);
+        }
+    }
+    return pc;
+}
+
 /**
  * analyze a class
  */
 private static void analyze_class (JavaClass clazz)
 {
+    analyze_class (prepare_class (clazz, false));
+}
+
+private static void analyze_class (PreparedClass pc)
+{
+    JavaClass clazz = pc.clazz;
     if (!nameFilter.select(clazz.getClassName()))
     {
         Tee ("Disabled: " + clazz.getClassName());
@@ -413,7 +571,7 @@ private static void analyze_class (JavaClass clazz)
     Method[] methods = clazz.getMethods ();
     Log.println (methods.length + " methods");
 
-    ConstantPoolGen cpgen = new ConstantPoolGen (clazz.getConstantPool ());
+    ConstantPoolGen cpgen = pc.cpgen;
 
     Field[] fields = clazz.getFields ();
     for (Field f : fields)
@@ -435,25 +593,7 @@ private static void analyze_class (JavaClass clazz)
 
     for (int i = 0; i < methods.length; i++)
     {
-        LineNumberTable line_num_table = null;
-
-        if (methods[i].getCode () != null)
-        {
-            Attribute[] attribs = methods[i].getCode ().getAttributes ();
-            if (attribs != null)
-            {
-                for (int j = 0; j < attribs.length; j++)
-                {
-                    if (attribs[j] instanceof LineNumberTable)
-                    {
-                        line_num_table = (LineNumberTable) attribs[j];
-                    }
-                }
-            }
-        }
-
-        MethodGen mg = new MethodGen (methods[i], clazz.getClassName (),
-                                      cpgen);
+        MethodGen mg = pc.mgs[i];
 
         // things break if we instrument system class constructors
         // at some point, ok to break the sun.*
@@ -463,7 +603,7 @@ private static void analyze_class (JavaClass clazz)
 //        else
         if (!methods[i].isNative () && !methods[i].isAbstract ())
         {
-            analyzeMethod (clazz, mg, cpgen, line_num_table);
+            analyzeMethod (clazz, mg, cpgen, pc.lnts[i], pc.lv_maps[i]);
         }
         else
         {
@@ -474,9 +614,31 @@ private static void analyze_class (JavaClass clazz)
 }
 
 /**
- * analyze a single method
+ * disambiguates local vars of the given method by running reaching defs on it.
+ * touches no global state, so it is safe to call from worker threads.
+ */
+private static LogicalLVMap compute_lv_map (MethodGen mg, ConstantPoolGen cpgen, LineNumberTable lnt, String full_sig)
+{
+    RD_DF_algorithm rd_alg = new RD_DF_algorithm ();
+
+    InstructionList il = mg.getInstructionList ();
+    il.setPositions ();
+
+    _logger.fine ("started disambiguating local variables for " + full_sig);
+
+    LogicalLVMap lv_map = (LogicalLVMap) rd_alg.analyze_method (mg, cpgen, lnt);
+    lv_map.verify (mg, cpgen);
+
+    _logger.finer ("Completing disambiguating local variables");
+    _logger.finer ("lv_map's size = " + (lv_map.highest_lv () + 1));
+    _logger.finer (lv_map.toString());
+    return lv_map;
+}
+
+/**
+ * analyze a single method. lv_map may be null, in which case it is computed here.
  */
-private static void analyzeMethod (JavaClass clazz, MethodGen mg, ConstantPoolGen cpgen, LineNumberTable lnt)
+private static void analyzeMethod (JavaClass clazz, MethodGen mg, ConstantPoolGen cpgen, LineNumberTable lnt, LogicalLVMap lv_map)
 {
 
     String full_sig = mg.getClassName () + "." + mg.getName () +
@@ -508,23 +670,13 @@ private static void analyzeMethod (JavaClass clazz, MethodGen mg, ConstantPoolGe
         return;
     }
 
-    RD_DF_algorithm rd_alg = new RD_DF_algorithm ();
-
     if (lnt == null)
     {
         Log.println ("no line number information for method!");
     }
-    InstructionList il = mg.getInstructionList ();
-    il.setPositions ();
 
-    _logger.fine ("started disambiguating local variables for " + full_sig);
-
-    LogicalLVMap lv_map = (LogicalLVMap) rd_alg.analyze_method (mg, cpgen, lnt);
-    lv_map.verify (mg, cpgen);
-
-    _logger.finer ("Completing disambiguating local variables");
-    _logger.finer ("lv_map's size = " + (lv_map.highest_lv () + 1));
-    _logger.finer (lv_map.toString());
+    if (lv_map == null)
+        lv_map = compute_lv_map (mg, cpgen, lnt, full_sig);
 
     mue.setupLocals (lv_map, mg, cpgen);
     unifi_DF_algorithm unifi_alg = new unifi_DF_algorithm ();
@@ -577,29 +729,20 @@ public static void read_unit_collection_file() {
 
 	_logger.info ("Reading input units from " + uc_filename + " make_golden = " + make_golden);
 
-	ObjectInputStream ois;
 	UnitCollection uc=null;
 	try {
-		ois = new ObjectInputStream(new FileInputStream(uc_filename));
-	} catch (Exception e) {
-		System.err.println("Warning: error opening file: " + uc_filename);
-		throw new RuntimeException("Cannot continue without unit collection file.");
-	}
-
-	try {
-		uc = (UnitCollection) ois.readObject();
-		MethodResolver.globalMethodUnitsDir = (Map<String, MethodUnits>) ois.readObject();
-		FieldUnit.globalFieldUnitDir = (Map<String, FieldUnit>) ois.readObject();
-		ois.close();
+		uc = UnitsFile.read_and_install(uc_filename);
 		_logger.info ("Unit Collection: " + uc);
 		_logger.info ("Method directory: " + MethodResolver.globalMethodUnitsDir.size() + " methods");
 		_logger.info ("Field directory: " + FieldUnit.globalFieldUnitDir.size() + " fields");
+	} catch (FileNotFoundException e) {
+		System.err.println("Warning: error opening file: " + uc_filename);
+		throw new RuntimeException("Cannot continue without unit collection file.");
 	} catch (Exception e) {
 		System.err.println("Warning: error reading data from file " + uc_filename);
 		System.err.println(e);
 		Util.ASSERT(false);
 	}
-	Unit._current_unit_collection = uc;
 
 	uc.compute_reps();
 
@@ -669,6 +812,24 @@ private static void read_system_properties() {
 		System.out.println("setting doCompoundConstraints false.");
 		doCompoundConstraints = false;
 	}
+
+	String threads = System.getProperty ("unifi.threads");
+	if (!Util.nullOrEmpty(threads))
+	{
+		try {
+			nThreads = Integer.parseInt(threads.trim());
+		} catch (NumberFormatException nfe) {
+			Util.warn ("Ignoring bad value for unifi.threads: " + threads);
+		}
+		if (nThreads > 1)
+			System.out.println("preparing classes on " + nThreads + " threads, unifying on 1.");
+	}
+
+	if (Boolean.getBoolean ("unifi.cs.insensitive"))
+	{
+		System.out.println("doing a context insensitive analysis.");
+		CONTEXT_SENSITIVE_ANALYSIS = false;
+	}
 }
 
 public static void printConf(String[] jarsAndClasses)
@@ -728,6 +889,7 @@ public static void main (String[] args) throws IOException
 	// read input units files if any
 	read_unit_collection_file();
 
+	long analysis_start = System.currentTimeMillis();
 	try {
     for (int argno = 0; argno < jarsAndClasses.length; argno++)
     {
@@ -741,37 +903,41 @@ public static void main (String[] args) throws IOException
         }
     }
 
-    if (CONTEXT_SENSITIVE_ANALYSIS)
+    long analysis_millis = System.currentTimeMillis() - analysis_start;
+    _logger.info (BCPFactory.stats());
+    String callgraph_file = System.getProperty("unifi.callgraph.write");
+    if (!Util.nullOrEmpty(callgraph_file))
     {
-    	UnitCollection uc = Unit._current_unit_collection;
+    	MethodInvokeTracker tracker = unifi_state.getMethodDepTracker();
+    	Tee ("Writing " + tracker + " to " + callgraph_file);
+    	tracker.write(callgraph_file);
+    }
+    // a context insensitive analysis (unifi.cs.insensitive) just skips the worklist
+    UnitCollection uc = Unit._current_unit_collection;
+    if (CONTEXT_SENSITIVE_ANALYSIS)
     	ContextSensitiveAnalysis.doIt();
 
-    	STATS.compute_munit_stats();
-    	uc.set_stats(STATS);
-    	System.out.println ("Unit collection before solving compound constraints: " + uc);
-    	uc.compute_reps();
-    	try { readDisplayNames(uc); } catch (Exception e) {
-    		_logger.warning("Unable to read display names: " + e);
-    	}
-    	if (doCompoundConstraints)
-    	{
-//    		System.out.println ("***************** Compound constraints BEFORE prepare to solve\n" + uc.get_mult_constraints());
-    		uc.prepare_to_solve(null);
-    		System.out.println ("***************** Compound constraints AFTER prepare to solve\n" + uc.get_mult_constraints());
-    		uc.solve_constraints();
-    	}
+    STATS.compute_munit_stats();
+    uc.set_stats(STATS);
+    System.out.println ("Unit collection before solving compound constraints: " + uc);
+    uc.compute_reps();
+    try { readDisplayNames(uc); } catch (Exception e) {
+    	_logger.warning("Unable to read display names: " + e);
+    }
+    if (doCompoundConstraints)
+    {
+//    	System.out.println ("***************** Compound constraints BEFORE prepare to solve\n" + uc.get_mult_constraints());
+    	uc.prepare_to_solve(null);
+    	System.out.println ("***************** Compound constraints AFTER prepare to solve\n" + uc.get_mult_constraints());
+    	uc.solve_constraints();
+    }
 
     //	uc.print_units();
-    	finish(Unit._current_unit_collection);
+    finish(Unit._current_unit_collection);
     //    unifi_state.getMethodDepTracker().printMethodDeps(System.out);
+    if (CONTEXT_SENSITIVE_ANALYSIS)
         ContextSensitiveAnalysis.printStats(System.out);
-    }
-    else
-    {   // plain analysis
-    	STATS.compute_munit_stats();
-    	readDisplayNames(Unit._current_unit_collection);
-    	finish(Unit._current_unit_collection);
-    }
+    ContextSensitiveAnalysis.printReport(System.out, analysis_millis);
 
     System.out.println();
     SavedErrorMessages.print(System.err);
@@ -802,6 +968,7 @@ public static void main (String[] args) throws IOException
 
 private static void finish(UnitCollection uc) throws IOException
 {
+	EventLog.flush();
 	uc.verify();
     String filename = System.getProperty("unifi.write");
     String golden_filename = System.getProperty("unifi.golden.write");
@@ -854,6 +1021,7 @@ private static void finish(UnitCollection uc) throws IOException
     */
 
 	uc.print_units();
+	uc.print_redundant_events(20);
 	// uc.full_verify();
 	_logger.info ("Final result: " + uc);
 
@@ -863,11 +1031,7 @@ private static void finish(UnitCollection uc) throws IOException
 	if (diffUC.get_units().size() > 0 && !Util.nullOrEmpty(diffFilename))
 	{
         try {
-            ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream (diffFilename));
-            oos.writeObject (diffUC);
-            oos.writeObject(MethodResolver.globalMethodUnitsDir);
-            oos.writeObject(FieldUnit.globalFieldUnitDir);
-            oos.close();
+            UnitsFile.write (diffFilename, diffUC);
         } catch (Exception e)
         {
                 System.out.println ("Exception " + e);
@@ -878,11 +1042,7 @@ private static void finish(UnitCollection uc) throws IOException
     if (filename != null)
     {
         try {
-        ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream (filename));
-        oos.writeObject (uc);
-        oos.writeObject(MethodResolver.globalMethodUnitsDir);
-        oos.writeObject(FieldUnit.globalFieldUnitDir);
-        oos.close();
+        UnitsFile.write (filename, uc);
         } catch (Exception e)
         {
             System.out.println ("Exception " + e);
@@ -896,11 +1056,7 @@ private static void finish(UnitCollection uc) throws IOException
 
 		_logger.info ("Saving only golden units to " + golden_filename + ": " + uc);
 		uc.print_units();
-		ObjectOutputStream oos = new ObjectOutputStream (new FileOutputStream (golden_filename));
-        oos.writeObject (uc);
-        oos.writeObject(MethodResolver.globalMethodUnitsDir);
-        oos.writeObject(FieldUnit.globalFieldUnitDir);
-        oos.close();
+		UnitsFile.write (golden_filename, uc);
 	}
 }
 
@@ -17,29 +17,98 @@ limitations under the License.
 package unifi.drivers;
 
 import java.io.*;
+import java.util.*;
 
+import unifi.UnificationEvent;
 import unifi.UnitCollection;
+import unifi.UnitStore;
+import unifi.UnitsFile;
+import unifi.units.Unit;
 
-/** print path from the first unit to the second. 
- * both units are specified in terms of their index in the unit collection */
+/** print path from the first unit to the second.
+ * both units are specified in terms of their index in the unit collection.
+ * also prints the cluster of a single unit, or the units whose names start with a given prefix.
+ * binary units files are memory mapped and only the units needed are read;
+ * other files are read in full. */
 public class Query {
 
 private static void print_usage_and_die()
 {
-    System.out.println ("Usage: query <units file> <unit#1> <unit#2>");
+    System.out.println ("Usage: query <units file> <unit#1> <unit#2>\n"
+                      + "       query <units file> <unit#>             (prints the unit's cluster)\n"
+                      + "       query <units file> -prefix <string>    (lists units whose names start with string)");
     System.exit(2);
 }
 
 public static void main (String args[]) throws Exception
 {
-    if (args.length != 3)
+    if (args.length < 2 || args.length > 3)
         print_usage_and_die();
 
-    ObjectInputStream ois = new ObjectInputStream(new FileInputStream(args[0]));
-    UnitCollection uc = (UnitCollection) ois.readObject();
-    ois.close();
+    UnitStore store;
+    try {
+        store = UnitStore.open(args[0]);
+    } catch (IOException ioe) {
+        System.out.println ("Reading all of " + args[0] + " (" + ioe.getMessage() + ")");
+        store = null;
+    }
 
-    uc.print_path(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    if (args[1].equals("-prefix"))
+    {
+        if (args.length != 3 || store == null)
+            print_usage_and_die();
+        for (int idx : store.indices_with_prefix(args[2]))
+            System.out.println ("U" + (idx+1) + ". " + store.unit(idx));
+    }
+    else if (args.length == 2)
+    {
+        int idx = Integer.parseInt(args[1]) - 1;
+        if (store != null)
+        {
+            for (int x : store.cluster(idx))
+                if (x < store.n_collection_units())
+                    System.out.println ("U" + (x+1) + ". " + store.unit(x));
+        }
+        else
+        {
+            UnitCollection uc = UnitsFile.read(args[0]).uc;
+            int i = 0;
+            Unit u = new ArrayList<Unit>(uc.get_units()).get(idx);
+            for (Unit x : uc.get_units())
+            {
+                i++;
+                if (x.find() == u.find())
+                    System.out.println ("U" + i + ". " + x);
+            }
+        }
+    }
+    else if (store != null)
+        print_path(store, Integer.parseInt(args[1]) - 1, Integer.parseInt(args[2]) - 1);
+    else
+    {
+        UnitCollection uc = UnitsFile.read(args[0]).uc;
+        uc.print_path(Integer.parseInt(args[1]), Integer.parseInt(args[2]));
+    }
+
+    if (store != null)
+        store.close();
+}
+
+/** same output as UnitCollection.print_path */
+private static void print_path(UnitStore store, int src, int target) throws IOException
+{
+    StringBuilder sb = new StringBuilder();
+    sb.append ("looking for path from " + store.unit(src) + " to " + store.unit(target) + "\n");
+    List<UnificationEvent> path = (store.rep(src) == store.rep(target)) ? store.find_path(src, target) : null;
+    if (path == null)
+        sb.append ("No path exists\n");
+    else
+    {
+        int count = 0;
+        for (UnificationEvent e : path)
+            sb.append (++count + ". " + e + "\n");
+    }
+    System.out.println (sb);
 }
 
 }
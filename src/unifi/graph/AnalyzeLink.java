@@ -1,10 +1,8 @@
 package unifi.graph;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
-import java.io.ObjectInputStream;
 import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -26,6 +24,7 @@ import org.jgrapht.graph.SimpleGraph;
 
 import unifi.UnificationEvent;
 import unifi.UnitCollection;
+import unifi.UnitsFile;
 import unifi.units.Unit;
 import unifi.util.Util;
 
@@ -538,18 +537,9 @@ public class AnalyzeLink {
 	}
 
 	public static UnitCollection parse_outfile(String uc_file) {
-		ObjectInputStream ois;
 		UnitCollection uc=null;
 		try {
-			ois = new ObjectInputStream(new FileInputStream(uc_file));
-		} catch (Exception e) {
-			System.err.println("Warning: error opening file: " + uc_file);
-			return null;
-		}
-
-		try {
-			uc = (UnitCollection) ois.readObject();
-			ois.close();
+			uc = UnitsFile.read(uc_file).uc;
 		} catch (Exception e) {
 			System.err.println("Warning: error reading data from file " + uc_file);
 			System.err.println(e);
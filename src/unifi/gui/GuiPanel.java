@@ -14,7 +14,6 @@ import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.LineNumberReader;
-import java.io.ObjectInputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -48,9 +47,9 @@ import org.jgrapht.graph.SimpleGraph;
 
 import unifi.BCP;
 import unifi.GoldenUnifiEvent;
-import unifi.MethodUnits;
 import unifi.UnificationEvent;
 import unifi.UnitCollection;
+import unifi.UnitsFile;
 
 import unifi.gui.PairForUniqueUnitsTable;
 import unifi.gui.gui.UnificationEventSelectionListener;
@@ -669,23 +668,10 @@ public class GuiPanel extends JPanel {
 
 		System.out.println("Opening file:"+filename);
 		// read from a file
-		ObjectInputStream ois;
-		try {
-			ois = new ObjectInputStream(new FileInputStream(filename));
-		} catch (Exception e) {
-			System.err.println("Warning: error opening file: " + filename);
-			return;
-		}
-
 		System.out.println("reading UnitCollection object");
 		try {
-			uc = (UnitCollection) ois.readObject();
-
-			MethodResolver.globalMethodUnitsDir = (Map<String, MethodUnits>) ois.readObject();
-			FieldUnit.globalFieldUnitDir = (Map<String, FieldUnit>) ois.readObject();
-
+			uc = UnitsFile.read_and_install(filename);
 			_all_events = _selected_events = uc.get_events();
-			ois.close();
 		} catch (Exception e) {
 			System.err.println("Warning: error reading data from file "
 					+ filename);
@@ -214,18 +214,9 @@ public void parse_outfile(String filename)
     else
     {
         // read from a file
-        ObjectInputStream ois;
-        try { ois= new ObjectInputStream (new FileInputStream (filename)); }
-        catch (Exception e)
-        {
-            System.err.println ("Warning: error opening file: " + filename);
-            return;
-        }
-
         try {
-    	    uc = (UnitCollection) ois.readObject();
+    	    uc = UnitsFile.read(filename).uc;
             _all_events = _selected_events = uc.get_events();
-	    	ois.close();
         } catch (Exception e)
         {
             System.err.println ("Warning: error reading data from file " + filename);
@@ -26,6 +26,7 @@ class Def
     private boolean _is_double, _is_iinc;
     private int _id;
     private static int _next_id = 0;
+    private int _num = -1; // dense number of this def within its method, = its bit in RD_state
 
     public Def (int index, int pos, boolean is_double, boolean is_iinc)
     {
@@ -44,6 +45,16 @@ class Def
         return _index;
     }
 
+    public int get_num ()
+    {
+        return _num;
+    }
+
+    public void set_num (int num)
+    {
+        _num = num;
+    }
+
     public int get_position ()
     {
         return _position;
@@ -16,12 +16,7 @@ limitations under the License.
 
 package unifi.rd;
 
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 import org.apache.bcel.generic.ConstantPoolGen;
 import org.apache.bcel.generic.Instruction;
@@ -33,109 +28,143 @@ import unifi.util.BCELUtil;
 import unifi.util.Util;
 
 /** class to map a bcp to logical and physical local var slot. holds the result of
- * disambiguating local var slots after doing reaching defs. */
+ * disambiguating local var slots after doing reaching defs.
+ * positions are bytecode positions (< 64K), except for the dummy defs of
+ * method args which have positions -1, -2, ... so those live in separate arrays.
+ * all arrays are indexed directly by position, with UNMAPPED for holes. */
 
 public class LogicalLVMap
 {
-    Map<Integer, Integer> _pos2_logical_lv_num;
-    Map<Integer, Integer> _pos2_phys_lv_num;
+    private static final int UNMAPPED = -1;
+
+    // for pos >= 0
+    private int[] _pos2_logical_lv_num = new int[0];
+    private int[] _pos2_phys_lv_num = new int[0];
+    // for pos < 0, indexed by -pos-1
+    private int[] _arg_pos2_logical_lv_num = new int[0];
+    private int[] _arg_pos2_phys_lv_num = new int[0];
+    // reverse index: logical lv num -> first pos it was added at
+    private int[] _logical_lv_num2_pos = new int[0];
+    private boolean[] _logical_lv_num_mapped = new boolean[0];
+    private int _highest_lv = -1;
 
-// _pos2_new_lv_num is a hashmap from instruction position -> new lv num
     public LogicalLVMap ()
     {
-        _pos2_logical_lv_num = new LinkedHashMap<Integer, Integer> ();
-        _pos2_phys_lv_num = new LinkedHashMap<Integer, Integer> ();
+    }
+
+    private static int[] grow (int[] a, int min_size)
+    {
+        if (a.length >= min_size)
+            return a;
+        int[] result = Arrays.copyOf (a, Math.max (min_size, 2 * a.length));
+        Arrays.fill (result, a.length, result.length, UNMAPPED);
+        return result;
+    }
+
+    private static int lookup (int[] a, int idx)
+    {
+        return (idx < a.length) ? a[idx] : UNMAPPED;
+    }
+
+    private int get_logical (int pos)
+    {
+        return (pos >= 0) ? lookup (_pos2_logical_lv_num, pos) : lookup (_arg_pos2_logical_lv_num, -pos-1);
+    }
+
+    private int get_phys (int pos)
+    {
+        return (pos >= 0) ? lookup (_pos2_phys_lv_num, pos) : lookup (_arg_pos2_phys_lv_num, -pos-1);
     }
 
 // at position pos, set the original and new lv numbers
     public void add (int pos, int phys_lv_num, int logical_lv_num)
     {
-        Integer p = new Integer (pos);
-        Integer new_lv = new Integer (logical_lv_num);
-        Integer orig_lv = new Integer (phys_lv_num);
+        Util.ASSERT (logical_lv_num >= 0 && phys_lv_num >= 0);
 
-        Integer existing_new_lv = _pos2_logical_lv_num.get (p);
-        if (existing_new_lv != null)
+        int existing_new_lv = get_logical (pos);
+        if (existing_new_lv != UNMAPPED)
         {
-            if (existing_new_lv.intValue () != logical_lv_num)
+            if (existing_new_lv != logical_lv_num)
             {
                 Util.ASSERT (false,
                              "Error, new lv num = " + logical_lv_num + ", existing " +
-                             existing_new_lv.intValue () + " for pos " + pos);
+                             existing_new_lv + " for pos " + pos);
 
             }
         }
-        _pos2_logical_lv_num.put (p, new_lv);
-        _pos2_phys_lv_num.put (p, orig_lv);
+
+        if (pos >= 0)
+        {
+            _pos2_logical_lv_num = grow (_pos2_logical_lv_num, pos+1);
+            _pos2_phys_lv_num = grow (_pos2_phys_lv_num, pos+1);
+            _pos2_logical_lv_num[pos] = logical_lv_num;
+            _pos2_phys_lv_num[pos] = phys_lv_num;
+        }
+        else
+        {
+            int idx = -pos-1;
+            _arg_pos2_logical_lv_num = grow (_arg_pos2_logical_lv_num, idx+1);
+            _arg_pos2_phys_lv_num = grow (_arg_pos2_phys_lv_num, idx+1);
+            _arg_pos2_logical_lv_num[idx] = logical_lv_num;
+            _arg_pos2_phys_lv_num[idx] = phys_lv_num;
+        }
+
+        if (logical_lv_num >= _logical_lv_num_mapped.length)
+        {
+            int new_size = Math.max (logical_lv_num+1, 2 * _logical_lv_num_mapped.length);
+            _logical_lv_num_mapped = Arrays.copyOf (_logical_lv_num_mapped, new_size);
+            _logical_lv_num2_pos = Arrays.copyOf (_logical_lv_num2_pos, new_size);
+        }
+        if (!_logical_lv_num_mapped[logical_lv_num])
+        {
+            _logical_lv_num_mapped[logical_lv_num] = true;
+            _logical_lv_num2_pos[logical_lv_num] = pos;
+        }
+
+        if (logical_lv_num > _highest_lv)
+            _highest_lv = logical_lv_num;
     }
 
     public int pos_to_phys_LV_num (int pos)
     {
-        Integer I = _pos2_phys_lv_num.get (new Integer (pos));
-        Util.ASSERT (I != null);
-        return I.intValue ();
+        int i = get_phys (pos);
+        Util.ASSERT (i != UNMAPPED);
+        return i;
     }
 
 // maps a given logical LV num back to it's pos (one of it's pos's)
+// returns -1 if the logical LV num is not mapped
     public int logical_LV_num_to_pos (int logical_lv_num)
     {
-        for (Iterator it = _pos2_logical_lv_num.keySet ().iterator ();
-             it.hasNext (); )
-        {
-            Integer P = (Integer) it.next ();
-            Integer LV = _pos2_logical_lv_num.get (P);
-            Util.ASSERT (LV != null);
-            if (LV.intValue () == logical_lv_num)
-            {
-                return P.intValue ();
-            }
-        }
-
-        return -1;
+        if (logical_lv_num < 0 || logical_lv_num >= _logical_lv_num_mapped.length || !_logical_lv_num_mapped[logical_lv_num])
+            return -1;
+        return _logical_lv_num2_pos[logical_lv_num];
     }
 
     public int pos_to_logical_LV_num (int pos)
     {
-        Integer I = _pos2_logical_lv_num.get (new Integer (pos));
-        Util.ASSERT (I != null);
-        return I.intValue ();
+        int i = get_logical (pos);
+        Util.ASSERT (i != UNMAPPED);
+        return i;
     }
 
 // returns the highest numbered LV (in the new numbering) in this lv_map
     public int highest_lv ()
     {
-        int max = -1;
-        Util.ASSERT (_pos2_logical_lv_num.size () == _pos2_phys_lv_num.size ());
-
         // TODO: does this work for doubles ?
-        for (Iterator it = _pos2_logical_lv_num.values ().iterator ();
-             it.hasNext (); )
-        {
-            Integer I = (Integer) it.next ();
-            int i = I.intValue ();
-            if (i > max)
-            {
-                max = i;
-            }
-        }
-
-        return max;
+        return _highest_lv;
     }
 
     public String toString ()
     {
-    	// sort keys so output is a bit more readable
-    	List<Integer> keys = new ArrayList<Integer>();
-    	keys.addAll(_pos2_logical_lv_num.keySet());
-    	Collections.sort(keys);
-    	
+    	// positions in increasing order so output is a bit more readable
         StringBuffer sb = new StringBuffer ("Logical LV Map\n");
-        for (Integer pos: keys)
-        {
-            Integer new_lv = _pos2_logical_lv_num.get (pos);
-            Integer orig_lv = _pos2_phys_lv_num.get (pos);
-            sb.append ("pos " + pos + ":" + new_lv + " (physical " + orig_lv + ")\n");
-        }
+        for (int idx = _arg_pos2_logical_lv_num.length-1; idx >= 0; idx--)
+            if (_arg_pos2_logical_lv_num[idx] != UNMAPPED)
+                sb.append ("pos " + (-idx-1) + ":" + _arg_pos2_logical_lv_num[idx] + " (physical " + _arg_pos2_phys_lv_num[idx] + ")\n");
+        for (int pos = 0; pos < _pos2_logical_lv_num.length; pos++)
+            if (_pos2_logical_lv_num[pos] != UNMAPPED)
+                sb.append ("pos " + pos + ":" + _pos2_logical_lv_num[pos] + " (physical " + _pos2_phys_lv_num[pos] + ")\n");
 
         return sb.toString ();
     }
@@ -162,9 +191,9 @@ public class LogicalLVMap
     		{
     			LocalVariableInstruction lv_insn = (LocalVariableInstruction) insn;
     			int idx = lv_insn.getIndex();
-    			Util.ASSERT(_pos2_phys_lv_num.get(pos) == idx);
+    			Util.ASSERT(pos_to_phys_LV_num(pos) == idx);
 
-    			int logical_lv = _pos2_logical_lv_num.get(pos);
+    			int logical_lv = pos_to_logical_LV_num(pos);
     			Type t = BCELUtil.simplifiedType(lv_insn.getType(cp));
 
     			if (state[logical_lv] != null)
@@ -30,14 +30,15 @@ public class RDBasicBlock extends BasicBlock
 
 private static Logger logger = Logger.getLogger("unifi.RDBasicBlock");
 
-    private Set _gen, _kill;
+    // gen and kill sets as bitsets over def nums, computed once per method
+    private BitSet _gen, _kill;
 
-    public Set get_gen ()
+    public BitSet get_gen ()
     {
         return _gen;
     }
 
-    public Set get_kill ()
+    public BitSet get_kill ()
     {
         return _kill;
     }
@@ -47,8 +48,9 @@ private static Logger logger = Logger.getLogger("unifi.RDBasicBlock");
       /* */
     }
 
-    /* def_list is the set of ALL def's in this method */
-    public void compute_gen_kill_sets (Collection all_defs)
+    /* lv_defs[i] is the set of all defs to local var i in this method,
+     * def_at_pos maps the position of a store/iinc to its def */
+    public void compute_gen_kill_sets (BitSet[] lv_defs, Map<Integer, Def> def_at_pos)
     {
         InstructionHandle begin = _begin_ih;
         InstructionHandle end = _end_ih;
@@ -58,72 +60,32 @@ private static Logger logger = Logger.getLogger("unifi.RDBasicBlock");
         {
             Instruction insn = begin.getInstruction ();
 
-            int index = 0;
-            int position = 0;
-
             if (insn instanceof StoreInstruction || insn instanceof IINC)
             {
-                index = ( (IndexedInstruction) insn).getIndex ();
-                position = begin.getPosition ();
-
-                // first compute kill set = all defs to same index (including current insn)
-                for (Iterator itr = all_defs.iterator (); itr.hasNext (); )
-                {
-                    Def d = (Def) itr.next ();
-                    if (d.get_index () == index)
-                    {
-                        _kill.add (d);
-                    }
-                }
-
-                /* next compute gen set :
-                   find this def, add it to gen set
-                     remove any other defs which may already be present in gen set
+                int index = ( (IndexedInstruction) insn).getIndex ();
+                int position = begin.getPosition ();
+                Def d = def_at_pos.get (position);
+                Util.ASSERT (d != null && d.get_index () == index);
+
+                // kill set = all defs to same index (including current insn)
+                _kill.or (lv_defs[index]);
+
+                /* gen set: this def replaces any other def to the same index
+                   already in the gen set.
                    note subtlety here in case of a bb of the form
                    d1 ; ... ; d2 where d1, d2 have the same index.
                    then the kill set contains both d1 and d2.
                    the gen set contains only d2.
                  */
-
-                for (Iterator itr = all_defs.iterator (); itr.hasNext (); )
-                {
-                    Def d = (Def) itr.next ();
-
-                    if (d.get_position () == position)
-                    {
-                        Util.ASSERT (d.get_index () == index);
-
-                        // remove any other def to the same index in the gen set
-                        // so that only the last one remains.
-                        // by induction, there can be at most one def to the same index
-                        // in the _gen set.
-                        // we break out as soon as we find this one def since
-                        // can't continue iterating after removing the object
-                        // from the collection (saw a ConcurrentModificationException)
-                        for (Iterator gen_it = _gen.iterator (); gen_it.hasNext (); )
-                        {
-                            Def d1 = (Def) gen_it.next ();
-                            if (d1.get_index () == d.get_index ())
-                            {
-                                _gen.remove (d1);
-                                break;
-                            }
-                        }
-
-                        _gen.add (d);
-                        break;
-                    }
-                }
+                _gen.andNot (lv_defs[index]);
+                _gen.set (d.get_num ());
             }
 
             prev_begin = begin;
             begin = begin.getNext ();
         }
 
-        for (Iterator it = _gen.iterator (); it.hasNext (); )
-        {
-            ( (RD_state) _out_state).add_def ( (Def) it.next ());
-        }
+        ( (RD_state) _out_state)._bits.or (_gen);
 
         if (logger.isLoggable(Level.FINEST))
         {
@@ -137,8 +99,8 @@ private static Logger logger = Logger.getLogger("unifi.RDBasicBlock");
                          LineNumberTable lnt, InstructionHandle ih, Class c)
     {
         super (mg, cpgen, lnt, ih, c);
-        _gen = new LinkedHashSet ();
-        _kill = new LinkedHashSet ();
+        _gen = new BitSet ();
+        _kill = new BitSet ();
     }
 
 }
@@ -83,7 +83,15 @@ extends DF_algorithm
 		_n_arg_local_vars = lv_num;
 		_n_local_vars = _current_mg.getMaxLocals ();
 
-		_all_defs.addAll (_arg_defs);
+		add_defs (_arg_defs);
+
+		// every state needs the def table to map its bits back to defs
+		for (Iterator it = _bb_collection.iterator (); it.hasNext (); )
+		{
+			RDBasicBlock rdbb = (RDBasicBlock) it.next ();
+			((RD_state) rdbb.get_in_state ()).set_defs (_all_defs);
+			((RD_state) rdbb.get_out_state ()).set_defs (_all_defs);
+		}
 
 		// boundary condition: start_bb has method param defs reaching it
 		for (Iterator it = _bb_collection.iterator (); it.hasNext (); )
@@ -102,6 +110,7 @@ extends DF_algorithm
 		}
 
 		// compute all_defs.
+		List<Def> insn_defs = new ArrayList<Def> ();
 		for (Iterator it = _bb_collection.iterator (); it.hasNext (); )
 		{
 			RDBasicBlock bb = (RDBasicBlock) it.next ();
@@ -124,12 +133,13 @@ extends DF_algorithm
 					boolean is_iinc = insn instanceof IINC;
 					Def d = new Def (index, pos, is_double, is_iinc);
 
-					_all_defs.add (d);
+					insn_defs.add (d);
 				}
 				prev_begin = begin;
 				begin = begin.getNext ();
 			}
 		}
+		add_defs (insn_defs);
 
 		_logger.finest ("\nAll defs: " + _all_defs.size() + " defs found");
 		for (Iterator it = _all_defs.iterator (); it.hasNext (); )
@@ -137,12 +147,36 @@ extends DF_algorithm
 			_logger.finest (it.next().toString());
 		}
 
+		// index the defs by local var and by position, so gen/kill sets are
+		// not quadratic in the # of defs
+		BitSet[] lv_defs = new BitSet[_n_local_vars];
+		for (int i = 0; i < _n_local_vars; i++)
+			lv_defs[i] = new BitSet ();
+		Map<Integer, Def> def_at_pos = new LinkedHashMap<Integer, Def> ();
+		for (Def d : _all_defs)
+		{
+			lv_defs[d.get_index ()].set (d.get_num ());
+			def_at_pos.put (d.get_position (), d);
+		}
+
 		// compute gen/kill sets
 		_logger.fine ("\nComputing GEN/KILL sets");
 		for (Iterator it = _bb_collection.iterator (); it.hasNext (); )
 		{
 			RDBasicBlock rdbb = (RDBasicBlock) it.next ();
-			rdbb.compute_gen_kill_sets (_all_defs);
+			if (rdbb.is_start_bb ())
+				continue;
+			rdbb.compute_gen_kill_sets (lv_defs, def_at_pos);
+		}
+	}
+
+	/** appends defs to _all_defs, numbering them densely */
+	private void add_defs (Collection<Def> defs)
+	{
+		for (Def d : defs)
+		{
+			d.set_num (_all_defs.size ());
+			_all_defs.add (d);
 		}
 	}
 
@@ -24,6 +24,8 @@ import unifi.util.Util;
 
 import org.apache.bcel.generic.*;
 
+/** reaching defs state. the set of defs is a bitset indexed by Def.get_num(),
+ * i.e. the def's position in RD_DF_algorithm's _all_defs list. */
 public class RD_state
     extends DF_state
 {
@@ -31,29 +33,38 @@ public class RD_state
     private static Logger _logger = Logger.getLogger("unifi.RD_state");
 
     // shd be private, temporarily set to public for debugging.
-    public Set _set;
+    public BitSet _bits;
+    // all defs of the method, indexed by def num. set up by RD_DF_algorithm.init_for_method
+    private List<Def> _defs;
 
     public RD_state ()
     {
-        _set = new LinkedHashSet ();
+        _bits = new BitSet ();
+    }
+
+    void set_defs (List<Def> defs)
+    {
+        _defs = defs;
     }
 
     public void clear ()
     {
-        _set.clear ();
+        _bits.clear ();
     }
 
     public DF_state create_copy ()
     {
         RD_state r = new RD_state ();
-        r._set.addAll (_set);
+        r._bits.or (_bits);
+        r._defs = _defs;
         return r;
     }
 
     /* add's the def d to the set of reaching defs in this state */
     public void add_def (Def d)
     {
-        _set.add (d);
+        Util.ASSERT (d.get_num () >= 0);
+        _bits.set (d.get_num ());
     }
 
 
@@ -71,7 +82,7 @@ public class RD_state
         // simple union if this_bb doesn't follow a jsr
         if (!this_bb.follows_jsr())
         {
-            ( (HashSet) _set).addAll ( other_state._set);
+            _bits.or (other_state._bits);
             return;
         }
 
@@ -130,62 +141,45 @@ public class RD_state
                 _logger.fine ("  " + it1.next());
         }
 
-        Set my_jsr_bb_out_set = ((RD_state) my_jsr_bb.get_out_state())._set;
-        Set bb_orig_in_set = null;
+        // a def d in the other state definitely flows in if it is in my_jsr_bb's out set
+        // or in the original in set of this bb.
+        BitSet definitely_add = (BitSet) ((RD_state) my_jsr_bb.get_out_state())._bits.clone();
         if (this_bb_orig_in_state != null)
-        	bb_orig_in_set = ((RD_state) this_bb_orig_in_state)._set;
-
-        outer:
-        for (Iterator it = other_state._set.iterator(); it.hasNext(); )
+        	definitely_add.or (((RD_state) this_bb_orig_in_state)._bits);
+
+        // UPDATE: below check is probably redundant - sgh, aug 8th '10
+        // the def at jsr_insn.getPosition() which is the astore of the PC
+        // always reaches. not exempting this from the check was causing a problem
+        // in tomcat/jakarta-apache-5.5.5/common/lib/jasper-compiler-jdt.jar!org/eclipse/jdt/internal/compiler/SourceElementParser.class
+        // the def at the jsr insn reaches bb in the first iteration but is
+        // later removed because it also reaches the outset of some other jsr
+        // to the same jsr block. this destroys the invariant that reaching def sets
+        // should only increase.
+        int jsr_target_pos = jsr_target_bb.get_begin_ih().getPosition();
+        for (int i = other_state._bits.nextSetBit(0); i >= 0; i = other_state._bits.nextSetBit(i+1))
+            if (_defs.get(i).get_position() == jsr_target_pos)
+            	definitely_add.set (i);
+
+        // if d is present in the out state of any other incoming_jsr_bb
+        // then this def doesn't flow to bb
+        BitSet killed = new BitSet ();
+        for (Iterator it1 = bbs_to_jsr_target.iterator(); it1.hasNext();)
         {
-            Def d = (Def) it.next();
-
-            boolean definitely_add_d = false;
-            if (my_jsr_bb_out_set.contains(d) ||
-            	((bb_orig_in_set != null) && bb_orig_in_set.contains(d)))
-            {
-            	definitely_add_d = true;
-            }
-
-            // UPDATE: below check is probably redundant - sgh, aug 8th '10
-            // the def at jsr_insn.getPosition() which is the astore of the PC
-            // always reaches. not exempting this from the check was causing a problem
-            // in tomcat/jakarta-apache-5.5.5/common/lib/jasper-compiler-jdt.jar!org/eclipse/jdt/internal/compiler/SourceElementParser.class
-            // the def at the jsr insn reaches bb in the first iteration but is
-            // later removed because it also reaches the outset of some other jsr
-            // to the same jsr block. this destroys the invariant that reaching def sets
-            // should only increase.
-
-            if (d.get_position() == jsr_target_bb.get_begin_ih().getPosition())
-            	definitely_add_d = true;
+            BasicBlock other_jsr_bb = (BasicBlock) it1.next();
+            if (other_jsr_bb == my_jsr_bb)
+                continue;
+            killed.or (((RD_state) other_jsr_bb.get_out_state())._bits);
+        }
+        killed.andNot (definitely_add);
+        killed.and (other_state._bits);
 
-            if (definitely_add_d)
-            {
-            	_set.add(d);
-            	continue;
-            }
+        if (_logger.isLoggable(Level.FINE))
+            for (int i = killed.nextSetBit(0); i >= 0; i = killed.nextSetBit(i+1))
+                _logger.fine ("killing def " + _defs.get(i) + " it comes to " + this_bb + " from an incoming jsr bb");
 
-            // check if this def is contained in any of the other incoming_jsr_bbs.
-            // if not, we'll add it to the def set for this bb.
-            //
-            for (Iterator it1 = bbs_to_jsr_target.iterator(); it1.hasNext();)
-            {
-                BasicBlock other_jsr_bb = (BasicBlock) it1.next();
-                if (other_jsr_bb == my_jsr_bb)
-                    continue;
-
-                // if d is present in the out state of any incoming_jsr_bb
-                // then this def doesn't flow to bb
-                Set other_jsr_out_set = ((RD_state) other_jsr_bb.get_out_state())._set;
-
-                if (other_jsr_out_set.contains(d))
-                {
-                    _logger.fine ("killing def " + d + " it comes to " + this_bb + " from incoming jsr bb " + other_jsr_bb);
-                    continue outer;
-                }
-            }
-            _set.add (d);
-            }
+        BitSet added = (BitSet) other_state._bits.clone();
+        added.andNot (killed);
+        _bits.or (added);
     }
 
 // OUT(B) = IN(B) - KILL(B) U GEN(B)
@@ -197,46 +191,45 @@ public class RD_state
         }
 
         RDBasicBlock rdbb = (RDBasicBlock) bb;
-        Set in = ( (RD_state) rdbb.get_in_state ())._set;
-        Set out = ( (RD_state) rdbb.get_out_state ())._set;
+        BitSet in = ( (RD_state) rdbb.get_in_state ())._bits;
+        BitSet out = ( (RD_state) rdbb.get_out_state ())._bits;
 
         out.clear ();
 
-        out.addAll (in); // OUT(B) = IN (B)
-        out.removeAll (rdbb.get_kill ()); // OUT(B) = OUT(B) - KILL(B)
-        out.addAll (rdbb.get_gen ()); // OUT(B) = OUT(B) U GEN(B)
+        out.or (in); // OUT(B) = IN (B)
+        out.andNot (rdbb.get_kill ()); // OUT(B) = OUT(B) - KILL(B)
+        out.or (rdbb.get_gen ()); // OUT(B) = OUT(B) U GEN(B)
     }
 
-    public Set get_set ()
+    /** returns a fresh set of the defs in this state, in def num order */
+    public Set<Def> get_set ()
     {
-        return _set;
+        Set<Def> result = new LinkedHashSet<Def> ();
+        for (int i = _bits.nextSetBit(0); i >= 0; i = _bits.nextSetBit(i+1))
+            result.add (_defs.get(i));
+        return result;
     }
 
     public void set_stack_height (int i)
     { /* */ }
 
-    public void add (Object o)
-    {
-        _set.add (o);
-    }
-
     public int hashCode ()
     {
-	return _set.hashCode();
+	return _bits.hashCode();
 
     }
 
     public boolean equals (Object s)
     {
         RD_state other = (RD_state) s;
-        return _set.equals (other._set);
+        return _bits.equals (other._bits);
     }
 
     // sets should only increase, never decrease
     // error if a set is smaller than the old state
     public void verify_against_old_state (DF_state old_state, BasicBlock bb)
     {
-        if (_set.size() < ((RD_state) old_state)._set.size())
+        if (_bits.cardinality() < ((RD_state) old_state)._bits.cardinality())
         {
             System.out.println ("ERROR: state verification failed for bb " + bb);
             System.out.println ("old state " + old_state);
@@ -250,10 +243,10 @@ public class RD_state
     public String toString ()
     {
         StringBuffer sb = new StringBuffer ();
-        sb.append (_set.size() + " elements\n");
-        for (Iterator it = _set.iterator (); it.hasNext (); )
+        sb.append (_bits.cardinality() + " elements\n");
+        for (int i = _bits.nextSetBit(0); i >= 0; i = _bits.nextSetBit(i+1))
         {
-            sb.append (it.next () + "\n");
+            sb.append (((_defs != null) ? _defs.get(i).toString() : ("Def #" + i)) + "\n");
         }
         return sb.toString ();
     }
@@ -30,6 +30,8 @@ import unifi.units.Unit;
  */
 public class Constraint implements Serializable {
 
+private static final long serialVersionUID = -8059716252028949817L;
+
 private Dimensions _d;
 
 /** is_formula for a constraint means it's the official
@@ -44,14 +46,14 @@ boolean _is_formula = false;
 public Constraint (Unit u, Unit u1, Unit u2, int coeff)
 {
     _d = new Dimensions (u1, u2, coeff);
-    _d.merge_dim (u, new Fraction(-1));
+    _d.merge_dim (u, Fraction.MINUS_ONE);
     System.out.println (_d);
 }
 
 public Constraint (Unit u, Dimensions d) 
 { 
     _d = (Dimensions) d.clone(); 
-    _d.merge_dim (u, new Fraction(-1));
+    _d.merge_dim (u, Fraction.MINUS_ONE);
 }
 
 public void flatten()
@@ -68,19 +70,9 @@ public String toString()
     return ("The following is dimensionless:\n" + _d.neat_toString());
 }
 
-public int hashCode () { return _d.hashCode(); }
-
-/** warning - this doesn't really do anything interesting, because
- * Dimensions doesn't have an equals method.
- */
-public boolean equals (Object o)
-{
-//    if (!o instanceof Constraint)
-//        return false;
-
-    Constraint c = (Constraint) o;
-    return (_d.equals (c._d));
-}
+/* equals and hashCode are Object's: the solver keeps constraints in lists and
+ * rewrites them in place, so constraints are compared by identity.
+ * dimensions().equals compares the contents of two constraints. */
 
 public void verify()
 {
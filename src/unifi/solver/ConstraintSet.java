@@ -21,6 +21,7 @@ import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
@@ -39,13 +40,20 @@ import unifi.util.Util;
 
 public class ConstraintSet implements Serializable {
 
+private static final long serialVersionUID = -2768407009133356041L;
+
 	private static Logger logger = Logger.getLogger("unifi.constraints");
 
-/** ConstraintSet can have duplicate constraints -
- * this should't matter for correctness, but
- * we could eliminate duplicates for performance.
+/** duplicate constraints (see Key) are dropped when they are added, and again
+ * in prepare_to_solve after units have been rewritten with their preferred reps.
+ * constraints are compared by identity, so this and the sets in
+ * _units_to_constraints_map are identity sets.
  */
-private Collection<Constraint> _c = new ArrayList<Constraint>();
+private Collection<Constraint> _c = new LinkedHashSet<Constraint>();
+
+/** keys of the constraints in _c, null if not computed yet or constraints have been rewritten since */
+private transient Set<Key> _keys;
+private transient int n_duplicates;
 
 /** used only for printing units involved in this constraint set. */
 private List<Unit> _sorted_all_units;
@@ -53,11 +61,28 @@ private List<Unit> _sorted_all_units;
 // unit->constraint which defines that unit
 private Map<Unit,Constraint> _formulas = new LinkedHashMap<Unit, Constraint>();
 
+/** the formulas of the last solve (unit -> what it is equal to), kept when the formulas are cleared
+ * for the next solve, so that it can tell which formulas changed. null if there were none */
+private transient Map<Unit, Dimensions> _last_formulas;
+
+/** units whose formula was added, changed or dropped by the last solve, compared to the formulas
+ * before it, which may have come from a units file. null if not solved yet.
+ * in -gr runs makeGolden solves first and then starts a new constraint set, so the changes of
+ * the run's final solve are not relative to the input file: every formula counts as new */
+private Set<Unit> _changed_formulas;
+
 /** this is mapping unit u -> collection of constraints with unit u (incl. formula for u ?) */
 private Map<Unit,Collection<Constraint>> _units_to_constraints_map = new LinkedHashMap<Unit,Collection<Constraint>>();
 
 public Map<Unit,Constraint> formulas() { return _formulas; }
 
+/** the formulas of the last solve, recorded when they were cleared for this one (see _last_formulas);
+ * null if there were none, e.g. on a fresh run. only valid between prepare_to_solve and note_changed_formulas */
+Map<Unit, Dimensions> last_formulas() { return _last_formulas; }
+
+/** see _changed_formulas */
+public Set<Unit> changed_formulas() { return _changed_formulas; }
+
 public Collection<Constraint> constraints() { return _c; }
 
 // recomputes unit order, placing non preferred units after preferred units
@@ -89,6 +114,7 @@ private void recompute_units_order(Collection<Unit> preferred_units)
  */
 public void delete_constraints_not_involving(Collection<Unit> units)
 {
+    _keys = null;
     outer:
     for (Iterator<Constraint> it = _c.iterator(); it.hasNext(); )
     {
@@ -119,13 +145,32 @@ public List<Unit> sorted_all_units()
 
 public Map<Unit,Collection<Constraint>> map() { return _units_to_constraints_map; }
 
+/** returns the given units and all units connected to them through constraints, i.e. the units
+ * whose formulas a change to the given units can affect */
+public Set<Unit> units_connected_to(Collection<Unit> units)
+{
+    Set<Unit> result = new LinkedHashSet<Unit>(units);
+    List<Unit> worklist = new ArrayList<Unit>(units);
+    while (!worklist.isEmpty())
+    {
+        Collection<Constraint> cons = _units_to_constraints_map.get (worklist.remove (worklist.size()-1));
+        if (cons == null)
+            continue;
+        for (Constraint c : cons)
+            for (Dimension d : c.dimensions())
+                if (result.add (d.unit()))
+                    worklist.add (d.unit());
+    }
+    return result;
+}
+
 // add the mapping u->c in the units to constraints map
 private void units_to_constraints_map_add (Unit u, Constraint c)
 {
-    List a = (List) _units_to_constraints_map.get (u);
+    Collection<Constraint> a = _units_to_constraints_map.get (u);
     if (a == null)
     {
-        a = new ArrayList<Constraint>();
+        a = new LinkedHashSet<Constraint>();
         _units_to_constraints_map.put (u, a);
     }
 
@@ -189,6 +234,7 @@ private void remove_empty_constraints()
  */
 private void flatten()
 {
+    _keys = null;
     for (Constraint c : _c)
         c.flatten();
 
@@ -205,6 +251,7 @@ private void flatten()
 private void rewrite_constraints (Map<Unit, Unit> replace_map)
 {
     Util.ASSERT (_units_to_constraints_map != null);
+    _keys = null;
 
     // First verify that no value is also a key
     // extract values into a set
@@ -287,7 +334,7 @@ private Map<Unit, Unit> compute_preferred_rep_map(Map<Unit,List<Unit>> reps, Col
 */
 public void prepare_to_solve(Map<Unit,List<Unit>> reps, Collection<Unit> preferred_units)
 {
-    _formulas.clear();
+    clear_formulas();
     verify();
 
     Map<Unit, Unit> preferred_rep_map = compute_preferred_rep_map (reps, preferred_units);
@@ -296,6 +343,7 @@ public void prepare_to_solve(Map<Unit,List<Unit>> reps, Collection<Unit> preferr
     logger.info (_c.size() + " constraints after rewriting compound constraints with preferred units and before flattening");
     flatten();
     logger.info (_c.size() + " constraints after flattening compound constraints");
+    remove_duplicate_constraints();
 
     // after flattening there shd be no mult units left.
     for (Constraint c : _c)
@@ -310,6 +358,122 @@ public void prepare_to_solve(Map<Unit,List<Unit>> reps, Collection<Unit> preferr
     verify();
 }
 
+/** a constraint's terms with units replaced by their reps and exponents scaled to coprime
+ * integers. constraints with equal keys say the same thing (they are the same up to a
+ * possibly negative factor), so only one of them needs to be kept. */
+private static class Key {
+    private final Dimensions d;
+    private final int hash;
+
+    Key (Dimensions dims)
+    {
+        d = to_coprime_integers (with_reps (dims));
+
+        // independent of the sign of the exponents
+        int h = 0;
+        for (Dimension dim : d)
+        {
+            Fraction e = dim.exponent();
+            h += dim.unit().hashCode() ^ ((e.signum() < 0) ? e.negated() : e).hashCode();
+        }
+        hash = h;
+    }
+
+    /** dims with units replaced by their reps. dims itself if two of the reps are different units
+     * that are equal, as when a units file is read and the same classes are analyzed again */
+    private static Dimensions with_reps (Dimensions dims)
+    {
+        Map<Unit, Unit> reps_seen = new HashMap<Unit, Unit>();
+        for (Dimension dim : dims)
+        {
+            Unit rep = (Unit) dim.unit().find();
+            Unit seen = reps_seen.put (rep, rep);
+            if (seen != null && seen != rep)
+                return dims;
+        }
+
+        Dimensions reps = new Dimensions();
+        for (Dimension dim : dims)
+            reps.merge_dim ((Unit) dim.unit().find(), dim.exponent());
+        return reps;
+    }
+
+    /** d scaled so that its exponents are integers with no common factor.
+     * d itself if it already is, or if the exponents are too big for that */
+    private static Dimensions to_coprime_integers (Dimensions d)
+    {
+        long lcm = 1, gcd = 0;
+        try {
+            for (Dimension dim : d)
+            {
+                long den = dim.exponent().get_denominator();
+                lcm = Math.multiplyExact(lcm / Fraction.gcd(lcm, den), den);
+            }
+            for (Dimension dim : d)
+            {
+                Fraction e = dim.exponent();
+                gcd = Fraction.gcd(gcd, Math.abs(Math.multiplyExact((long) e.get_numerator(), lcm / e.get_denominator())));
+            }
+        } catch (ArithmeticException ae) {
+            return d;
+        }
+        if (gcd == 0 || lcm == gcd)
+            return d;
+
+        Fraction scale = Fraction.valueOf(lcm, gcd);
+        Dimensions scaled = new Dimensions();
+        for (Dimension dim : d)
+            scaled.merge_dim (dim.unit(), dim.exponent().times(scale));
+        return scaled;
+    }
+
+    public int hashCode() { return hash; }
+
+    public boolean equals (Object o)
+    {
+        if (!(o instanceof Key))
+            return false;
+        Key other = (Key) o;
+        if (hash != other.hash || d.size() != other.d.size())
+            return false;
+        if (d.equals (other.d))
+            return true;
+        // same up to sign ?
+        for (Dimension dim : d)
+            if (!dim.exponent().negated().equals(other.d.exponent_of(dim.unit())))
+                return false;
+        return true;
+    }
+}
+
+/** the keys of the constraints in _c */
+private Set<Key> keys()
+{
+    if (_keys == null)
+    {
+        _keys = new HashSet<Key>();
+        for (Constraint c : _c)
+            _keys.add (new Key(c.dimensions()));
+    }
+    return _keys;
+}
+
+/** removes constraints that say the same thing as an earlier one */
+private void remove_duplicate_constraints()
+{
+    _keys = new HashSet<Key>();
+    int n_before = _c.size();
+    for (Iterator<Constraint> it = _c.iterator(); it.hasNext(); )
+        if (!_keys.add (new Key(it.next().dimensions())))
+            it.remove();
+
+    _keys = null; // the solver rewrites the constraints next
+    if (_c.size() != n_before)
+        recompute_units_to_constraints_map();
+    logger.info ((n_before - _c.size()) + " duplicate constraints removed after flattening, "
+                 + n_duplicates + " dropped when added, " + _c.size() + " constraints left");
+}
+
 // add a constraint u = u1 * u2^coeff
 // also adds u, u1, u2 to the set _all_units if they don't already exist.
 public void add_constraint (Unit u, Unit u1, Unit u2, Fraction coeff)
@@ -329,9 +493,11 @@ private void add_constraint (Unit u, Dimensions d)
 // the unit->constraint hashmap's.
 public void add_constraint (Constraint c)
 {
-    if (_c.contains (c))
+    if (!keys().add (new Key(c.dimensions())))
     {
-        System.out.println ("OK, we got a duplicate constraint: " + c);
+        n_duplicates++;
+        if (logger.isLoggable(Level.FINE))
+            logger.fine ("dropping duplicate constraint: " + c);
         return;
     }
 
@@ -349,8 +515,9 @@ public void add_constraint (Constraint c)
 public void delete_constraint (Constraint c)
 {
     System.out.println ("deleting constraint " + c);
-    Util.ASSERT (_c.contains(c));
-    _c.remove (c);
+    boolean removed = _c.remove (c);
+    Util.ASSERT (removed);
+    _keys = null;
     for (Iterator it = c.dimensions().iterator(); it.hasNext(); )
     {
         Dimension dim = (Dimension) it.next();
@@ -367,6 +534,57 @@ public void add_formula (Unit u, Constraint c)
     c.set_is_formula (true);
 }
 
+/** replaces all constraints with the given formulas (unit -> constraint with the unit and its formula),
+ * which must be a solution of the current constraints, e.g. from SparseSolver */
+public void set_formulas (Map<Unit, Constraint> formulas)
+{
+    _c.clear();
+    _keys = null;
+    _formulas.clear();
+    _units_to_constraints_map.clear();
+    for (Map.Entry<Unit, Constraint> me : formulas.entrySet())
+    {
+        add_constraint (me.getValue());
+        add_formula (me.getKey(), me.getValue());
+    }
+}
+
+/** clears the formulas, remembering them in _last_formulas */
+private void clear_formulas()
+{
+    if (!_formulas.isEmpty())
+    {
+        _last_formulas = new LinkedHashMap<Unit, Dimensions>();
+        for (Map.Entry<Unit, Constraint> me : _formulas.entrySet())
+            _last_formulas.put (me.getKey(), me.getValue().dimensions().solve_for(me.getKey()));
+    }
+    _formulas.clear();
+}
+
+/** to be called after solving: compares the formulas with the ones before (see _changed_formulas) */
+public void note_changed_formulas()
+{
+    Map<Unit, Dimensions> last = (_last_formulas != null) ? _last_formulas : new LinkedHashMap<Unit, Dimensions>();
+    Set<Unit> changed = new LinkedHashSet<Unit>();
+    for (Map.Entry<Unit, Constraint> me : _formulas.entrySet())
+    {
+        Unit u = me.getKey();
+        if (!me.getValue().dimensions().solve_for(u).equals(last.get(u)))
+            changed.add (u);
+    }
+    int n_dropped = 0;
+    for (Unit u : last.keySet())
+        if (!_formulas.containsKey(u))
+        {
+            changed.add (u);
+            n_dropped++;
+        }
+
+    _changed_formulas = changed;
+    _last_formulas = null;
+    logger.info (_formulas.size() + " formulas, " + (changed.size() - n_dropped) + " of them new or changed, " + n_dropped + " dropped");
+}
+
 // rewrites all constraints involving u with d
 // (except for the one this unit maps to in the formulas map)
 public void rewrite_unit (Unit u, Dimensions dims)
@@ -378,6 +596,7 @@ public void rewrite_unit (Unit u, Dimensions dims)
     */
 
     System.out.println ("about to replace " + u + " with " + dims);
+    _keys = null;
 
     Collection<Constraint> a = _units_to_constraints_map.get(u);
     if (a == null)
@@ -521,7 +740,7 @@ public String get_constraints_as_string()
 
 public void initialize()
 {
-    _formulas.clear();
+    clear_formulas();
     for (Constraint c : _c)
         c.set_is_formula(false);
 }
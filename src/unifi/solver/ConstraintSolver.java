@@ -18,12 +18,32 @@ package unifi.solver;
 
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
 import unifi.*;
 import unifi.drivers.Analyze;
 import unifi.units.Unit;
+import unifi.util.Util;
 
 public class ConstraintSolver {
 
+private static Logger logger = Logger.getLogger("unifi.constraints");
+
+/** which solver to use: sparse (default, see SparseSolver), old (eliminate one unit at a time
+ * on the constraint objects, below), or check (use old, but also run sparse and compare the formulas) */
+public static final String SOLVER = System.getProperty("unifi.solver", "sparse");
+private static final boolean PARANOID = Boolean.getBoolean("unifi.paranoid");
+/** # of threads the connected components of the constraint set are solved on by the sparse solver */
+private static final int N_THREADS = Integer.getInteger("unifi.solver.threads", 1);
+/** # of components whose statistics are logged at INFO level, the rest are logged at FINE */
+private static final int N_COMPONENTS_REPORTED = 10;
+
 public ConstraintSet _cs;
 
 // returns a constraint which can act as a formula for u
@@ -77,10 +97,11 @@ private void eliminate (Unit u)
     c.verify(); // do not call c.verify here, because c may have null dimensions - it's waiting to be removed
     // now rewrite all other constraints with with the solved version of u.
     _cs.rewrite_unit (u, d);
-    _cs.verify(); // TODO: EXPENSIVE - remove
+    if (PARANOID)
+        _cs.verify();
 }
 
-private void draw_inferences ()
+void draw_inferences ()
 {
     // this iteration should eventually be in a canonical order
     for (Unit u : _cs.sorted_all_units())
@@ -98,11 +119,150 @@ public void solve_constraints (UnitCollection uc)
     // we should probably remove all dimensionless units here!
     _cs.verify();
 
-    draw_inferences();
+    if ("old".equals(SOLVER))
+        draw_inferences();
+    else if ("check".equals(SOLVER))
+    {
+        Map<Unit, Constraint> sparse_formulas = solve_sparse();
+        draw_inferences();
+        check_formulas (sparse_formulas);
+    }
+    else
+    {
+        Util.ASSERT ("sparse".equals(SOLVER), "unknown unifi.solver: " + SOLVER);
+        try {
+            _cs.set_formulas (solve_sparse());
+            _cs.mark_dimensionless_units();
+        } catch (ArithmeticException ae) {
+            Util.warn ("exponents overflowed in sparse constraint solver, using the old one: " + ae);
+            draw_inferences();
+        }
+    }
+    _cs.note_changed_formulas();
     System.out.println ("***************** CONSTRAINTS AFTER solving");
     System.out.println (_cs);
 }
 
+/** solves _cs with SparseSolver, one connected component at a time, on N_THREADS threads.
+ * components that are already solved are only read off (see SparseSolver.solve).
+ * returns the formulas in the same order as a single solver for all of _cs would */
+private Map<Unit, Constraint> solve_sparse ()
+{
+    long start = System.currentTimeMillis();
+    List<SparseSolver> components = SparseSolver.for_components (_cs);
+    long split_millis = System.currentTimeMillis() - start;
+
+    List<Map<Unit, Constraint>> results = new ArrayList<Map<Unit, Constraint>>();
+    int n_threads = Math.min(N_THREADS, components.size());
+    if (n_threads <= 1)
+    {
+        for (SparseSolver s : components)
+            results.add (s.solve());
+    }
+    else
+    {
+        ExecutorService pool = Executors.newFixedThreadPool (n_threads);
+        try {
+            List<Future<Map<Unit, Constraint>>> futures = new ArrayList<Future<Map<Unit, Constraint>>>();
+            for (final SparseSolver s : components)
+                futures.add (pool.submit (new Callable<Map<Unit, Constraint>>() {
+                    public Map<Unit, Constraint> call() { return s.solve(); }
+                }));
+            for (Future<Map<Unit, Constraint>> f : futures)
+                results.add (f.get());
+        } catch (InterruptedException ie) {
+            Util.fatal ("Interrupted while solving constraints", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof ArithmeticException)
+                throw (ArithmeticException) ee.getCause();
+            Util.fatal ("Error while solving constraints", ee);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // merge, in elimination order
+    Map<Unit, Constraint> all = new HashMap<Unit, Constraint>();
+    for (Map<Unit, Constraint> m : results)
+        all.putAll (m);
+    Map<Unit, Constraint> formulas = new LinkedHashMap<Unit, Constraint>();
+    for (Unit u : _cs.sorted_all_units())
+    {
+        Constraint c = all.get(u);
+        if (c != null)
+            formulas.put (u, c);
+    }
+
+    report_components (components, split_millis, System.currentTimeMillis() - start, n_threads);
+    return formulas;
+}
+
+private static void report_components (List<SparseSolver> components, long split_millis, long total_millis, int n_threads)
+{
+    List<SparseSolver> by_size = new ArrayList<SparseSolver>(components);
+    Collections.sort (by_size, new Comparator<SparseSolver>() {
+        public int compare (SparseSolver s1, SparseSolver s2) { return s2.n_units() - s1.n_units(); }
+    });
+
+    long n_formulas = 0, n_combines = 0, solve_millis = 0;
+    int n_already_solved = 0;
+    for (int i = 0; i < by_size.size(); i++)
+    {
+        SparseSolver s = by_size.get(i);
+        n_formulas += s.n_formulas();
+        n_combines += s.n_combines();
+        solve_millis += s.millis();
+        if (s.already_solved())
+            n_already_solved++;
+        Level level = (i < N_COMPONENTS_REPORTED) ? Level.INFO : Level.FINE;
+        if (logger.isLoggable(level))
+            logger.log (level, "Constraint component " + (i+1) + ": " + s.n_units() + " units, " + s.n_constraints() + " constraints, "
+                               + s.n_formulas() + " eliminations, " + s.n_combines() + " row combinations, " + s.millis() + "ms"
+                               + (s.already_solved() ? " (already solved)" : ""));
+    }
+    logger.info ("Sparse solver: " + components.size() + " components, " + n_already_solved + " already solved (largest " + (by_size.isEmpty() ? 0 : by_size.get(0).n_units())
+                 + " units), " + n_formulas + " formulas, " + n_combines + " row combinations, "
+                 + split_millis + "ms to split, " + solve_millis + "ms solving, " + total_millis + "ms total on " + Math.max(n_threads, 1) + " threads");
+}
+
+/** compares the formulas in _cs with the given ones and logs the ones that are different */
+private void check_formulas (Map<Unit, Constraint> other_formulas)
+{
+    int n_mismatches = 0;
+    Set<Unit> all = new LinkedHashSet<Unit>(_cs.formulas().keySet());
+    all.addAll (other_formulas.keySet());
+    for (Unit u : all)
+    {
+        Constraint c1 = _cs.formulas().get(u), c2 = other_formulas.get(u);
+        Dimensions d1 = (c1 == null) ? null : c1.dimensions().solve_for(u);
+        Dimensions d2 = (c2 == null) ? null : c2.dimensions().solve_for(u);
+        if (!same_dimensions (d1, d2))
+        {
+            n_mismatches++;
+            logger.warning ("Solver check: formula for " + u.short_toString() + " is " + d1 + ", sparse solver has " + d2);
+        }
+    }
+    String s = "Solver check: " + _cs.formulas().size() + " formulas, " + other_formulas.size() + " from sparse solver, " + n_mismatches + " different";
+    if (n_mismatches > 0)
+        Util.warn (s);
+    else
+        logger.info (s);
+}
+
+static boolean same_dimensions (Dimensions d1, Dimensions d2)
+{
+    if (d1 == null || d2 == null)
+        return d1 == d2;
+    if (d1.size() != d2.size())
+        return false;
+    for (Dimension dim : d1)
+    {
+        if (!dim.exponent().equals(d2.exponent_of(dim.unit())))
+            return false;
+    }
+    return true;
+}
+
 // stub main method to read directly from a .units file and perform only the constraint solving part of it */
 public static void main(String args[])
 {
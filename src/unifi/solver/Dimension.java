@@ -23,9 +23,11 @@ import unifi.util.Util;
 /** a dimension is a unit with an exponent
  */
 public class Dimension implements Cloneable, Serializable {
+private static final long serialVersionUID = -5011667536956556060L;
+
 Unit _u;
 Fraction _exponent;
-public Dimension (Unit u, int coeff) { _u = u; _exponent = new Fraction(coeff); }
+public Dimension (Unit u, int coeff) { _u = u; _exponent = Fraction.valueOf(coeff); }
 public Dimension (Unit u, Fraction exp) { _u = u; _exponent = exp; }
 public boolean equals (Object o)
 {
@@ -38,7 +40,8 @@ public Fraction exponent() { return _exponent; }
 public void set_exponent(Fraction e) { _exponent = e; }
 public Object clone()
 {
-    try { Dimension d = (Dimension) super.clone(); d._exponent = (Fraction) _exponent.clone(); return d;}
+    // the exponent is immutable, it can be shared
+    try { return super.clone(); }
     catch (CloneNotSupportedException cnse)
     { Util.ASSERT (false); return null;}
 }
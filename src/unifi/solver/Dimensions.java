@@ -17,14 +17,16 @@ limitations under the License.
 package unifi.solver;
 
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
-import java.util.LinkedHashSet;
 import java.util.Map;
-import java.util.Set;
 
 import unifi.units.MultUnit;
 import unifi.units.Unit;
@@ -33,10 +35,21 @@ import unifi.util.Util;
 /**
  * a Dimensions object is a multiple of dimension objects.
  * each dimension object is a unit raised to a fraction.
+ * the dimensions are kept in a map from unit to dimension, in the order their units were
+ * first added, so looking up, merging or removing a unit is O(1).
+ * two dimensions objects are equal if they have the same units with the same exponents.
  */
 public class Dimensions implements Serializable, Iterable<Dimension> {
 
-private Collection<Dimension> _dims = new ArrayList<Dimension>();
+private static final long serialVersionUID = 206207100785301207L;
+
+/** check the invariants after every change (slow) */
+private static final boolean PARANOID = Boolean.getBoolean("unifi.paranoid");
+
+// serialized as before, as a collection of dimensions in _dims (see writeObject)
+private static final ObjectStreamField[] serialPersistentFields = { new ObjectStreamField("_dims", Collection.class) };
+
+private transient Map<Unit, Dimension> _dims = new LinkedHashMap<Unit, Dimension>(4);
 
 public Dimensions () { /* */ }
 
@@ -44,22 +57,22 @@ public Dimensions () { /* */ }
 public Dimensions (Unit u1, Unit u2, int coeff)
 {
 	Util.ASSERT(coeff != 0);
-    _dims.add (new Dimension(u1, 1));
-    merge_dim (u2, new Fraction(coeff));
+    _dims.put (u1, new Dimension(u1, 1));
+    merge_dim (u2, Fraction.valueOf(coeff));
 }
 
 // creates a dimension s object u1 * u2^coeff
 public Dimensions (Unit u1, Unit u2, Fraction coeff)
 {
 	Util.ASSERT(!coeff.equals_zero());
-    _dims.add (new Dimension(u1, 1));
+    _dims.put (u1, new Dimension(u1, 1));
     merge_dim (u2, coeff);
 }
 
 // creates a dimension s object u^1
 public Dimensions (Unit u)
 {
-    _dims.add (new Dimension(u, 1));
+    _dims.put (u, new Dimension(u, 1));
 }
 
 public int size() { return _dims.size(); }
@@ -71,8 +84,8 @@ public int get_n_dimensions () { return _dims.size(); }
 public void flatten()
 {
 	verify();
-    Collection<Dimension> old_dims = _dims;
-    _dims = new ArrayList<Dimension>();
+    Collection<Dimension> old_dims = _dims.values();
+    _dims = new LinkedHashMap<Unit, Dimension>(4);
 
     for (Dimension d : old_dims)
     {
@@ -81,7 +94,7 @@ public void flatten()
     }
 
     // ensure there are no mult units remaining
-    for (Dimension d :_dims)
+    for (Dimension d :_dims.values())
     {
         Util.ASSERT (!(d.unit() instanceof MultUnit));
         Util.ASSERT(!d.exponent().equals_zero());
@@ -94,26 +107,23 @@ public void flatten()
 public Object clone ()
 {
     Dimensions d = new Dimensions();
-    for (Iterator it = _dims.iterator(); it.hasNext(); )
-    {
-        Dimension d1 = (Dimension) it.next();
-        d._dims.add ((Dimension) d1.clone());
-    }
+    for (Dimension d1 : _dims.values())
+        d._dims.put (d1.unit(), (Dimension) d1.clone());
     return d;
 }
 
 public Iterator<Dimension> iterator()
 {
-    return _dims.iterator();
+    return _dims.values().iterator();
 }
 
 // scales each dimension's exponent by a factor of x
 public void scale (int x)
 {
 	Util.ASSERT(x != 0);
-    Fraction f = new Fraction(x);
-    for (Dimension d : _dims)
-        d.exponent().multiply(f);
+    Fraction f = Fraction.valueOf(x);
+    for (Dimension d : _dims.values())
+        d.set_exponent (d.exponent().times(f));
 }
 
 /** adds unit u with fraction f, recursively flattening
@@ -121,7 +131,8 @@ public void scale (int x)
  */
 private void add_flattened(Unit u, Fraction f)
 {
-	verify();
+    if (PARANOID)
+        verify();
     if (u instanceof MultUnit)
     {
         MultUnit mu = (MultUnit) u;
@@ -132,10 +143,7 @@ private void add_flattened(Unit u, Fraction f)
 
         add_flattened (unit_a, f);
 
-        // Fraction f1 = new Fraction(coeff);
-        // be careful not to modify original coeff passed in - was a bug earlier!
-        Fraction coeff = (Fraction) mu.get_coeff().clone();
-        coeff.multiply(f);
+        Fraction coeff = mu.get_coeff().times(f);
     }
     else
         merge_dim (u, f);
@@ -150,43 +158,24 @@ public void merge_dim (Dimension d)
 /** adds a dimension with unit u and exp f to this */
 public void merge_dim (Unit u, Fraction f)
 {
-    verify();
-
     Util.ASSERT (f != null);
     // f can be zero sometimes, if so don't add it to this, breaks the invariant that no exponent is 0
     if (f.equals_zero())
     	return;
 
-    Dimension x = null;
-
-    boolean found = false;
-    for (Iterator it = _dims.iterator(); it.hasNext(); )
-    {
-        x = (Dimension) it.next();
-    	Util.ASSERT((x.unit() == u) == (x.unit().equals(u)));
-    	Util.ASSERT (x.equals(x));
-    	if (x.unit() == u)
-        {
-            found = true;
-            break;
-        }
-    }
-
-    if (!found)
-    {
-    	Util.ASSERT(!f.equals_zero());
-        _dims.add (new Dimension (u, f));
-    }
+    Dimension x = _dims.get(u);
+    if (x == null)
+        _dims.put (u, new Dimension (u, f));
     else
     {
-        x.exponent().add(f);
+        Util.ASSERT (x.unit() == u, "different units are equal: " + u + ", " + x.unit());
+        x.set_exponent (x.exponent().plus(f));
         if (x.exponent().equals_zero())
-        {
-        	boolean removed = _dims.remove (x);
-        	Util.ASSERT(removed);
-        }
+            _dims.remove (u);
     }
-    verify();
+
+    if (PARANOID)
+        verify();
 }
 
 /** merge this dims with another dims d.
@@ -195,60 +184,37 @@ public void merge_dim (Unit u, Fraction f)
  */
 public void merge_dims (Dimensions d, Fraction mult)
 {
-    d.verify();
-    for (Iterator it = d.iterator(); it.hasNext(); )
-    {
-        Dimension dim = (Dimension) it.next();
-        dim = (Dimension) dim.clone();
-        Unit u = dim.unit();
-        dim.exponent().multiply (mult);
-        merge_dim (u, dim.exponent());
-//        System.out.println ("after merge of " + u + "^" + dim.exponent() + ", this = " + this);
-    }
-
-    this.verify();
+    if (PARANOID)
+        d.verify();
+    for (Dimension dim : d._dims.values())
+        merge_dim (dim.unit(), dim.exponent().times(mult));
 }
 
 // recomputes this dimensions object with reps in place
 // of the original units.
 public void update_with_reps ()
 {
-    Map<Unit,Fraction> map = new LinkedHashMap<Unit,Fraction>();
+    Map<Unit, Dimension> old_dims = _dims;
+    _dims = new LinkedHashMap<Unit, Dimension>(4);
 
-    for (Iterator it = _dims.iterator(); it.hasNext(); )
+    for (Dimension d : old_dims.values())
     {
-        Dimension d = (Dimension) it.next();
-        Unit u = d.unit();
-        u = (Unit) u.find();
-        /*
-        if (u instanceof MultUnit)
-        {
-            MultUnit mu = (MultUnit) u;
-            Unit a = mu.get_unit_a();
-            Unit b = mu.get_unit_b();
-        }
-        else
-        */
-        {
-        Fraction f = d.exponent();
-        Fraction f1 = map.get(u);
-        if (f1 == null)
-            map.put (u, f);
+        Unit u = (Unit) d.unit().find();
+        Dimension d1 = _dims.get(u);
+        if (d1 == null)
+            _dims.put (u, new Dimension (u, d.exponent()));
         else
-           f1.add (f);
-        }
+            d1.set_exponent (d1.exponent().plus(d.exponent()));
     }
 
-    _dims.clear();
-
-    for (Map.Entry<Unit,Fraction> me : map.entrySet())
+    for (Iterator<Dimension> it = _dims.values().iterator(); it.hasNext(); )
     {
-        Unit u = me.getKey();
-        Fraction f = me.getValue();
-        if (f.equals_zero())
-        	System.out.println ("Dropping exp 0 unit: " + u);
-//        _dims.add (new Dimension (u, f));
-        merge_dim (u, f);
+        Dimension d = it.next();
+        if (d.exponent().equals_zero())
+        {
+        	System.out.println ("Dropping exp 0 unit: " + d.unit());
+        	it.remove();
+        }
     }
 }
 
@@ -257,22 +223,14 @@ as a component
 */
 public boolean is_derived_from (Unit u)
 {
-    for (Dimension d : _dims)
-    {
-        if (d.unit().equals (u))
-            return true;
-    }
-    return false;
+    return _dims.containsKey(u);
 }
 
 // returns exponent of this unit if it is present in this Dimensions object; if it is not, returns null.
 public Fraction exponent_of (Unit u)
 {
-    // get exponent of the unit u in this dimensions
-    for (Dimension dim : _dims)
-        if (dim.unit() == u)
-            return dim.exponent();
-    return null;
+    Dimension dim = _dims.get(u);
+    return (dim == null) ? null : dim.exponent();
 }
 
 /** returns a new dimensions object, eliminating unit u
@@ -290,15 +248,10 @@ public Dimensions solve_for (Unit u)
 
     // exp is the exponent of u in this
     // for all other units u, add U^-(1/exp) to the returned dimensions
-    for (Dimension dim : _dims)
+    for (Dimension dim : _dims.values())
     {
         if (dim.unit() != u)
-        {
-            dim = (Dimension) dim.clone();
-            dim.exponent().divide (exp);
-            dim.exponent().multiply (new Fraction(-1));
-            new_dims.merge_dim (dim);
-        }
+            new_dims.merge_dim (dim.unit(), dim.exponent().divided_by(exp).negated());
     }
 
     return new_dims;
@@ -307,25 +260,13 @@ public Dimensions solve_for (Unit u)
 /** replace unit u in this dimensions with dims */
 public void rewrite (Unit u, Dimensions replace_dims)
 {
-    Fraction exp = null;
-
     // remove the dim corresponding to unit u
-    for (Dimension dim : _dims)
-    {
-        if (dim.unit().equals (u))
-        {
-            exp = dim.exponent();
-            // safe to remove during iteration because
-            // we are going to break out
-            _dims.remove (dim);
-            break;
-        }
-    }
-    Util.ASSERT (exp != null);
+    Dimension dim = _dims.remove(u);
+    Util.ASSERT (dim != null);
 
     // and replace with the dimensions in d, raised to the
     // same exponent u had
-    merge_dims (replace_dims, exp);
+    merge_dims (replace_dims, dim.exponent());
 }
 
 // remove the unit u from this object, regardless of exponent.
@@ -334,20 +275,7 @@ public void rewrite (Unit u, Dimensions replace_dims)
 // u *must* be part of this object
 public boolean delete_unit (Unit u)
 {
-    boolean found = false;
-
-    for (Iterator it = _dims.iterator(); it.hasNext(); )
-    {
-        Dimension dim = (Dimension) it.next();
-        Unit u1 = dim.unit();
-        if (u1.equals(u))
-        {
-            _dims.remove (dim);
-            found = true;
-            break;
-        }
-    }
-
+    boolean found = (_dims.remove(u) != null);
     Util.ASSERT (found, "map is screwed up, trying to remove unit from a dimensions object which it is not a part of");
 
     return (_dims.size() > 0);
@@ -355,14 +283,31 @@ public boolean delete_unit (Unit u)
 
 public int hashCode ()
 {
-    return 0;
+    // independent of the order of the dimensions
+    int code = 0;
+    for (Dimension d : _dims.values())
+        code += d.unit().hashCode() ^ d.exponent().hashCode();
+    return code;
+}
+
+public boolean equals (Object o)
+{
+    if (!(o instanceof Dimensions))
+        return false;
+    Dimensions other = (Dimensions) o;
+    if (other._dims.size() != _dims.size())
+        return false;
+    for (Dimension d : _dims.values())
+        if (!d.exponent().equals(other.exponent_of(d.unit())))
+            return false;
+    return true;
 }
 
 public String neat_toString()
 {
     StringBuilder sb = new StringBuilder();
-    for (Iterator it = _dims.iterator(); it.hasNext(); )
-        sb.append ("  " + ((Dimension)it.next()).reverse_short_toString() + "\n");
+    for (Dimension d : _dims.values())
+        sb.append ("  " + d.reverse_short_toString() + "\n");
     return sb.toString();
 }
 
@@ -370,9 +315,9 @@ public String toString()
 {
     StringBuffer sb = new StringBuffer("[");
 
-    for (Iterator it = _dims.iterator(); it.hasNext(); )
+    for (Iterator<Dimension> it = _dims.values().iterator(); it.hasNext(); )
     {
-        sb.append (((Dimension)it.next()).short_toString());
+        sb.append (it.next().short_toString());
         if (it.hasNext())
             sb.append (" * ");
     }
@@ -383,25 +328,31 @@ public String toString()
 
 public void verify ()
 {
-    Set<Unit> seenUnits = new LinkedHashSet<Unit>();
-
-//    Util.ASSERT (_dims.size() > 0);
-
-    for (Iterator it = _dims.iterator(); it.hasNext(); )
+    for (Map.Entry<Unit, Dimension> me : _dims.entrySet())
     {
-        Dimension d = (Dimension) it.next();
+        Dimension d = me.getValue();
         Unit u = d.unit();
         if (d.exponent().equals_zero())
             Util.die ("FAIL: exponent is 0 for unit " + u + " in dimensions: \n" + d); // Important invariant
-
-        if (seenUnits.contains (u))
-        {
-        	System.out.println ("dims.size = " + _dims.size() + "\n");
-        	System.out.println ("u equals itself = " + u.equals(u) + "\n");
-        	Util.die ("duplicate unit " + u + " in dimensions: \n" + this);
-        }
-        seenUnits.add (u);
+        if (me.getKey() != u)
+            Util.die ("unit " + u + " is under " + me.getKey() + " in dimensions: \n" + this);
     }
 }
 
+private void writeObject (ObjectOutputStream out) throws IOException
+{
+    ObjectOutputStream.PutField fields = out.putFields();
+    fields.put ("_dims", new ArrayList<Dimension>(_dims.values()));
+    out.writeFields();
+}
+
+@SuppressWarnings("unchecked")
+private void readObject (ObjectInputStream in) throws IOException, ClassNotFoundException
+{
+    Collection<Dimension> dims = (Collection<Dimension>) in.readFields().get("_dims", null);
+    _dims = new LinkedHashMap<Unit, Dimension>(4);
+    for (Dimension d : dims)
+        _dims.put (d.unit(), d);
+}
+
 }
@@ -16,32 +16,48 @@ limitations under the License.
 
 package unifi.solver;
 import java.io.Serializable;
+import java.math.BigInteger;
 
 import unifi.util.Util;
 
-/** represents a reduced fraction, denominator shd never be -ve and always in reduced form,
-i.e. numerator and denominator should not have a common factor
-*/
-public class Fraction implements Cloneable, Serializable {
+/** an immutable rational number, always in reduced form: the denominator is positive
+ * and has no common factor with the numerator.
+ * numerator and denominator are ints; results of arithmetic that don't fit in ints are kept
+ * as BigIntegers instead (see Big), so arithmetic never overflows.
+ * small integers are cached, use valueOf rather than the constructors where it matters.
+ */
+public class Fraction implements Serializable {
 
-int _numerator, _denominator;
+private static final long serialVersionUID = -758876060282480293L;
 
-// create a fraction n/d
-public Fraction (int n, int d)
-{
-    _numerator = n;
-    _denominator = d;
-    reduce();
+private static final int CACHE_LOW = -128, CACHE_HIGH = 127;
+private static final Fraction[] cache = new Fraction[CACHE_HIGH - CACHE_LOW + 1];
+static {
+    for (int i = 0; i < cache.length; i++)
+        cache[i] = new Fraction(i + CACHE_LOW, 1, true);
 }
 
-public int get_numerator()
-{
-	return _numerator;
-}
+public static final Fraction ZERO = valueOf(0), ONE = valueOf(1), MINUS_ONE = valueOf(-1);
 
-public int get_denominator()
+final int _numerator, _denominator;
+
+// create a fraction n/d
+public Fraction (int n, int d)
 {
-	return _denominator;
+    Util.ASSERT (d != 0, "fraction with 0 denominator");
+    long num = n, den = d;
+    if (den < 0)
+    {
+        num = -num;
+        den = -den;
+    }
+    long g = gcd (Math.abs(num), den);
+    num /= g;
+    den /= g;
+    if (num != (int) num || den != (int) den)
+        throw new ArithmeticException("fraction " + n + "/" + d + " does not fit in ints");
+    _numerator = (int) num;
+    _denominator = (int) den;
 }
 
 // create a fraction n/1
@@ -51,70 +67,139 @@ public Fraction (int n)
     _denominator = 1;
 }
 
-public Object clone ()
+/** n/d, which must already be reduced */
+private Fraction (int n, int d, boolean reduced)
+{
+    _numerator = n;
+    _denominator = d;
+}
+
+public static Fraction valueOf (int n)
 {
-    try {
-        return super.clone();
-    } catch (CloneNotSupportedException c) { Util.die (); return null; }
+    return (n >= CACHE_LOW && n <= CACHE_HIGH) ? cache[n - CACHE_LOW] : new Fraction(n, 1, true);
 }
 
-public void reduce ()
+/** the fraction n/d, reduced */
+public static Fraction valueOf (long n, long d)
 {
-    // denom shd never be -ve
-    if (_denominator < 0)
+    if (d == 0)
+        throw new ArithmeticException("fraction with 0 denominator");
+    if (n == Long.MIN_VALUE || d == Long.MIN_VALUE)
+        return valueOf (BigInteger.valueOf(n), BigInteger.valueOf(d));
+    if (d < 0)
+    {
+        n = -n;
+        d = -d;
+    }
+    long g = gcd (Math.abs(n), d);
+    if (g != 1)
     {
-        _denominator = - _denominator;
-        _numerator = - _numerator;
+        n /= g;
+        d /= g;
     }
+    if (d == 1 && n >= CACHE_LOW && n <= CACHE_HIGH)
+        return cache[(int) n - CACHE_LOW];
+    if (n == (int) n && d == (int) d)
+        return new Fraction((int) n, (int) d, true);
+    return new Big(BigInteger.valueOf(n), BigInteger.valueOf(d));
+}
 
-    for (int i = 2; i < _denominator; i++)
+/** the fraction n/d, reduced */
+public static Fraction valueOf (BigInteger n, BigInteger d)
+{
+    if (d.signum() == 0)
+        throw new ArithmeticException("fraction with 0 denominator");
+    if (d.signum() < 0)
+    {
+        n = n.negate();
+        d = d.negate();
+    }
+    BigInteger g = n.gcd(d);
+    if (!g.equals(BigInteger.ONE))
     {
-        if ((_denominator%i == 0) && (_numerator%i == 0))
+        n = n.divide(g);
+        d = d.divide(g);
+    }
+    if (n.bitLength() < 32 && d.bitLength() < 32)
+        return valueOf (n.longValue(), d.longValue());
+    return new Big(n, d);
+}
+
+/** gcd of a and b, which must not be negative (binary gcd) */
+static long gcd (long a, long b)
+{
+    if (a == 0)
+        return b;
+    if (b == 0)
+        return a;
+    int shift = Long.numberOfTrailingZeros(a | b);
+    a >>= Long.numberOfTrailingZeros(a);
+    do {
+        b >>= Long.numberOfTrailingZeros(b);
+        if (a > b)
         {
-            _denominator /= i;
-            _numerator /= i;
-            --i;
+            long t = a;
+            a = b;
+            b = t;
         }
-    }
+        b -= a;
+    } while (b != 0);
+    return a << shift;
 }
 
-public void add (Fraction other)
+/** the numerator; throws ArithmeticException if it doesn't fit in an int */
+public int get_numerator()
 {
-    _numerator = _numerator * other._denominator +
-                 other._numerator * _denominator;
-    _denominator = _denominator * other._denominator;
-    reduce();
+	return _numerator;
 }
 
-public void subtract (Fraction other)
+/** the denominator; throws ArithmeticException if it doesn't fit in an int */
+public int get_denominator()
 {
-    _numerator = _numerator * other._denominator -
-                 other._numerator * _denominator;
-    _denominator = _denominator * other._denominator;
-    reduce();
+	return _denominator;
 }
 
-public void multiply (Fraction other)
+public BigInteger big_numerator() { return BigInteger.valueOf(_numerator); }
+public BigInteger big_denominator() { return BigInteger.valueOf(_denominator); }
+
+/** true if this fraction does not fit in ints */
+public boolean is_big() { return false; }
+
+public Fraction plus (Fraction other)
 {
-    _numerator = _numerator * other._numerator;
-    _denominator = _denominator * other._denominator;
-    reduce();
+    if (is_big() || other.is_big())
+        return valueOf (big_numerator().multiply(other.big_denominator()).add(other.big_numerator().multiply(big_denominator())),
+                        big_denominator().multiply(other.big_denominator()));
+    if (_denominator == other._denominator)
+        return valueOf ((long) _numerator + other._numerator, _denominator);
+    return valueOf ((long) _numerator * other._denominator + (long) other._numerator * _denominator,
+                    (long) _denominator * other._denominator);
 }
 
-public void divide (Fraction other)
+public Fraction minus (Fraction other)
 {
-    _numerator = _numerator * other._denominator;
-    _denominator = _denominator * other._numerator;
-    reduce();
+    return plus (other.negated());
 }
 
-public void invert (Fraction other)
+public Fraction times (Fraction other)
 {
-    int tmp;
-    tmp = _numerator;
-    _numerator = _denominator;
-    _denominator = tmp;
-    reduce(); // should not be needed.
+    if (is_big() || other.is_big())
+        return valueOf (big_numerator().multiply(other.big_numerator()), big_denominator().multiply(other.big_denominator()));
+    if (other._denominator == 1 && other._numerator == 1)
+        return this;
+    return valueOf ((long) _numerator * other._numerator, (long) _denominator * other._denominator);
+}
+
+public Fraction divided_by (Fraction other)
+{
+    if (is_big() || other.is_big())
+        return valueOf (big_numerator().multiply(other.big_denominator()), big_denominator().multiply(other.big_numerator()));
+    return valueOf ((long) _numerator * other._denominator, (long) _denominator * other._numerator);
+}
+
+public Fraction negated ()
+{
+    return valueOf (-(long) _numerator, _denominator);
 }
 
 public boolean equals_zero()
@@ -122,15 +207,28 @@ public boolean equals_zero()
     return (_numerator == 0);
 }
 
+/** -1, 0 or 1 as this fraction is negative, zero or positive */
+public int signum()
+{
+    return Integer.signum(_numerator);
+}
+
 public boolean equals(Object o)
 {
     if (!(o instanceof Fraction))
         return false;
 
     Fraction other = (Fraction) o;
+    if (is_big() || other.is_big())
+        return big_numerator().equals(other.big_numerator()) && big_denominator().equals(other.big_denominator());
     return (_numerator == other._numerator && _denominator == other._denominator);
 }
 
+public int hashCode()
+{
+    return 31 * _numerator + _denominator;
+}
+
 public String toString()
 {
     if (_denominator == 1)
@@ -139,4 +237,35 @@ public String toString()
         return _numerator + "/" + _denominator;
 }
 
+/** fractions written by older versions may not be reduced */
+private Object readResolve()
+{
+    return (_denominator == 0) ? this : valueOf ((long) _numerator, _denominator);
+}
+
+/** a fraction whose numerator or denominator does not fit in an int */
+private static final class Big extends Fraction {
+    private static final long serialVersionUID = 1L;
+
+    private final BigInteger num, den;
+
+    Big (BigInteger num, BigInteger den)
+    {
+        super (0, 1, true);
+        this.num = num;
+        this.den = den;
+    }
+
+    public int get_numerator() { return num.intValueExact(); }
+    public int get_denominator() { return den.intValueExact(); }
+    public BigInteger big_numerator() { return num; }
+    public BigInteger big_denominator() { return den; }
+    public boolean is_big() { return true; }
+    public Fraction negated() { return Fraction.valueOf (num.negate(), den); } // -(2^31) fits in an int
+    public boolean equals_zero() { return false; }
+    public int signum() { return num.signum(); }
+    public int hashCode() { return 31 * num.hashCode() + den.hashCode(); }
+    public String toString() { return den.equals(BigInteger.ONE) ? num.toString() : num + "/" + den; }
+}
+
 }
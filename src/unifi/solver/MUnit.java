@@ -31,6 +31,8 @@ public MUnit (String s) { super (null); _name = s; }
 
 public String toString() { return _name; }
 public int hashCode() { return _name.hashCode(); }
+// MUnits have no unit type, order them by name
+public int compareTo(Object o) { return _name.compareTo(((MUnit) o)._name); }
 public boolean equals(Object o) 
 { 
     return _name.equals (((MUnit) o)._name);
@@ -0,0 +1,128 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi.solver;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import unifi.units.Unit;
+
+/** times the constraint solvers on synthetic constraint sets.
+ * usage: java unifi.solver.SolverBench [# of terms ...] (default 10^4 10^5 10^6).
+ * each constraint is u = a * b^k (3 terms), among a cluster of 8 units, with b sometimes one of
+ * 64 shared units, roughly what a program's compound constraints look like.
+ * the old solver is also run (and its formulas compared) up to -Dunifi.bench.old.max terms (default 10^5).
+ * each size is solved -Dunifi.bench.runs times (default 5) after a warmup run, the best time is reported.
+ */
+public class SolverBench {
+
+private static final int CLUSTER_SIZE = 8, N_SHARED = 64;
+private static final Fraction[] COEFFS = new Fraction[] { Fraction.ONE, Fraction.MINUS_ONE, Fraction.valueOf(2), new Fraction(1, 2) };
+
+private static ConstraintSet make_constraint_set (int n_terms, long seed)
+{
+    Random r = new Random(seed);
+    int n_constraints = n_terms / 3;
+    Unit[] shared = new Unit[N_SHARED];
+    for (int i = 0; i < N_SHARED; i++)
+        shared[i] = new MUnit("shared" + i);
+    Unit[] units = new Unit[n_constraints];
+    for (int i = 0; i < n_constraints; i++)
+        units[i] = new MUnit("u" + (i / CLUSTER_SIZE) + "." + (i % CLUSTER_SIZE));
+
+    ConstraintSet cs = new ConstraintSet();
+    for (int i = 0; i < n_constraints; i++)
+    {
+        int base = i - i % CLUSTER_SIZE, size = Math.min(CLUSTER_SIZE, n_constraints - base);
+        if (size < 3)
+            continue;
+        Unit u = units[base + r.nextInt(size)], a, b;
+        do { a = units[base + r.nextInt(size)]; } while (a == u);
+        if (r.nextInt(4) == 0)
+            b = shared[r.nextInt(N_SHARED)];
+        else
+            do { b = units[base + r.nextInt(size)]; } while (b == u || b == a);
+        cs.add_constraint (u, a, b, COEFFS[r.nextInt(COEFFS.length)]);
+    }
+    cs.prepare_to_solve (Collections.<Unit, List<Unit>>emptyMap(), null);
+    return cs;
+}
+
+public static void main (String args[])
+{
+    List<Integer> sizes = new ArrayList<Integer>();
+    for (String arg : args)
+        sizes.add (Integer.parseInt(arg));
+    if (sizes.isEmpty())
+        Collections.addAll (sizes, 10000, 100000, 1000000);
+    int old_max = Integer.getInteger("unifi.bench.old.max", 100000);
+    int runs = Integer.getInteger("unifi.bench.runs", 5);
+
+    PrintStream out = System.out;
+    // the old solver prints a line for every step
+    PrintStream devnull = new PrintStream(new OutputStream() { public void write(int b) { } });
+
+    for (int n_terms : sizes)
+    {
+        long best_sparse = Long.MAX_VALUE, best_old = Long.MAX_VALUE;
+        Map<Unit, Constraint> sparse_formulas = null;
+        ConstraintSet old_cs = null;
+        for (int run = 0; run <= runs; run++) // run 0 is the warmup
+        {
+            ConstraintSet cs = make_constraint_set (n_terms, n_terms);
+            long start = System.nanoTime();
+            sparse_formulas = new SparseSolver(cs).solve();
+            if (run > 0)
+                best_sparse = Math.min(best_sparse, System.nanoTime() - start);
+
+            if (n_terms <= old_max)
+            {
+                ConstraintSolver solver = new ConstraintSolver();
+                solver._cs = cs;
+                System.setOut (devnull);
+                start = System.nanoTime();
+                solver.draw_inferences();
+                if (run > 0)
+                    best_old = Math.min(best_old, System.nanoTime() - start);
+                System.setOut (out);
+                old_cs = cs;
+            }
+        }
+
+        String s = n_terms + " terms, " + sparse_formulas.size() + " formulas: sparse solver " + best_sparse/1000000 + "ms";
+        if (old_cs != null)
+        {
+            int n_different = 0;
+            for (Map.Entry<Unit, Constraint> me : old_cs.formulas().entrySet())
+            {
+                Unit u = me.getKey();
+                Constraint c = sparse_formulas.get(u);
+                if (c == null || !ConstraintSolver.same_dimensions (me.getValue().dimensions().solve_for(u), c.dimensions().solve_for(u)))
+                    n_different++;
+            }
+            s += ", old solver " + best_old/1000000 + "ms, " + n_different + " formulas different";
+        }
+        out.println (s);
+    }
+}
+
+}
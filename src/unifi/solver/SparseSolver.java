@@ -0,0 +1,489 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi.solver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import unifi.units.Unit;
+import unifi.util.Util;
+
+/** solves a constraint set by gauss-jordan elimination on a sparse integer matrix.
+ * each unit is a column (in sorted_all_units order) and each constraint a row of the
+ * exponents of its units, scaled to integers. rows are combined fraction-free
+ * (r = p[j]*r - r[j]*p) and divided by the gcd of their entries, so all arithmetic is exact.
+ *
+ * columns are eliminated in the same order as ConstraintSolver does it, which decides
+ * which units get formulas, so the formulas are the same (the reduced row echelon form is unique
+ * for a column order). the freedom left is which row becomes the pivot for a column:
+ * we take the one with the fewest entries, to keep fill-in down.
+ * the terms of a formula are written in the order the old solver leaves them in (see term_order),
+ * not in column order.
+ * arithmetic is on longs; an ArithmeticException is thrown if that overflows.
+ *
+ * units that never share a constraint don't affect each other's formulas, so a constraint set
+ * can be solved one connected component at a time (see for_components), also in parallel:
+ * a solver only reads the constraints it is given.
+ *
+ * constraints that are already solved, i.e. the formulas of the last solve, e.g. read back from a units file,
+ * are not eliminated again: solve checks whether each constraint of the component is still one of the formulas
+ * the constraint set recorded for the last solve (see ConstraintSet.last_formulas), and whether they are still in
+ * reduced form for the current unit order. if so it just reads off their formulas (see formulas_if_solved).
+ * so after adding or removing constraints, or merging units, only the components they affect are solved again.
+ * with no recorded solve, as on a fresh run, every component is solved.
+ */
+public class SparseSolver {
+
+private static Logger logger = Logger.getLogger("unifi.constraints");
+
+/** a sparse row: entries sorted by column, none of them 0 */
+private static class Row {
+    int[] cols;
+    long[] vals;
+    int size;
+    int pivot_col = -1; // column this row is the formula for, -1 if none yet
+    boolean deleted;
+    final Dimensions origin; // the constraint this row started as
+
+    Row (int[] cols, long[] vals, int size, Dimensions origin) { this.cols = cols; this.vals = vals; this.size = size; this.origin = origin; }
+
+    /** the entry in column c, 0 if none */
+    long get (int c)
+    {
+        int i = Arrays.binarySearch(cols, 0, size, c);
+        return (i < 0) ? 0 : vals[i];
+    }
+}
+
+private final Unit[] units; // column -> unit
+private int[] first_use; // column -> its unit's index in the order units first appear in the constraints
+private final Map<Unit, Integer> column_of = new HashMap<Unit, Integer>();
+private final Collection<Constraint> constraints;
+private final Map<Unit, Dimensions> last_formulas; // formulas of the last solve (see ConstraintSet.last_formulas), null if none
+private Row[] rows;
+private int n_rows;
+
+// rows that have (or had) an entry in each column. may contain stale and duplicate entries.
+private int[][] col_rows;
+private int[] n_col_rows;
+
+private int n_combines, n_formulas, max_entries;
+private long millis;
+private boolean already_solved;
+
+public SparseSolver (ConstraintSet cs)
+{
+    this (cs.sorted_all_units(), cs.constraints(), cs.last_formulas());
+}
+
+/** a solver for the given constraints. sorted_units are all their units, in elimination order */
+public SparseSolver (List<Unit> sorted_units, Collection<Constraint> constraints)
+{
+    this (sorted_units, constraints, null);
+}
+
+/** a solver for the given constraints, which reuses them as they are if they are the formulas
+ * last_formulas recorded for the last solve (null if none) */
+SparseSolver (List<Unit> sorted_units, Collection<Constraint> constraints, Map<Unit, Dimensions> last_formulas)
+{
+    units = sorted_units.toArray(new Unit[sorted_units.size()]);
+    for (int c = 0; c < units.length; c++)
+        column_of.put (units[c], c);
+
+    this.constraints = constraints;
+    this.last_formulas = last_formulas;
+}
+
+/** sets up the rows, one per non-empty constraint */
+private void add_rows ()
+{
+    col_rows = new int[units.length][];
+    n_col_rows = new int[units.length];
+    rows = new Row[constraints.size()];
+    for (Constraint c : constraints)
+        add_row (c.dimensions());
+}
+
+/** returns a solver for each connected component of cs (units are connected if they are in the
+ * same constraint), in the order of their first units in cs.sorted_all_units() */
+public static List<SparseSolver> for_components (ConstraintSet cs)
+{
+    List<Unit> sorted = cs.sorted_all_units();
+    int n = sorted.size();
+    Map<Unit, Integer> column_of = new HashMap<Unit, Integer>();
+    for (int c = 0; c < n; c++)
+        column_of.put (sorted.get(c), c);
+
+    // union-find over columns, with path halving
+    int[] parent = new int[n];
+    for (int c = 0; c < n; c++)
+        parent[c] = c;
+    for (Constraint c : cs.constraints())
+    {
+        int first = -1;
+        for (Dimension dim : c.dimensions())
+        {
+            int col = find (parent, column_of.get(dim.unit()));
+            if (first < 0)
+                first = col;
+            else if (col != first)
+                parent[col] = first;
+        }
+    }
+
+    int[] component_of_root = new int[n];
+    Arrays.fill (component_of_root, -1);
+    List<List<Unit>> component_units = new ArrayList<List<Unit>>();
+    for (int c = 0; c < n; c++)
+    {
+        int root = find (parent, c);
+        if (component_of_root[root] < 0)
+        {
+            component_of_root[root] = component_units.size();
+            component_units.add (new ArrayList<Unit>());
+        }
+        component_units.get(component_of_root[root]).add (sorted.get(c));
+    }
+
+    List<List<Constraint>> component_constraints = new ArrayList<List<Constraint>>();
+    for (int i = 0; i < component_units.size(); i++)
+        component_constraints.add (new ArrayList<Constraint>());
+    for (Constraint c : cs.constraints())
+    {
+        if (c.dimensions().size() == 0)
+            continue;
+        Unit u = c.dimensions().iterator().next().unit();
+        component_constraints.get(component_of_root[find (parent, column_of.get(u))]).add (c);
+    }
+
+    List<SparseSolver> result = new ArrayList<SparseSolver>();
+    for (int i = 0; i < component_units.size(); i++)
+        if (!component_constraints.get(i).isEmpty())
+            result.add (new SparseSolver(component_units.get(i), component_constraints.get(i), cs.last_formulas()));
+    return result;
+}
+
+private static int find (int[] parent, int c)
+{
+    while (parent[c] != c)
+        c = parent[c] = parent[parent[c]];
+    return c;
+}
+
+/** # of units (columns) */
+public int n_units() { return units.length; }
+/** # of constraints (rows) */
+public int n_constraints() { return constraints.size(); }
+/** # of formulas found, i.e. # of units eliminated */
+public int n_formulas() { return n_formulas; }
+/** # of times one row was subtracted from another */
+public int n_combines() { return n_combines; }
+/** time taken by solve */
+public long millis() { return millis; }
+/** true if solve found the constraints already solved, and eliminated nothing */
+public boolean already_solved() { return already_solved; }
+
+/** numbers the columns in the order their units first appear in the constraints */
+private void compute_first_use ()
+{
+    first_use = new int[units.length];
+    Arrays.fill (first_use, -1);
+    int next = 0;
+    for (Constraint c : constraints)
+        for (Dimension dim : c.dimensions())
+        {
+            int col = column_of.get(dim.unit());
+            if (first_use[col] < 0)
+                first_use[col] = next++;
+        }
+}
+
+/** the columns of p in the order the old solver leaves the terms of a formula in: it rewrites a constraint
+ * in place, so the units of the constraint p started as come first, in their order there, and then the ones
+ * brought in by eliminations, which it appends. those are in the order their units first appear in the constraints. */
+private int[] term_order (Row p)
+{
+    int[] result = new int[p.size];
+    int n = 0;
+    for (Dimension dim : p.origin)
+    {
+        int c = column_of.get(dim.unit());
+        if (p.get(c) != 0)
+            result[n++] = c;
+    }
+
+    long[] keys = new long[p.size - n];
+    int n_keys = 0;
+    for (int i = 0; i < p.size; i++)
+        if (p.origin.exponent_of(units[p.cols[i]]) == null)
+            keys[n_keys++] = ((long) first_use[p.cols[i]] << 32) | p.cols[i];
+    Arrays.sort (keys);
+    for (long key : keys)
+        result[n++] = (int) key;
+    return result;
+}
+
+/** adds the exponents of d as a row, multiplied by the lcm of their denominators */
+private void add_row (Dimensions d)
+{
+    int n = d.size();
+    int[] cols = new int[n];
+    long lcm = 1;
+    int i = 0;
+    for (Dimension dim : d)
+    {
+        Integer c = column_of.get(dim.unit());
+        Util.ASSERT (c != null, "unit not in sorted units of constraint set: " + dim.unit());
+        cols[i++] = c;
+        long den = dim.exponent().get_denominator();
+        lcm = Math.multiplyExact(lcm / gcd(lcm, den), den);
+    }
+
+    // sort entries by column, the exponents come along
+    Map<Integer, Fraction> exp_of = new HashMap<Integer, Fraction>();
+    for (Dimension dim : d)
+        exp_of.put (column_of.get(dim.unit()), dim.exponent());
+    Arrays.sort (cols);
+    long[] vals = new long[n];
+    for (i = 0; i < n; i++)
+    {
+        Fraction f = exp_of.get(cols[i]);
+        vals[i] = Math.multiplyExact((long) f.get_numerator(), lcm / f.get_denominator());
+    }
+
+    Row r = new Row (cols, vals, n, d);
+    normalize (r);
+    if (r.size == 0)
+        return;
+    int id = n_rows++;
+    rows[id] = r;
+    for (i = 0; i < n; i++)
+        note_entry (cols[i], id);
+}
+
+private void note_entry (int col, int row)
+{
+    if (col_rows[col] == null)
+        col_rows[col] = new int[4];
+    else if (n_col_rows[col] == col_rows[col].length)
+        col_rows[col] = Arrays.copyOf(col_rows[col], 2*n_col_rows[col]);
+    col_rows[col][n_col_rows[col]++] = row;
+}
+
+private static long gcd (long a, long b)
+{
+    a = Math.abs(a); b = Math.abs(b);
+    while (b != 0)
+    {
+        long t = a % b;
+        a = b;
+        b = t;
+    }
+    return a;
+}
+
+/** divides the entries of r by their gcd */
+private static void normalize (Row r)
+{
+    long g = 0;
+    for (int i = 0; i < r.size && g != 1; i++)
+        g = gcd (g, r.vals[i]);
+    if (g > 1)
+        for (int i = 0; i < r.size; i++)
+            r.vals[i] /= g;
+}
+
+/** r = p[j]*r - r[j]*p, which has no entry in column j. new columns of r after column j are noted. */
+private void combine (int r_id, Row p, int j)
+{
+    Row r = rows[r_id];
+    long a = p.get(j), b = r.get(j);
+    int[] cols = new int[r.size + p.size];
+    long[] vals = new long[r.size + p.size];
+    int n = 0, i = 0, k = 0;
+    while (i < r.size || k < p.size)
+    {
+        int c;
+        long v;
+        if (k >= p.size || (i < r.size && r.cols[i] < p.cols[k]))
+        {
+            c = r.cols[i];
+            v = Math.multiplyExact(a, r.vals[i++]);
+        }
+        else if (i >= r.size || p.cols[k] < r.cols[i])
+        {
+            c = p.cols[k];
+            v = Math.negateExact(Math.multiplyExact(b, p.vals[k++]));
+            if (c > j)
+                note_entry (c, r_id);
+        }
+        else
+        {
+            c = r.cols[i];
+            v = Math.subtractExact(Math.multiplyExact(a, r.vals[i++]), Math.multiplyExact(b, p.vals[k++]));
+        }
+        if (v != 0)
+        {
+            cols[n] = c;
+            vals[n++] = v;
+        }
+    }
+    r.cols = cols;
+    r.vals = vals;
+    r.size = n;
+    normalize (r);
+    r.deleted = (n == 0);
+    max_entries = Math.max(max_entries, n);
+    n_combines++;
+}
+
+/** eliminates each column in turn. returns formulas for the units that got one,
+ * in elimination order; the constraint for unit u is u^-1 * (formula for u). */
+public Map<Unit, Constraint> solve ()
+{
+    long start = System.currentTimeMillis();
+    Map<Unit, Constraint> solved = formulas_if_solved();
+    if (solved != null)
+    {
+        already_solved = true;
+        n_formulas = solved.size();
+        millis = System.currentTimeMillis() - start;
+        if (logger.isLoggable(Level.FINE))
+            logger.fine ("Sparse solver: " + units.length + " units, " + constraints.size() + " constraints already solved, " + millis + "ms");
+        return solved;
+    }
+
+    add_rows();
+    compute_first_use();
+    int[] seen = new int[n_rows];
+    int[] live = new int[n_rows];
+    Row[] pivot_row = new Row[units.length];
+
+    for (int j = 0; j < units.length; j++)
+    {
+        // the rows with an entry in column j, each once
+        int n_live = 0;
+        for (int x = 0; x < n_col_rows[j]; x++)
+        {
+            int id = col_rows[j][x];
+            if (seen[id] == j+1 || rows[id].deleted || rows[id].get(j) == 0)
+                continue;
+            seen[id] = j+1;
+            live[n_live++] = id;
+        }
+        col_rows[j] = null; // j never comes back into a row once it's eliminated
+
+        int pivot = -1;
+        for (int x = 0; x < n_live; x++)
+        {
+            Row r = rows[live[x]];
+            if (r.pivot_col < 0 && (pivot < 0 || r.size < rows[pivot].size))
+                pivot = live[x];
+        }
+        // j is not in a constraint that isn't already a formula, it stays free
+        if (pivot < 0)
+            continue;
+
+        Row p = rows[pivot];
+        p.pivot_col = j;
+        pivot_row[j] = p;
+        for (int x = 0; x < n_live; x++)
+            if (live[x] != pivot)
+                combine (live[x], p, j);
+    }
+
+    Map<Unit, Constraint> formulas = new LinkedHashMap<Unit, Constraint>();
+    for (int j = 0; j < units.length; j++)
+    {
+        Row p = pivot_row[j];
+        if (p == null)
+            continue;
+        long pv = p.get(j);
+        Dimensions d = new Dimensions();
+        for (int c : term_order (p))
+            if (c != j)
+                d.merge_dim (units[c], Fraction.valueOf(-p.get(c), pv));
+        formulas.put (units[j], new Constraint(units[j], d));
+    }
+
+    // every row is now either a formula or empty
+    for (int i = 0; i < n_rows; i++)
+        Util.ASSERT (rows[i].deleted || rows[i].pivot_col >= 0, "constraint left over after solving");
+
+    n_formulas = formulas.size();
+    millis = System.currentTimeMillis() - start;
+    if (logger.isLoggable(Level.FINE))
+        logger.fine ("Sparse solver: " + units.length + " units, " + n_rows + " constraints, " + n_formulas + " formulas, "
+                     + n_combines + " row combinations, max " + max_entries + " entries per row, " + millis + "ms");
+    return formulas;
+}
+
+/** if the constraints are the formulas of the last solve and still in reduced form, i.e. the first unit
+ * of each (in elimination order) is in no other constraint, returns the formulas they give, in elimination order;
+ * null otherwise. the reduced form is unique for a unit order, so these are the formulas solve would compute,
+ * in the same form. */
+private Map<Unit, Constraint> formulas_if_solved ()
+{
+    if (last_formulas == null)
+        return null;
+
+    int[] n_uses = new int[units.length];
+    for (Constraint c : constraints)
+        for (Dimension dim : c.dimensions())
+            n_uses[column_of.get(dim.unit())]++;
+
+    Constraint[] formula_of = new Constraint[units.length];
+    for (Constraint c : constraints)
+    {
+        int first = units.length;
+        for (Dimension dim : c.dimensions())
+            first = Math.min(first, column_of.get(dim.unit()));
+        if (first == units.length)
+            continue; // empty, like add_row
+        if (n_uses[first] != 1)
+            return null;
+        formula_of[first] = c;
+    }
+
+    Map<Unit, Constraint> formulas = new LinkedHashMap<Unit, Constraint>();
+    for (int j = 0; j < units.length; j++)
+    {
+        if (formula_of[j] == null)
+            continue;
+        Dimensions cd = formula_of[j].dimensions();
+        // u^e * v^f... = 1 means u = v^(-f/e)..., the terms stay in the order they are in
+        Fraction e = cd.exponent_of(units[j]);
+        Dimensions d = new Dimensions();
+        for (Dimension dim : cd)
+            if (dim.unit() != units[j])
+                d.merge_dim (dim.unit(), dim.exponent().divided_by(e).negated());
+        // a constraint that happens to be reduced, but is not what the last solve gave for this unit, is not solved
+        if (!d.equals(last_formulas.get(units[j])))
+            return null;
+        formulas.put (units[j], new Constraint(units[j], d));
+    }
+    return formulas;
+}
+
+}
@@ -21,6 +21,7 @@ import java.util.*;
 import java.io.*;
 import org.apache.bcel.generic.*;
 import unifi.BCP;
+import unifi.contextsensitive.MethodSummary;
 import unifi.util.Util;
 
 /** allocation site unit.
@@ -30,22 +31,26 @@ holding bcp might be enough - it already contains class name etc.
 
 public class AllocUnit extends Unit implements Serializable
 {
-    private String _method_name;
-    private BCP _bytecode_pos;
+    // the value computed for the original version of this class, keeps old units files readable
+    private static final long serialVersionUID = 4493681518816236534L;
+
+    String _method_name;
+    BCP _bytecode_pos;
     public static HashMap<BCP, AllocUnit> globalAllocUnitDir = new LinkedHashMap<BCP, AllocUnit>();
 
     // there are multiple alloc units at an allocation of an array
     // level helps to distinguish between those units
     // the base unit of an array (or at a plain new) have a level of -1
     // successive array units have levels from 0 onwards
-    private int level;
+    int level;
 
 public AllocUnit (Type t, int level, String m, BCP bcp)
 {
     super (t);
     _method_name = m;
     _bytecode_pos = bcp;
-    this.connectedToSingleUnit = true;
+    // with allocs not shared across clones, the alloc does not connect its cluster to a single unit
+    this.connectedToSingleUnit = !MethodSummary.ALLOCS_NOT_SHARED;
     this.level = level;
 }
 
@@ -32,12 +32,22 @@ import unifi.util.Util;
 
 public class ArrayLengthUnit extends Unit implements Serializable
 {
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = -3825586884044549061L;
+
 public ArrayLengthUnit(Unit a)
 {
     super (BasicType.INT);
     this.lengthOf = a;
     Util.ASSERT (a.lengthUnit == null);
     a.lengthUnit = this;
+    dependentsChanged();
+}
+
+/** for reading units files, lengthOf is linked up later */
+ArrayLengthUnit()
+{
+    super (BasicType.INT);
 }
 
 public String toString ()
@@ -33,10 +33,13 @@ import java.util.*;
 
 public class CheckcastUnit extends Unit
 {
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = -2063901397688426426L;
+
 BCP _bcp;
 private static HashMap<String, CheckcastUnit> globalCheckcastUnitDir = new HashMap<String, CheckcastUnit>();
 
-private CheckcastUnit(Type t, BCP bcp)
+CheckcastUnit(Type t, BCP bcp)
 {
     super (t);
     _bcp = bcp;
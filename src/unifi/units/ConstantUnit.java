@@ -27,12 +27,15 @@ import unifi.util.Util;
 
 public class ConstantUnit extends Unit implements Serializable
 {
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = 5395477021043035923L;
+
 BCP _bcp;
 Object constVal; // constVal is an object from BCEL, we don't really know what it is.
 private static HashMap<BCP, ConstantUnit> globalConstantUnitDir = new LinkedHashMap<BCP, ConstantUnit>();
 
 /* full name has to be of the form class.field */
-private ConstantUnit (Type t, BCP bcp, Object val)
+ConstantUnit (Type t, BCP bcp, Object val)
 {
     super (t);
     _bcp = bcp;
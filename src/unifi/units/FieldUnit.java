@@ -29,6 +29,7 @@ import java.util.logging.Logger;
 import org.apache.bcel.generic.Type;
 
 import unifi.UnitCollection;
+import unifi.util.SymbolTable;
 import unifi.util.Util;
 
 public class FieldUnit extends Unit implements Serializable
@@ -38,19 +39,19 @@ public class FieldUnit extends Unit implements Serializable
 public static Logger parentLogger = Logger.getLogger("unifi");
 private static Logger logger = Logger.getLogger("unifi.FieldUnit");
 private boolean inAnalyzedCode = false;
-private boolean used = false; // true iff this field has actually been used in the target program. fieldunits are also created when we begin to analyze a class.
+boolean used = false; // true iff this field has actually been used in the target program. fieldunits are also created when we begin to analyze a class.
 private static Set<String> ignoreList; // these fields will be ignored, e.g. cos they are polymorphic
 static {
 	readIgnoreList();
 }
 
 private String _field_full_name;
-private boolean isPrivate, isProtected, isPublic;
-private boolean isStatic;
+boolean isPrivate, isProtected, isPublic;
+boolean isStatic;
 public static Map<String,FieldUnit> globalFieldUnitDir = new LinkedHashMap<String,FieldUnit> ();
 
 /* full name has to be of the form class.field */
-private FieldUnit (Type t, String full_name, boolean is_public, boolean is_protected, boolean is_private, boolean is_static)
+FieldUnit (Type t, String full_name, boolean is_public, boolean is_protected, boolean is_private, boolean is_static)
 {
     super (t);
     this.isPrivate = is_private;
@@ -60,7 +61,7 @@ private FieldUnit (Type t, String full_name, boolean is_public, boolean is_prote
 
     if (logger.isLoggable(Level.FINE))
     	logger.fine ("Creating new FieldUnit for: " + full_name + " type " + t);
-    _field_full_name = full_name.intern();
+    _field_full_name = SymbolTable.intern(full_name);
     this.connectedToSingleUnit = true;
 }
 public boolean is_private() {return isPrivate;}
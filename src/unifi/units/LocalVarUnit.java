@@ -21,6 +21,8 @@ import java.io.*;
 import org.apache.bcel.generic.*;
 
 import unifi.BCP;
+import unifi.BCPFactory;
+import unifi.util.SymbolTable;
 import unifi.util.Util;
 
 /** This class represents the bucket elements which are of type local
@@ -29,6 +31,9 @@ import unifi.util.Util;
 
 public class LocalVarUnit extends Unit implements Serializable
 {
+    // the value computed for the original version of this class, keeps old units files readable
+    private static final long serialVersionUID = 735818488347659770L;
+
     String _method_descriptor, _varname;
     boolean _certain = false; // if !_certain, then type and varname are best guesses, not guaranteed to be correct
     /** The index of the local var in the local var table */
@@ -41,11 +46,24 @@ public class LocalVarUnit extends Unit implements Serializable
     {
         // type may be null
         super (t);
-        _method_descriptor = (mg.getClassName () + "." + mg.getName () +  mg.getSignature ()).intern();
+        _method_descriptor = SymbolTable.intern(mg.getClassName () + "." + mg.getName () +  mg.getSignature ());
+        _logical_index = logical_index;
+        _phys_index = physical_index;
+        _varname = varname;
+        _bcp = BCPFactory.for_method (mg, cpgen).at (pos);
+        _certain = certain;
+    }
+
+    /** for reading units files */
+    LocalVarUnit (String method_descriptor, int logical_index, int physical_index,
+                  BCP bcp, String varname, Type t, boolean certain)
+    {
+        super (t);
+        _method_descriptor = method_descriptor;
         _logical_index = logical_index;
         _phys_index = physical_index;
         _varname = varname;
-        _bcp = new BCP (mg, cpgen, pos);
+        _bcp = bcp;
         _certain = certain;
     }
 
@@ -21,6 +21,7 @@ import java.io.*;
 import java.util.logging.*;
 import org.apache.bcel.generic.*;
 
+import unifi.util.SymbolTable;
 import unifi.util.Util;
 
 public class MethodParamUnit extends Unit implements Serializable, Cloneable
@@ -30,7 +31,8 @@ public class MethodParamUnit extends Unit implements Serializable, Cloneable
 private static Logger _logger = Logger.getLogger("unifi.MethodParamUnit");
 
 private int _index;
-private String _full_sig, _arg_name;
+private String _full_sig;
+String _arg_name;
 private boolean isPublicOrProtected;
 private boolean _is_in_analyzed_code;
 private int cloneNum = -1;
@@ -49,7 +51,7 @@ public MethodParamUnit (Type t, String full_method_sig, MethodGen mg, int n, boo
 {
     super (t);
     _index = n;
-    _full_sig = full_method_sig.intern();
+    _full_sig = SymbolTable.intern(full_method_sig);
     _is_in_analyzed_code = is_in_analyzed_code;
 
     if (mg != null)
@@ -58,7 +60,7 @@ public MethodParamUnit (Type t, String full_method_sig, MethodGen mg, int n, boo
         for (int i = 0; i < lvgen.length; i++)
             if (lvgen[i].getIndex() == _index)
             {
-                _arg_name = lvgen[i].getName().intern();
+                _arg_name = SymbolTable.intern(lvgen[i].getName());
             }
     }
 
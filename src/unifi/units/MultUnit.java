@@ -16,14 +16,19 @@ limitations under the License.
 
 package unifi.units;
 
+import org.apache.bcel.generic.Type;
+
 import unifi.drivers.Analyze;
 import unifi.solver.*;
 import unifi.util.Util;
 
 public class MultUnit extends Unit {
 
-private Unit _a, _b;
-private Fraction _coeff_b;
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = -629629558478415906L;
+
+Unit _a, _b;
+Fraction _coeff_b;
 
 // a and b both should not be null
 // coeff = 1 for mult, -1 for div
@@ -36,6 +41,12 @@ public MultUnit (Unit a, Unit b, Fraction coeff)
     register_mult_constraint (this, a, b, coeff);
 }
 
+/** for reading units files, doesn't register the unit or its constraint */
+MultUnit (Type t)
+{
+    super (t);
+}
+
 /** registers a new unit in the UnitCollection 
  * of the form u = a * b^coeff*/
 public static void register_mult_constraint (Unit u, Unit a, Unit b, Fraction coeff)
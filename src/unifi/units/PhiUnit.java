@@ -25,11 +25,14 @@ import unifi.BCP;
 /** a dummy "phi" unit which is sometimes needed at meet operators */
 public class PhiUnit extends Unit {
 
+// the value computed for the original version of this class, keeps old units files readable
+private static final long serialVersionUID = 8289616290921942099L;
+
 BCP bcp;
 int stackSlot; // stack position at this bcp that this phi unit is representing
 private static HashMap<String, PhiUnit> globalPhiUnitDir = new LinkedHashMap<String, PhiUnit>();
 
-private PhiUnit(BCP b, int slot, Type t)
+PhiUnit(BCP b, int slot, Type t)
 {
     super(t);
     this.bcp = b;
@@ -20,6 +20,7 @@ package unifi.units;
 import java.io.*;
 import org.apache.bcel.generic.*;
 
+import unifi.util.SymbolTable;
 import unifi.util.Util;
 
 public class ReturnValueUnit extends Unit implements Serializable, Cloneable
@@ -39,7 +40,7 @@ public String get_full_sig () { return _full_sig; }
 public ReturnValueUnit (String full_sig, Type t, boolean is_public_or_protected, boolean is_in_analyzed_code)
 {
     super (t);
-    _full_sig = full_sig.intern();
+    _full_sig = SymbolTable.intern(full_sig);
     _is_public_or_protected = is_public_or_protected;
     _is_in_analyzed_code = is_in_analyzed_code;
 }
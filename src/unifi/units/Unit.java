@@ -30,6 +30,7 @@ import org.apache.bcel.generic.ReferenceType;
 import org.apache.bcel.generic.Type;
 
 import unifi.BCP;
+import unifi.EventLog;
 import unifi.UnificationEvent;
 import unifi.UnionFindObject;
 import unifi.UnitCollection;
@@ -49,9 +50,13 @@ public static final long serialVersionUID = 1L;
 private static Logger logger = Logger.getLogger("unifi.Unit");
 private static Logger unify_logger = Logger.getLogger("unifi.Unit");
 
-private static final boolean all_unif_events = (!"no".equals(System.getProperty ("unifi.all_unif_events")));
+// with -Dunifi.events=forest, only unification events that merge 2 different classes are kept.
+// they form a spanning forest of each class, so paths between units can still be found.
+// the other events are only counted, per bcp. the default keeps all events.
+private static final boolean event_forest = "forest".equals(System.getProperty ("unifi.events"));
 public static UnitCollection _current_unit_collection = new UnitCollection();
 private static boolean unificationInProgress;
+private static int nDependentsChanged; // bumped whenever an elementOf, arrayOf or lengthUnit link is set
 
 public int clusterNum = -1;
 public int seaview_id = -1, seaview_rep_id = -1;
@@ -142,8 +147,12 @@ public void reset()
     unifEvents = null;
 }
 
-public void setElementOf (Unit u) { elementOf = u; }
-public void setArrayOf (Unit u) { arrayOf = u; }
+public void setElementOf (Unit u) { elementOf = u; nDependentsChanged++; }
+public void setArrayOf (Unit u) { arrayOf = u; nDependentsChanged++; }
+
+/** changes whenever some unit gets a new elementOf, arrayOf or length unit */
+public static int getDependentsVersion() { return nDependentsChanged; }
+static void dependentsChanged() { nDependentsChanged++; }
 public Type getType () { return type; }
 
 public void forceType(Type t) {
@@ -188,6 +197,7 @@ public Unit getArrayOf ()
     }
 
     arrayOf = new ElementUnit (t);
+    nDependentsChanged++;
     arrayOf.setElementOf (this);
     registerUnit(arrayOf);
 
@@ -214,12 +224,14 @@ public void setLengthUnit(ArrayLengthUnit u)
 {
 	this.lengthUnit = u;
 	u.lengthOf = this;
+	nDependentsChanged++;
 }
 
 /** registers a new unit in the UnitCollection. remember to call this every time a unit object is created */
 public static void registerUnit (Unit u)
 {
     _current_unit_collection.add (u);
+    u.register_in_arena ();
     // check that the collection contains it immediately after adding.
     // this check sometimes finds bugs with bad hashcode/equals functions in units.
     Util.ASSERT (_current_unit_collection.contains(u));
@@ -378,16 +390,24 @@ private void realUnify (Unit that, boolean unify_array_of_chain,
    		checkTypes(that);
     }
 
-    // if storing all unif events, add this even if it is in the same equiv class
+    // all events are kept, even if both units are already in the same equiv class, unless event_forest is set
     UnificationEvent ue = null;
-    Util.ASSERT (all_unif_events);
-    if (all_unif_events)
-    {
+    boolean redundant = event_forest && (this.find() == that.find());
+    if (!redundant || EventLog.spilling())
         ue = new UnificationEvent (this, that, bcp, depends_on);
+    if (EventLog.spilling())
+        EventLog.log (ue);
+    if (redundant)
+        _current_unit_collection.count_redundant_event (bcp);
+    else
+    {
         _current_unit_collection.add_event (ue);
         this.addUnificationEvent (ue);
         that.addUnificationEvent (ue);
     }
+    // events due to this one depend on it, or on what this one depends on if it isn't kept.
+    // a redundant event may still have been created for the spill file, but it is not in allEvents
+    UnificationEvent cause = redundant ? depends_on : ue;
 
     super.unify (that);
 
@@ -400,11 +420,11 @@ private void realUnify (Unit that, boolean unify_array_of_chain,
     if (!((this.type instanceof BasicType) || (that.type instanceof BasicType)))
     {
         if ((this.lengthUnit != null) || (that.lengthUnit != null))
-            this.getLengthUnit().realUnify (that.getLengthUnit(), true, false, bcp, ue, markAsConnectedToSingleUnit, false); // no need to waive type checking
+            this.getLengthUnit().realUnify (that.getLengthUnit(), true, false, bcp, cause, markAsConnectedToSingleUnit, false); // no need to waive type checking
 
         if (unify_array_of_chain)
             if ((this.arrayOf != null) || (that.arrayOf != null))
-                this.getArrayOf().realUnify(that.getArrayOf(), true, false, bcp, ue, markAsConnectedToSingleUnit, waiveTypeChecking); // shd we waive type checking here ?
+                this.getArrayOf().realUnify(that.getArrayOf(), true, false, bcp, cause, markAsConnectedToSingleUnit, waiveTypeChecking); // shd we waive type checking here ?
     }
 
     if (unify_element_of_chain)
@@ -422,7 +442,7 @@ private void realUnify (Unit that, boolean unify_array_of_chain,
         {
         	if (unify_logger.isLoggable(Level.FINE))
         		unify_logger.fine ("unifying due to element of: " + this.elementOf + " and " + that.elementOf);
-            this.elementOf.realUnify (that.elementOf, true, false, bcp, ue, markAsConnectedToSingleUnit, waiveTypeChecking);
+            this.elementOf.realUnify (that.elementOf, true, false, bcp, cause, markAsConnectedToSingleUnit, waiveTypeChecking);
         }
     }
 }
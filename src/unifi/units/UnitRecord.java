@@ -0,0 +1,324 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi.units;
+
+import java.math.BigInteger;
+
+import org.apache.bcel.generic.Type;
+
+import unifi.BCP;
+import unifi.solver.Fraction;
+
+/** the flattened state of one unit, as stored in a units file (see unifi.UnitsFile).
+ * every kind of unit maps its own fields onto the same fixed set of slots,
+ * so that all records can be written the same way.
+ * strings, bcps and units are kept as objects here; the file format maps them to indices. */
+public class UnitRecord {
+
+public static final byte KIND_UNIT = 0, KIND_FIELD = 1, KIND_ALLOC = 2, KIND_CONSTANT = 3, KIND_PHI = 4,
+		KIND_CHECKCAST = 5, KIND_METHOD_PARAM = 6, KIND_RETURN_VALUE = 7, KIND_LOCAL_VAR = 8,
+		KIND_ELEMENT = 9, KIND_ARRAY_LENGTH = 10, KIND_MULT = 11;
+
+// flags common to all units
+public static final int F_DIMENSIONLESS = 1 << 0, F_TYPE_FORCED = 1 << 1, F_GOLDEN = 1 << 2,
+		F_CONNECTED_TO_SINGLE_UNIT = 1 << 3, F_QUANT_OR_ORD = 1 << 4, F_BITWISE = 1 << 5,
+		F_EQUALS_COMPARED = 1 << 6, F_DYNAMIC_TYPE_CHECKED = 1 << 7;
+// flags whose meaning depends on the kind
+private static final int K0 = 1 << 8, K1 = 1 << 9, K2 = 1 << 10, K3 = 1 << 11, K4 = 1 << 12, K5 = 1 << 13;
+
+// tags for the value of a constant unit
+private static final int C_NULL = 0, C_INT = 1, C_LONG = 2, C_FLOAT = 3, C_DOUBLE = 4, C_STRING = 5;
+
+public byte kind;
+public int flags;
+public int id;
+public String type_sig; // null if the unit has no type
+public int cluster_num, seaview_id, seaview_rep_id, golden_id, watch_color;
+public Unit element_of, array_of, length_unit, length_of;
+
+// kind specific slots
+public String s0, s1;
+public int i0, i1;
+public long l0;
+public BCP bcp;
+public Unit r0, r1;
+
+/** returns the record kind for u, or -1 if this kind of unit can't be stored in a record */
+public static int kind_of(Unit u)
+{
+	Class<?> c = u.getClass();
+	if (c == Unit.class) return KIND_UNIT;
+	if (c == FieldUnit.class) return KIND_FIELD;
+	if (c == AllocUnit.class) return KIND_ALLOC;
+	if (c == ConstantUnit.class) return (const_tag(((ConstantUnit) u).constVal) >= 0) ? KIND_CONSTANT : -1;
+	if (c == PhiUnit.class) return KIND_PHI;
+	if (c == CheckcastUnit.class) return KIND_CHECKCAST;
+	if (c == MethodParamUnit.class) return KIND_METHOD_PARAM;
+	if (c == ReturnValueUnit.class) return KIND_RETURN_VALUE;
+	if (c == LocalVarUnit.class) return KIND_LOCAL_VAR;
+	if (c == ElementUnit.class) return KIND_ELEMENT;
+	if (c == ArrayLengthUnit.class) return KIND_ARRAY_LENGTH;
+	if (c == MultUnit.class) return KIND_MULT;
+	return -1;
+}
+
+private static int const_tag(Object o)
+{
+	if (o == null) return C_NULL;
+	if (o instanceof Integer) return C_INT;
+	if (o instanceof Long) return C_LONG;
+	if (o instanceof Float) return C_FLOAT;
+	if (o instanceof Double) return C_DOUBLE;
+	if (o instanceof String) return C_STRING;
+	return -1;
+}
+
+private void clear()
+{
+	s0 = s1 = null;
+	i0 = i1 = 0;
+	l0 = 0;
+	bcp = null;
+	r0 = r1 = null;
+}
+
+/** fills in this record from u. kind_of(u) must be >= 0 */
+public void load(Unit u)
+{
+	clear();
+	kind = (byte) kind_of(u);
+	id = u.getId();
+	type_sig = (u.type == null) ? null : u.type.getSignature();
+	cluster_num = u.clusterNum;
+	seaview_id = u.seaview_id;
+	seaview_rep_id = u.seaview_rep_id;
+	golden_id = u.getGoldenId();
+	watch_color = u.watchColor;
+	element_of = u.elementOf;
+	array_of = u.arrayOf;
+	length_unit = u.lengthUnit;
+	length_of = u.lengthOf;
+
+	flags = 0;
+	if (u.dimensionLess) flags |= F_DIMENSIONLESS;
+	if (u.isTypeForced) flags |= F_TYPE_FORCED;
+	if (u.isGolden()) flags |= F_GOLDEN;
+	if (u.connectedToSingleUnit) flags |= F_CONNECTED_TO_SINGLE_UNIT;
+	NomOrdQuant attrs = u.unitAttribs;
+	if (attrs.quantOrOrd()) flags |= F_QUANT_OR_ORD;
+	if (attrs.is_bit_encoded()) flags |= F_BITWISE;
+	if (attrs.isEqualityChecked()) flags |= F_EQUALS_COMPARED;
+	if (attrs.isDynamicTypeChecked()) flags |= F_DYNAMIC_TYPE_CHECKED;
+
+	switch (kind)
+	{
+	case KIND_FIELD:
+		FieldUnit fu = (FieldUnit) u;
+		s0 = fu.full_name();
+		if (fu.isInAnalyzedCode()) flags |= K0;
+		if (fu.used) flags |= K1;
+		if (fu.isPublic) flags |= K2;
+		if (fu.isProtected) flags |= K3;
+		if (fu.isPrivate) flags |= K4;
+		if (fu.isStatic) flags |= K5;
+		break;
+	case KIND_ALLOC:
+		AllocUnit au = (AllocUnit) u;
+		s0 = au._method_name;
+		bcp = au._bytecode_pos;
+		i0 = au.level;
+		break;
+	case KIND_CONSTANT:
+		ConstantUnit cu = (ConstantUnit) u;
+		bcp = cu._bcp;
+		Object val = cu.constVal;
+		i0 = const_tag(val);
+		switch (i0)
+		{
+		case C_INT: i1 = (Integer) val; break;
+		case C_LONG: l0 = (Long) val; break;
+		case C_FLOAT: i1 = Float.floatToRawIntBits((Float) val); break;
+		case C_DOUBLE: l0 = Double.doubleToRawLongBits((Double) val); break;
+		case C_STRING: s0 = (String) val; break;
+		}
+		break;
+	case KIND_PHI:
+		PhiUnit pu = (PhiUnit) u;
+		bcp = pu.bcp;
+		i0 = pu.stackSlot;
+		break;
+	case KIND_CHECKCAST:
+		bcp = ((CheckcastUnit) u)._bcp;
+		break;
+	case KIND_METHOD_PARAM:
+		MethodParamUnit mpu = (MethodParamUnit) u;
+		s0 = mpu.get_full_sig();
+		s1 = mpu._arg_name;
+		i0 = mpu.get_index();
+		i1 = mpu.getCloneNum();
+		if (mpu.isPublicOrProtected()) flags |= K0;
+		if (mpu.is_in_analyzed_code()) flags |= K1;
+		break;
+	case KIND_RETURN_VALUE:
+		ReturnValueUnit rvu = (ReturnValueUnit) u;
+		s0 = rvu.get_full_sig();
+		i1 = rvu.getCloneNum();
+		if (rvu.isPublicOrProtected()) flags |= K0;
+		if (rvu.is_in_analyzed_code()) flags |= K1;
+		break;
+	case KIND_LOCAL_VAR:
+		LocalVarUnit lvu = (LocalVarUnit) u;
+		s0 = lvu._method_descriptor;
+		s1 = lvu._varname;
+		i0 = lvu._logical_index;
+		i1 = lvu._phys_index;
+		bcp = lvu._bcp;
+		if (lvu._certain) flags |= K0;
+		break;
+	case KIND_MULT:
+		MultUnit mu = (MultUnit) u;
+		r0 = mu._a;
+		r1 = mu._b;
+		if (mu._coeff_b.is_big())
+		{
+			// doesn't fit in i0/i1, kept as decimal strings
+			flags |= K0;
+			s0 = mu._coeff_b.big_numerator().toString();
+			s1 = mu._coeff_b.big_denominator().toString();
+		}
+		else
+		{
+			i0 = mu._coeff_b.get_numerator();
+			i1 = mu._coeff_b.get_denominator();
+		}
+		break;
+	}
+}
+
+/** creates a new unit from the scalar fields of this record.
+ * unit references are filled in separately by link(), since they may point to units not yet created. */
+public Unit create()
+{
+	Type t = (type_sig == null) ? null : type_for_signature(type_sig);
+	Unit u;
+	switch (kind)
+	{
+	case KIND_UNIT:
+		u = new Unit(t);
+		break;
+	case KIND_FIELD:
+		FieldUnit fu = new FieldUnit(t, s0, (flags & K2) != 0, (flags & K3) != 0, (flags & K4) != 0, (flags & K5) != 0);
+		fu.setInAnalyzedCode((flags & K0) != 0);
+		fu.used = (flags & K1) != 0;
+		u = fu;
+		break;
+	case KIND_ALLOC:
+		u = new AllocUnit(t, i0, s0, bcp);
+		break;
+	case KIND_CONSTANT:
+		Object val = null;
+		switch (i0)
+		{
+		case C_INT: val = Integer.valueOf(i1); break;
+		case C_LONG: val = Long.valueOf(l0); break;
+		case C_FLOAT: val = Float.valueOf(Float.intBitsToFloat(i1)); break;
+		case C_DOUBLE: val = Double.valueOf(Double.longBitsToDouble(l0)); break;
+		case C_STRING: val = s0; break;
+		}
+		u = new ConstantUnit(t, bcp, val);
+		break;
+	case KIND_PHI:
+		u = new PhiUnit(bcp, i0, t);
+		break;
+	case KIND_CHECKCAST:
+		u = new CheckcastUnit(t, bcp);
+		break;
+	case KIND_METHOD_PARAM:
+		MethodParamUnit mpu = new MethodParamUnit(t, s0, null, i0, (flags & K0) != 0, (flags & K1) != 0);
+		mpu._arg_name = s1;
+		mpu.setCloneNum(i1);
+		u = mpu;
+		break;
+	case KIND_RETURN_VALUE:
+		ReturnValueUnit rvu = new ReturnValueUnit(s0, t, (flags & K0) != 0, (flags & K1) != 0);
+		rvu.setCloneNum(i1);
+		u = rvu;
+		break;
+	case KIND_LOCAL_VAR:
+		u = new LocalVarUnit(s0, i0, i1, bcp, s1, t, (flags & K0) != 0);
+		break;
+	case KIND_ELEMENT:
+		u = new ElementUnit(t);
+		break;
+	case KIND_ARRAY_LENGTH:
+		u = new ArrayLengthUnit();
+		u.type = t;
+		break;
+	case KIND_MULT:
+		MultUnit mu = new MultUnit(t);
+		mu._coeff_b = ((flags & K0) != 0) ? Fraction.valueOf(new BigInteger(s0), new BigInteger(s1)) : new Fraction(i0, i1);
+		u = mu;
+		break;
+	default:
+		throw new IllegalArgumentException("bad unit record kind: " + kind);
+	}
+
+	u.setId(id);
+	u.isTypeForced = (flags & F_TYPE_FORCED) != 0;
+	u.set_is_dimension_less((flags & F_DIMENSIONLESS) != 0);
+	if ((flags & F_GOLDEN) != 0)
+		u.markGolden();
+	u.setGoldenId(golden_id);
+	u.connectedToSingleUnit = (flags & F_CONNECTED_TO_SINGLE_UNIT) != 0;
+	u.clusterNum = cluster_num;
+	u.seaview_id = seaview_id;
+	u.seaview_rep_id = seaview_rep_id;
+	u.watchColor = watch_color;
+
+	NomOrdQuant attrs = u.unitAttribs;
+	if ((flags & F_QUANT_OR_ORD) != 0) attrs.setQuantOrOrd();
+	if ((flags & F_BITWISE) != 0) attrs.setBitOpPerformed();
+	if ((flags & F_EQUALS_COMPARED) != 0) attrs.setEqualityChecked();
+	if ((flags & F_DYNAMIC_TYPE_CHECKED) != 0) attrs.setDynamicTypeChecked();
+	return u;
+}
+
+/** sets u's references to other units from this record */
+public void link(Unit u)
+{
+	u.elementOf = element_of;
+	u.arrayOf = array_of;
+	u.lengthUnit = length_unit;
+	u.lengthOf = length_of;
+	if (kind == KIND_MULT)
+	{
+		((MultUnit) u)._a = r0;
+		((MultUnit) u)._b = r1;
+	}
+}
+
+/** inverse of Type.getSignature(), including bcel's special types that have no real signature */
+private static Type type_for_signature(String sig)
+{
+	if (sig.equals(Type.NULL.getSignature()))
+		return Type.NULL;
+	if (sig.equals(Type.UNKNOWN.getSignature()))
+		return Type.UNKNOWN;
+	return Type.getType(sig);
+}
+
+}
@@ -0,0 +1,45 @@
+/*
+UniFi software.
+Copyright [2001-2010] Sudheendra Hangal
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package unifi.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/** the one global table of class names, method and field signatures used in BCPs and units,
+ * so that each of them is kept once. the strings are String.intern'ed when first added,
+ * so == still works on them, but later lookups are a hash map lookup instead of a trip to
+ * the vm's string table. thread safe. */
+public class SymbolTable {
+
+private static final ConcurrentHashMap<String, String> symbols = new ConcurrentHashMap<String, String>();
+
+/** returns the canonical instance of s, null if s is null */
+public static String intern(String s)
+{
+	if (s == null)
+		return null;
+	String sym = symbols.get(s);
+	if (sym != null)
+		return sym;
+	String interned = s.intern();
+	sym = symbols.putIfAbsent(interned, interned);
+	return (sym != null) ? sym : interned;
+}
+
+/** # of symbols in the table */
+public static int size() { return symbols.size(); }
+
+}